@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2018 Ossdev07
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.a64asm;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static jnr.a64asm.INST_CODE.*;
+
+/**
+ * Instructions encoded per second through {@code _emita64}, for one
+ * representative instruction of each group.
+ *
+ * Only operations present before and after the per-group encoders are used,
+ * so the same benchmark measures the original switch when built against a
+ * jnr-a64asm from before the split. After {@code mvn install} of the tree to
+ * measure:
+ *
+ *   mvn -f src/jmh/pom.xml package -Da64asm.version=VERSION
+ *   java -jar src/jmh/target/benchmarks.jar EncoderBenchmark
+ *
+ * where VERSION is the version that tree was installed under.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class EncoderBenchmark {
+    //! @brief Instructions emitted into each new assembler; the original 128 byte buffer never grows.
+    static final int BATCH = 32;
+
+    private static final Register x1 = Register.gpb(1), x2 = Register.gpb(2), x3 = Register.gpb(3), x4 = Register.gpb(4);
+    private static final Register w1 = Register.gpw(1), w2 = Register.gpw(2), w3 = Register.gpw(3);
+
+    @Param({
+        "addsub_carry", "addsub_ext", "addsub_imm", "addsub_shift", "bitfield", "branch_imm", "branch_reg",
+        "condbranch", "dp_1src", "dp_2src", "dp_3src", "exception", "ldst_imm9", "ldst_pos", "ldst_imm9_2reg",
+        "ldst_pos_2reg", "ldst_unscaled", "ldstexcl", "ldstpair_off", "loadlit", "log_imm", "log_shift",
+        "movewide", "pcreladdr", "ic_system", "testbranch"
+    })
+    public String group;
+
+    private INST_CODE code;
+    private Operand o1, o2, o3, o4, o5;
+
+    @Setup
+    public void setUp() {
+        Operand[] o;
+        switch (group) {
+            case "addsub_carry":   code = INST_ADC_ADDSUB_CARRY;           o = ops(w1, w2, w3); break;
+            case "addsub_ext":     code = INST_ADD_EXT_ADDSUB_EXT;         o = ops(x1, x2, x3, new Ext(2, 2)); break;
+            case "addsub_imm":     code = INST_ADD_ADDSUB_IMM;             o = ops(x1, x2, imm(5)); break;
+            case "addsub_shift":   code = INST_ADD_ADDSUB_SHIFT;           o = ops(x1, x2, x3, new Shift(0, 3)); break;
+            case "bitfield":       code = INST_UBFM_BITFIELD;              o = ops(x1, x2, imm(3), imm(7)); break;
+            case "branch_imm":     code = INST_BL_BRANCH_IMM;              o = ops(imm(0x40)); break;
+            case "branch_reg":     code = INST_BLR_BRANCH_REG;             o = ops(x1); break;
+            case "condbranch":     code = INST_BNE_CONDBRANCH;             o = ops(imm(0x40)); break;
+            case "dp_1src":        code = INST_REV_DP_1SRC;                o = ops(x1, x2, x3, x4); break;
+            case "dp_2src":        code = INST_UDIV_DP_2SRC;               o = ops(x1, x2, x3, x4); break;
+            case "dp_3src":        code = INST_MADD_DP_3SRC;               o = ops(x1, x2, x3, x4); break;
+            case "exception":      code = INST_BRK_EXCEPTION;              o = ops(imm(3)); break;
+            case "ldst_imm9":      code = INST_LDR_IMM_PRE;                o = ops(x1, new Pre_index(x2, imm(-16))); break;
+            case "ldst_pos":       code = INST_LDR_IMM_OFF;                o = ops(x1, new Offset(x2, imm(16))); break;
+            case "ldst_imm9_2reg": code = INST_LDP_PRE_INDEXED_IDST_IMM9;  o = ops(x1, x2, new Pre_index(x3, imm(-16))); break;
+            case "ldst_pos_2reg":  code = INST_LDP_LDSTPAIR_OFF_LDST_POS;  o = ops(x1, x2, new Offset(x3, imm(16))); break;
+            case "ldst_unscaled":  code = INST_LDUR_LDST_UNSCALED;         o = ops(x1, x2, imm(-8)); break;
+            case "ldstexcl":       code = INST_LDAXR_LDSTEXCL;             o = ops(x1, x2); break;
+            case "ldstpair_off":   code = INST_STP_LDSTPAIR_OFF;           o = ops(x1, x2, x3); break;
+            case "loadlit":        code = INST_LDR_LOADLIT;                o = ops(x1, imm(0x1234)); break;
+            case "log_imm":        code = INST_AND_LOG_IMM;                o = ops(x1, x2, imm(0xff)); break;
+            case "log_shift":      code = INST_ORR_LOG_SHIFT;              o = ops(x1, x2, x3, new Shift(0, 3)); break;
+            case "movewide":       code = INST_MOVZ_MOVEWIDE;              o = ops(x1, imm(0x1234), new Shift(0, 16)); break;
+            case "pcreladdr":      code = INST_ADR_PCRELADDR;              o = ops(x1, imm(0x1234)); break;
+            case "ic_system":      code = INST_DMB_IC_SYSTEM;              o = ops(imm(3)); break;
+            case "testbranch":     code = INST_TBZ_TESTBRANCH;             o = ops(x1, imm(3), imm(0x40)); break;
+            default: throw new IllegalArgumentException("no benchmark for group " + group);
+        }
+        o1 = o[0];
+        o2 = o[1];
+        o3 = o[2];
+        o4 = o[3];
+        o5 = o[4];
+    }
+
+    private static Operand[] ops(Operand... given) {
+        Operand[] o = new Operand[5];
+        for (int i = 0; i < o.length; i++) {
+            o[i] = i < given.length ? given[i] : SerializerCore._none;
+        }
+        return o;
+    }
+
+    private static Immediate imm(long value) {
+        return Immediate.imm(value);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int encode() {
+        Assembler_A64 a = new Assembler_A64(CPU_A64.A64);
+        for (int i = 0; i < BATCH; i++) {
+            a._emita64(code, o1, o2, o3, o4, o5);
+        }
+        return a.codeSize();
+    }
+}
@@ -190,11 +190,30 @@ public final class Asm {
         return _ptr_build(base, index, shift, disp, SIZE_DWORD);
     }
 
+    // ============================================================================
+    // [AsmJit::Mem - ptr[base + extend(index) << amount]]
+    // ============================================================================
+
+    /** Create pointer operand with not specified size, e.g. {@code ptr(x0, w1, Ext.sxtw(3))}. */
+    public static final Mem ptr(Register base, Register index, Ext extend) {
+        return new Mem(base, index, extend, 0);
+    }
+
+    /** Create word (4 Bytes) pointer operand. */
+    public static final Mem word_ptr(Register base, Register index, Ext extend) {
+        return new Mem(base, index, extend, SIZE_WORD);
+    }
+
+    /** Create dword (8 Bytes) pointer operand. */
+    public static final Mem dword_ptr(Register base, Register index, Ext extend) {
+        return new Mem(base, index, extend, SIZE_DWORD);
+    }
+
     public static final Immediate imm(long value) {
          return Immediate.imm(value);
     }
 
     public static final Immediate uimm(long value) {
-        return Immediate.imm(value);
+        return Immediate.uimm(value);
     }
 }
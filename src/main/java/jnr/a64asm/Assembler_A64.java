@@ -19,8 +19,12 @@
 package jnr.a64asm;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
 
 import static jnr.a64asm.INST_CODE.*;
 import static jnr.a64asm.InstructionGroup.*;
@@ -36,10 +40,21 @@ import static jnr.a64asm.PrefOp.*;
  * Low level code generation.
  */
 public final class Assembler_A64 extends Serializer {
-    private final CodeBuffer _buffer = new CodeBuffer();
+    private final CodeBuffer _buffer;
     private final List<RelocData> _relocData = new LinkedList<RelocData>();
     private final CpuInfo cpuInfo = CpuInfo.GENERIC;
     private int _properties = 0;
+    private final LabelTable _labels = new LabelTable();
+    private final LiteralPool _pool = new LiteralPool();
+    /** Veneer slot index of each distinct far call target, see {@link #relocCode}. */
+    private final Map<Long, Integer> _veneers = new HashMap<Long, Integer>();
+    /** Offset of the veneers once reserved in the code buffer by {@link #relocCode(long)}, -1 before. */
+    private int _veneerBase = -1;
+    /** Recorded instructions in recording mode, @c null when emitting directly. */
+    private InstructionList _ir;
+    private final List<InstructionPass> _passes = new ArrayList<InstructionPass>();
+    //! @brief Label and fixup kind of the next recorded instruction.
+    private int _irLabel, _irKind;
 
     private final Logger _logger = null;
 
@@ -56,16 +71,83 @@ public final class Assembler_A64 extends Serializer {
 
     public static final CPU_A64 Aarch_64 = CPU_A64.Aarch64;
     public Assembler_A64(CPU_A64 cpu) {
+        this(cpu, CodeBuffer.DEFAULT_CAPACITY, GrowthPolicy.DOUBLING);
+    }
+
+    /**
+     * Creates an assembler whose code buffer is sized for @a sizeHint bytes up
+     * front, so code of about that size is assembled without growing the buffer.
+     */
+    public Assembler_A64(CPU_A64 cpu, int sizeHint) {
+        this(cpu, sizeHint, GrowthPolicy.DOUBLING);
+    }
+
+    /**
+     * Creates an assembler with an initial code buffer of @a sizeHint bytes
+     * that grows according to @a growth.
+     */
+    public Assembler_A64(CPU_A64 cpu, int sizeHint, GrowthPolicy growth) {
+        this(cpu, sizeHint, growth, CodeStorage.HEAP);
+    }
+
+    /**
+     * Creates an assembler with an initial code buffer of @a sizeHint bytes
+     * allocated in @a storage that grows according to @a growth.
+     */
+    public Assembler_A64(CPU_A64 cpu, int sizeHint, GrowthPolicy growth, CodeStorage storage) {
         this.cpu = cpu;
+        this._buffer = growth.newBuffer(sizeHint, storage);
+    }
+
+    /**
+     * Creates an assembler that emits straight into the remaining space of
+     * @a target (typically a direct buffer over native memory), starting at its
+     * position. The buffer never grows; emitting past its limit throws
+     * {@link IllegalStateException}. Use {@link #relocCode(long)} to relocate
+     * the code in place.
+     */
+    public Assembler_A64(CPU_A64 cpu, ByteBuffer target) {
+        this.cpu = cpu;
+        this._buffer = new FlatCodeBuffer(target);
     }
 
     public final int offset() {
         return _buffer.offset();
     }
 
-    /** Gets the required size of memory required to store all the generated code */
+    /**
+     * Returns the generated code as a buffer sharing the assembler's memory (no
+     * copy), positioned at the start of the code.
+     *
+     * @throws IllegalStateException if a segmented buffer holds more than one segment.
+     */
+    public final ByteBuffer code() {
+        finalizeCode();
+        _resolveLabels();
+        return _buffer.view();
+    }
+
+    /**
+     * Gets the required size of memory required to store all the generated code,
+     * including room for the veneers of far calls (see {@link #relocCode}).
+     * Like {@link #code()} this emits the pending literal pool and relaxes
+     * branches first, so the size is final.
+     */
     public final int codeSize() {
-        return _buffer.offset();
+        finalizeCode();
+        _resolveLabels();
+        if (_veneers.isEmpty() || _veneerBase >= 0) {
+            return _buffer.offset();
+        }
+        return _veneerBase() + _veneers.size() * VENEER_SIZE;
+    }
+
+    //! @brief Size of a far call veneer: ldr x16, #8; br x16; .quad target.
+    private static final int VENEER_SIZE = 16;
+
+    /** Returns the offset of the first veneer, 8 byte aligned after the code. */
+    private int _veneerBase() {
+        return _veneerBase >= 0 ? _veneerBase : (_buffer.offset() + 7) & ~7;
     }
 
     //! @brief Set byte at position @a pos.
@@ -108,6 +190,35 @@ public final class Assembler_A64 extends Serializer {
         _buffer.setQWordAt(pos, x);
     }
 
+    //! @brief Get instruction word at word index @a index.
+    public final int getWord32(int index) {
+        return _buffer.getWord32(index);
+    }
+
+    //! @brief Set instruction word at word index @a index.
+    public final void setWord32(int index, int x) {
+        _buffer.setWord32(index, x);
+    }
+
+    //! @brief Get number of whole instruction words emitted.
+    public final int wordCount() {
+        return _buffer.wordCount();
+    }
+
+    //! @brief Emit @a len instruction words from @a src starting at @a off.
+    public final void emitWords(int[] src, int off, int len) {
+        if (_ir != null) {
+            for (int i = off; i < off + len; i++) {
+                _ir.addInstruction(src[i], 0, InstructionList.NO_FIXUP);
+            }
+            return;
+        }
+        _buffer.emitWords(src, off, len);
+        if (_buffer.offset() > _pool.deadline()) {
+            _emitPoolOverBranch();
+        }
+    }
+
     //! @brief Set word at position @a pos.
     public final int getInt32At(int pos) {
         return (int) _buffer.getDWordAt(pos);
@@ -138,27 +249,51 @@ public final class Assembler_A64 extends Serializer {
 
     /** Emit Byte to internal buffer. */
     final void _emitByte(int  x) {
+        if (_ir != null) {
+            _ir.addValue(InstructionList.DATA, 0, 1, x);
+            return;
+        }
         _buffer.emitByte((byte) x);
     }
 
     /** Emit Word (2 bytes) to internal buffer. */
     final void _emitWord(int x) {
+        if (_ir != null) {
+            _ir.addValue(InstructionList.DATA, 0, 2, x);
+            return;
+        }
         _buffer.emitWord((short) x);
     }
 
     /** Emit DWord (4 bytes) to internal buffer. */
     final void _emitDWord(int x) {
+        if (_ir != null) {
+            _ir.addValue(InstructionList.DATA, 0, 4, x);
+            return;
+        }
         _buffer.emitDWord(x);
     }
 
     /** Emit QWord (8 bytes) to internal buffer. */
     final void _emitQWord(long x) {
+        if (_ir != null) {
+            _ir.addValue(InstructionList.DATA, 0, 8, x);
+            return;
+        }
         _buffer.emitQWord(x);
     }
 
     /** Emit Int32 (4 bytes) to internal buffer. */
     final void _emitInt32(int x) {
-        _buffer.emitDWord(x);
+        if (_ir != null) {
+            _ir.addInstruction(x, _irLabel, _irKind);
+            _irLabel = 0;
+            return;
+        }
+        _buffer.emitWord32(x);
+        if (_buffer.offset() > _pool.deadline()) {
+            _emitPoolOverBranch();
+        }
     }
 
     /** Emit system signed integer (4 or 8 bytes) to internal buffer. */
@@ -207,805 +342,697 @@ public final class Assembler_A64 extends Serializer {
     }
 
     void _emita64(INST_CODE code, Operand o1, Operand o2, Operand o3, Operand o4, Operand o5) {
-        InstructionDescription id = InstructionDescription.find(code);
-        switch(id.group){
-            case addsub_carry:
-            case addsub_ext:
-            {
-                int inst_to_emit = 0;
-                if ((o1.isReg() && o2.isReg() && o3.isReg()) || (o4 != null && o4.isExtend())){
-                    Register regD = (Register) o1;
-                    Register regN = (Register) o2;
-                    Register regM = (Register) o3;
-                    Ext extV = null;
-                    if(o4 != _none && o4.isExtend())
-                        extV = (Ext) o4;
-                    if(o1.size() == SIZE_DWORD){
-                            inst_to_emit |= 1 << 31;
-                    }
-                    inst_to_emit |= regD.code & 0b11111;
-                    inst_to_emit |= (regN.code &  0b11111) << 5;
-                    inst_to_emit |= (regM.code &  0b11111) << 16;
-                    if((id.group == addsub_ext) && (extV != null)){
-                        inst_to_emit |= (extV.value() & 0b111) << 10;
-                        inst_to_emit |= (extV.type() & 0b111) << 13;
-                    }
-                    inst_to_emit |= id.opcode;
-                    _emitInt32(inst_to_emit);
-                }
-                else
-                    throw new IllegalArgumentException("illegal arguments");
-                break;
-            }
-            case addsub_imm:
-            case addsub_shift:
-            {
-                int inst_to_emit = 0;
-                if ((o1 != _none && o1.isReg()) && (o2 != _none && o2.isReg())){
-                    Register regD = (Register) o1;
-                    Register regN = (Register) o2;
-                    Immediate val = null ;
-                    if(o3 != _none  && o3.isImm())
-                        val = (Immediate) o3;
-                    Shift sft = null;
-                    if(o4 != _none)
-                        sft = (Shift) o4;
-                    Register regM = null;
-                    if(o3 != _none && o3.isReg())
-                        regM = (Register) o3;
-                    if(o1.size() == SIZE_DWORD)
-                        inst_to_emit |= 1 << 31;
-                    inst_to_emit |= regD.code & 0b11111;
-                    inst_to_emit |= (regN.code &  0b11111) << 16;
-                    if(id.group == addsub_shift){
-                        if(regM != null)
-                            inst_to_emit |= (regM.code &  0b11111) << 16;
-                        if (sft != null)
-                            inst_to_emit |= (sft.value() &  0b111111) << 10;
-                    }
-                    else {
-                        if (val != null)
-                            inst_to_emit |= (val.value() &  0xfff) << 10;
-                    }
-                    if(sft != null)
-                        inst_to_emit |= (sft.type() & 0b11) << 22;
-                    inst_to_emit |= id.opcode;
-                    _emitInt32(inst_to_emit);
-                }
-                else
-                    throw new IllegalArgumentException("illegal arguments");
-                break;
-            }
-            case bitfield:
-            {
-                int inst_to_emit = 0;
-                if (o1.isReg() && o2.isReg()){
-                    Register regD = (Register) o1;
-                    Register regN = (Register) o2;
-                    Immediate val1 = null ;
-                    if(o3.isImm())
-                        val1 = (Immediate) o3;
-                    Immediate val2 = null;
-                    if(o4.isImm())
-                        val2 = (Immediate) o4;
-                    if(o1.size() == SIZE_DWORD){
-                        inst_to_emit |= 1 << 31;
-                        inst_to_emit |= 1 << 22;
-                    }
-                    inst_to_emit |= regD.code & 0b11111;
-                    inst_to_emit |= (regN.code &  0b11111) << 5;
-                    if (val1 != null)
-                        inst_to_emit |= (val1.value() &  0b111111) << 10;
-                    if (val2 != null)
-                        inst_to_emit |= (val2.value() &  0b111111) << 16;
-                    inst_to_emit |= id.opcode;
-                    _emitInt32(inst_to_emit);
-                }
-                else
-                    throw new IllegalArgumentException("illegal arguments");
-                break;
-            }
-            case branch_imm:
-            {
-                int inst_to_emit = 0;
-                if (o1 != _none){
-                    Immediate mem = (Immediate) o1;
-                    /*<label> Is the program label to be unconditionally branched to. Its offset from the address of this instruction,
-                    in the range +/-128MB, is encoded as "imm26" times 4.*/
-                    _emitJmpOrCallReloc(branch_imm, mem.value());
-                }
-                else
-                    throw new IllegalArgumentException("illegal arguments");
-                break;
-            }
-            case branch_reg:
-            {
-                int inst_to_emit = 0;
-                Register regN = null;
-                if(o1 != _none && o1 != null && o1.isReg()) /*because at jnr-ffi level this is called like this a.ret((Register)null);*/
-                regN = (Register) o1;
-                if (regN != null)
-                    inst_to_emit |= (regN.code &  0b11111) << 5;
-                if(regN == null && id.code == INST_RET_BRANCH_REG)
-                    inst_to_emit |= 0b11110 << 5;   /*in the case of RET default location is X30*/
-                inst_to_emit |= id.opcode;
-                _emitInt32(inst_to_emit);
-                break;
-            }
-            case compbranch:
-            {
-                int inst_to_emit = 0;
-                if (o1.isReg() && o2.isLabel()){
-                    Register regD = (Register) o1;
-                    Label labl = (Label) o2;
-                    if(o1.size() == SIZE_DWORD)
-                        inst_to_emit |= 1 << 31;
-                    inst_to_emit |= regD.code & 0b11111;
-                    inst_to_emit |= (labl.position() & 0x7ffff) << 5;
-                    inst_to_emit |= id.opcode;
-                    _emitInt32(inst_to_emit);
-                }
-                else
-                    throw new IllegalArgumentException("illegal arguments");
-                break;
-            }
-            case condbranch:
-            {
-                int inst_to_emit = 0;
-                if (o1.isImm()){
-                    Immediate imm19 = (Immediate) o1;
-                    if (imm19 != null)
-                        inst_to_emit |= (imm19.value() & 0x7ffff) << 5;
-                    inst_to_emit |= id.opcode;
-                    _emitInt32(inst_to_emit);
-                }
-                else
-                    throw new IllegalArgumentException("illegal arguments");
-                break;
+        InstructionDescription id = InstructionDescription.get(code);
+        if (_ir != null) {
+            _ir.setCurrent(code.ordinal());
+            InstructionEncoder.BY_CODE[code.ordinal()].encode(this, id, o1, o2, o3, o4, o5);
+            _ir.setCurrent(InstructionList.RAW);
+            return;
+        }
+        InstructionEncoder.BY_CODE[code.ordinal()].encode(this, id, o1, o2, o3, o4, o5);
+    }
+
+    // ============================================================================
+    // [Primitive emission]
+    // ============================================================================
+    //
+    // Allocation-free alternatives to the Operand based intrinsics. Registers are
+    // @c REG codes (@c REG_X0 .. @c REG_X31, @c REG_W0 .. @c REG_W31); a @c REG_W
+    // code selects the 32 bit form of the instruction. Register 31 is SP for the
+    // immediate add/sub, load/store base and pair forms, and XZR/WZR elsewhere.
+
+    /** Emits {@code add rd, rn, #imm12 {, lsl #shift}}; @a shift is 0 or 12. */
+    public final void addImm(int rd, int rn, int imm12, int shift) {
+        _emitInt32(Encoding.addSubImm(Encoding.ADD_IMM, rd, rn, imm12, shift));
+    }
+
+    /** Emits {@code adds rd, rn, #imm12 {, lsl #shift}}. */
+    public final void addsImm(int rd, int rn, int imm12, int shift) {
+        _emitInt32(Encoding.addSubImm(Encoding.ADDS_IMM, rd, rn, imm12, shift));
+    }
+
+    /** Emits {@code sub rd, rn, #imm12 {, lsl #shift}}. */
+    public final void subImm(int rd, int rn, int imm12, int shift) {
+        _emitInt32(Encoding.addSubImm(Encoding.SUB_IMM, rd, rn, imm12, shift));
+    }
+
+    /** Emits {@code subs rd, rn, #imm12 {, lsl #shift}}. */
+    public final void subsImm(int rd, int rn, int imm12, int shift) {
+        _emitInt32(Encoding.addSubImm(Encoding.SUBS_IMM, rd, rn, imm12, shift));
+    }
+
+    /** Emits {@code cmp rn, #imm12 {, lsl #shift}}. */
+    public final void cmpImm(int rn, int imm12, int shift) {
+        _emitInt32(Encoding.addSubImm(Encoding.SUBS_IMM, rn | REGCODE_MASK, rn, imm12, shift));
+    }
+
+    /** Emits {@code cmn rn, #imm12 {, lsl #shift}}. */
+    public final void cmnImm(int rn, int imm12, int shift) {
+        _emitInt32(Encoding.addSubImm(Encoding.ADDS_IMM, rn | REGCODE_MASK, rn, imm12, shift));
+    }
+
+    /**
+     * Emits {@code add rd, rn, #value} for any @a value, choosing the shortest
+     * form, see {@link #_emitAddSubImm}.
+     */
+    public final void addImm(int rd, int rn, long value) {
+        _emitAddSubImm(false, false, rd, rn, value);
+    }
+
+    /** Emits {@code adds rd, rn, #value} for any @a value. */
+    public final void addsImm(int rd, int rn, long value) {
+        _emitAddSubImm(false, true, rd, rn, value);
+    }
+
+    /** Emits {@code sub rd, rn, #value} for any @a value. */
+    public final void subImm(int rd, int rn, long value) {
+        _emitAddSubImm(true, false, rd, rn, value);
+    }
+
+    /** Emits {@code subs rd, rn, #value} for any @a value. */
+    public final void subsImm(int rd, int rn, long value) {
+        _emitAddSubImm(true, true, rd, rn, value);
+    }
+
+    /** Emits {@code cmp rn, #value} for any @a value. */
+    public final void cmpImm(int rn, long value) {
+        _emitAddSubImm(true, true, rn | REGCODE_MASK, rn, value);
+    }
+
+    /** Emits {@code cmn rn, #value} for any @a value. */
+    public final void cmnImm(int rn, long value) {
+        _emitAddSubImm(false, true, rn | REGCODE_MASK, rn, value);
+    }
+
+    /**
+     * Emits {@code rd = rn +/- value} (@a sub selects subtraction, @a setFlags
+     * the flag setting form) using the first form that fits:
+     * <ul>
+     * <li>a single imm12, or imm12 shifted left by 12;</li>
+     * <li>the same with add and sub swapped, for negative values;</li>
+     * <li>two instructions, the high part shifted by 12 and the low part
+     *     (not when setting flags, the flags would only reflect the second);</li>
+     * <li>the value materialized in x16 (x17 if @a rn is x16) and the extended
+     *     register form, which also works when @a rd or @a rn is SP.</li>
+     * </ul>
+     */
+    final void _emitAddSubImm(boolean sub, boolean setFlags, int rd, int rn, long value) {
+        if (!Encoding.is64(rd)) {
+            value = (int) value;
+        }
+        if (value < 0 && value != Long.MIN_VALUE) {
+            sub = !sub;
+            value = -value;
+        }
+
+        int op = sub ? (setFlags ? Encoding.SUBS_IMM : Encoding.SUB_IMM) : (setFlags ? Encoding.ADDS_IMM : Encoding.ADD_IMM);
+        if (value >= 0 && value <= 0xfff) {
+            _emitInt32(Encoding.addSubImm(op, rd, rn, (int) value, 0));
+        } else if (value >= 0 && value <= 0xfff000 && (value & 0xfff) == 0) {
+            _emitInt32(Encoding.addSubImm(op, rd, rn, (int) (value >>> 12), 12));
+        } else if (value >= 0 && value <= 0xffffff && !setFlags) {
+            _emitInt32(Encoding.addSubImm(op, rd, rn, (int) (value >>> 12), 12));
+            _emitInt32(Encoding.addSubImm(op, rd, rd, (int) (value & 0xfff), 0));
+        } else {
+            boolean is64 = Encoding.is64(rd);
+            int scratch = Encoding.r(rn) == 16 ? 17 : 16;
+            loadConstant((is64 ? REG_GPR : REG_GPT) | scratch, value);
+            int extOp = sub ? (setFlags ? Encoding.SUBS_EXT : Encoding.SUB_EXT) : (setFlags ? Encoding.ADDS_EXT : Encoding.ADD_EXT);
+            _emitInt32(Encoding.addSubExt(extOp, rd, rn, scratch, is64 ? Ext.UXTX : Ext.UXTW, 0));
+        }
+    }
+
+    /** Emits {@code add rd, rn, rm}. */
+    public final void addReg(int rd, int rn, int rm) {
+        _emitInt32(Encoding.addSubShift(Encoding.ADD_SHIFT, rd, rn, rm, 0, 0));
+    }
+
+    /** Emits {@code sub rd, rn, rm}. */
+    public final void subReg(int rd, int rn, int rm) {
+        _emitInt32(Encoding.addSubShift(Encoding.SUB_SHIFT, rd, rn, rm, 0, 0));
+    }
+
+    /** Emits {@code cmp rn, rm}. */
+    public final void cmpReg(int rn, int rm) {
+        _emitInt32(Encoding.addSubShift(Encoding.SUBS_SHIFT, rn | REGCODE_MASK, rn, rm, 0, 0));
+    }
+
+    /** Emits {@code mov rd, rm} ({@code orr rd, zr, rm}); register 31 is XZR/WZR, see {@link #movSp}. */
+    public final void movReg(int rd, int rm) {
+        _emitInt32(Encoding.logShift(Encoding.ORR_SHIFT, rd, rd | REGCODE_MASK, rm, 0, 0));
+    }
+
+    /** Emits {@code mov rd, rn} ({@code add rd, rn, #0}), where register 31 in either operand is SP. */
+    public final void movSp(int rd, int rn) {
+        _emitInt32(Encoding.addSubImm(Encoding.ADD_IMM, rd, rn, 0, 0));
+    }
+
+    /** Emits {@code movz rd, #imm16, lsl #shift}. */
+    public final void movzImm(int rd, int imm16, int shift) {
+        _emitInt32(Encoding.moveWide(Encoding.MOVZ, rd, imm16, shift));
+    }
+
+    /** Emits {@code movn rd, #imm16, lsl #shift}. */
+    public final void movnImm(int rd, int imm16, int shift) {
+        _emitInt32(Encoding.moveWide(Encoding.MOVN, rd, imm16, shift));
+    }
+
+    /** Emits {@code and rd, rn, #value}; @a value must be a bitmask immediate. */
+    public final void andImm(int rd, int rn, long value) {
+        _emitInt32(Encoding.logImm(Encoding.AND_IMM, rd, rn, _bitmask(rd, value)));
+    }
+
+    /** Emits {@code orr rd, rn, #value}; @a value must be a bitmask immediate. */
+    public final void orrImm(int rd, int rn, long value) {
+        _emitInt32(Encoding.logImm(Encoding.ORR_IMM, rd, rn, _bitmask(rd, value)));
+    }
+
+    /** Emits {@code eor rd, rn, #value}; @a value must be a bitmask immediate. */
+    public final void eorImm(int rd, int rn, long value) {
+        _emitInt32(Encoding.logImm(Encoding.EOR_IMM, rd, rn, _bitmask(rd, value)));
+    }
+
+    /** Emits {@code ands rd, rn, #value}; @a value must be a bitmask immediate. */
+    public final void andsImm(int rd, int rn, long value) {
+        _emitInt32(Encoding.logImm(Encoding.ANDS_IMM, rd, rn, _bitmask(rd, value)));
+    }
+
+    /** Emits {@code tst rn, #value}; @a value must be a bitmask immediate. */
+    public final void tstImm(int rn, long value) {
+        andsImm(rn | REGCODE_MASK, rn, value);
+    }
+
+    /** Returns @c true if @a value can be the immediate of and/orr/eor/ands/tst for @a reg. */
+    public static boolean isLogicalImmediate(int reg, long value) {
+        return LogicalImmediate.isEncodable(value, Encoding.is64(reg));
+    }
+
+    private static int _bitmask(int reg, long value) {
+        int bitmask = LogicalImmediate.encode(value, Encoding.is64(reg));
+        if (bitmask < 0) {
+            throw new IllegalArgumentException("not a bitmask immediate: 0x" + Long.toHexString(value));
+        }
+        return bitmask;
+    }
+
+    /**
+     * Materializes @a value in @a rd with the shortest sequence of movz, movn,
+     * movk and orr (bitmask immediate).
+     */
+    public final void loadConstant(int rd, long value) {
+        int[] seq = ConstantSynthesizer.sequence(value, Encoding.is64(rd));
+        for (int i = 0; i < seq.length; i++) {
+            _emitInt32(seq[i] | Encoding.r(rd));
+        }
+    }
+
+    //! @brief Materialize @a value in @a rd, see {@link #loadConstant(int, long)}.
+    public final void loadConstant(Register rd, long value) {
+        loadConstant(rd.code, value);
+    }
+
+    /** Emits {@code movk rd, #imm16, lsl #shift}. */
+    public final void movkImm(int rd, int imm16, int shift) {
+        _emitInt32(Encoding.moveWide(Encoding.MOVK, rd, imm16, shift));
+    }
+
+    /** Emits {@code ldr rt, [rn, #offset]}; the width of @a rt selects a 32 or 64 bit load. */
+    public final void ldrImm(int rt, int rn, long offset) {
+        _emitLdstImm(Encoding.is64(rt) ? Encoding.SIZE_X : Encoding.SIZE_W, Encoding.OPC_LOAD, rt, rn, offset);
+    }
+
+    /** Emits {@code ldrb wt, [rn, #offset]}. */
+    public final void ldrbImm(int rt, int rn, long offset) {
+        _emitLdstImm(Encoding.SIZE_B, Encoding.OPC_LOAD, rt, rn, offset);
+    }
+
+    /** Emits {@code ldrh wt, [rn, #offset]}. */
+    public final void ldrhImm(int rt, int rn, long offset) {
+        _emitLdstImm(Encoding.SIZE_H, Encoding.OPC_LOAD, rt, rn, offset);
+    }
+
+    /** Emits {@code ldrsw xt, [rn, #offset]}. */
+    public final void ldrswImm(int rt, int rn, long offset) {
+        _emitLdstImm(Encoding.SIZE_W, Encoding.OPC_LOAD_SIGNED_64, rt, rn, offset);
+    }
+
+    /** Emits {@code str rt, [rn, #offset]}; the width of @a rt selects a 32 or 64 bit store. */
+    public final void strImm(int rt, int rn, long offset) {
+        _emitLdstImm(Encoding.is64(rt) ? Encoding.SIZE_X : Encoding.SIZE_W, Encoding.OPC_STORE, rt, rn, offset);
+    }
+
+    /** Emits {@code strb wt, [rn, #offset]}. */
+    public final void strbImm(int rt, int rn, long offset) {
+        _emitLdstImm(Encoding.SIZE_B, Encoding.OPC_STORE, rt, rn, offset);
+    }
+
+    /** Emits {@code strh wt, [rn, #offset]}. */
+    public final void strhImm(int rt, int rn, long offset) {
+        _emitLdstImm(Encoding.SIZE_H, Encoding.OPC_STORE, rt, rn, offset);
+    }
+
+    /** Emits {@code ldp rt, rt2, [rn, #offset]}. */
+    public final void ldpImm(int rt, int rt2, int rn, long offset) {
+        _emitLdstPair(Encoding.PAIR_OFFSET, true, rt, rt2, rn, offset);
+    }
+
+    /** Emits {@code stp rt, rt2, [rn, #offset]}. */
+    public final void stpImm(int rt, int rt2, int rn, long offset) {
+        _emitLdstPair(Encoding.PAIR_OFFSET, false, rt, rt2, rn, offset);
+    }
+
+    /** Emits {@code ldp rt, rt2, [rn], #offset}. */
+    public final void ldpPost(int rt, int rt2, int rn, long offset) {
+        _emitLdstPair(Encoding.PAIR_POST, true, rt, rt2, rn, offset);
+    }
+
+    /** Emits {@code stp rt, rt2, [rn, #offset]!}. */
+    public final void stpPre(int rt, int rt2, int rn, long offset) {
+        _emitLdstPair(Encoding.PAIR_PRE, false, rt, rt2, rn, offset);
+    }
+
+    /** Emits {@code br rn}. */
+    public final void brReg(int rn) {
+        _emitInt32(Encoding.branchReg(Encoding.BR, rn));
+    }
+
+    /** Emits {@code blr rn}. */
+    public final void blrReg(int rn) {
+        _emitInt32(Encoding.branchReg(Encoding.BLR, rn));
+    }
+
+    /** Emits {@code ret rn}. */
+    public final void retReg(int rn) {
+        _emitInt32(Encoding.branchReg(Encoding.RET, rn));
+    }
+
+    /** Emits {@code bl} to absolute address @a target, resolved by {@link #relocCode}. */
+    public final void blImm(long target) {
+        _emitJmpOrCallReloc(Encoding.BL, target);
+    }
+
+    /** Emits {@code b} to absolute address @a target (a tail call), resolved by {@link #relocCode}. */
+    public final void bImm(long target) {
+        _emitJmpOrCallReloc(Encoding.B, target);
+    }
+
+    /** Emits {@code b label}. */
+    public final void bLabel(Label label) {
+        _emitInt32(Encoding.fixup(Encoding.B, LabelTable.FIXUP_IMM26, _labelDisp(label, LabelTable.FIXUP_IMM26)));
+    }
+
+    /** Emits {@code b.cond label}; @a cond is the 4 bit A64 condition code. */
+    public final void bCond(int cond, Label label) {
+        _emitInt32(Encoding.fixup(Encoding.condBranch(cond, 0), LabelTable.FIXUP_IMM19,
+                _labelDisp(label, LabelTable.FIXUP_IMM19)));
+    }
+
+    /** Emits {@code cbz rt, label}. */
+    public final void cbzLabel(int rt, Label label) {
+        _emitInt32(Encoding.fixup(Encoding.compBranch(Encoding.CBZ, rt, 0), LabelTable.FIXUP_IMM19,
+                _labelDisp(label, LabelTable.FIXUP_IMM19)));
+    }
+
+    /** Emits {@code cbnz rt, label}. */
+    public final void cbnzLabel(int rt, Label label) {
+        _emitInt32(Encoding.fixup(Encoding.compBranch(Encoding.CBNZ, rt, 0), LabelTable.FIXUP_IMM19,
+                _labelDisp(label, LabelTable.FIXUP_IMM19)));
+    }
+
+    /**
+     * Emits a single register load/store, choosing the scaled unsigned offset form
+     * when @a offset allows it and the unscaled (ldur/stur) form otherwise. Other
+     * offsets go through x16 (x17 if that is taken): the part above 4K is added
+     * with one add/sub when the rest is a valid scaled offset, otherwise the whole
+     * offset is materialized and used as a register offset.
+     */
+    private void _emitLdstImm(int size, int opc, int rt, int rn, long offset) {
+        if (Encoding.isLdstPos(size, offset)) {
+            _emitInt32(Encoding.ldstPos(size, opc, rt, rn, offset));
+        } else if (Encoding.isImm9(offset)) {
+            _emitInt32(Encoding.ldstImm9(size, opc, Encoding.MODE_UNSCALED, rt, rn, offset));
+        } else {
+            int scratch = REG_GPR | _ldstScratch(opc, rt, rn, NO_REG);
+            long high = offset & ~0xfffL;
+            long low = offset & 0xfff;
+            if (high >= -0xfff000 && high <= 0xfff000 && Encoding.isLdstPos(size, low)) {
+                int op = high < 0 ? Encoding.SUB_IMM : Encoding.ADD_IMM;
+                _emitInt32(Encoding.addSubImm(op, scratch, rn, (int) (Math.abs(high) >>> 12), 12));
+                _emitInt32(Encoding.ldstPos(size, opc, rt, scratch, low));
+            } else {
+                loadConstant(scratch, offset);
+                _emitInt32(Encoding.ldstReg(size, opc, rt, rn, scratch, Ext.UXTX, false));
             }
-            case condcmp_imm:
-            case condcmp_reg:
-            {
-                int inst_to_emit = 0;
-                if (o1.isReg() && o2.isImm()){
-                    Register regD = (Register) o1;
-                    Register regM = (Register) o2;
-                    Immediate val = (Immediate) o2;
-                    Immediate nzcv = (Immediate) o3;
-                    Conditions cond = (Conditions) o4;
-                    if (regD != null)
-                        inst_to_emit |= regD.code & 0b11111;
-                    if (id.group == condcmp_reg && regM != null)
-                        inst_to_emit |= (regM.code &  0b11111) << 16;
-                    else{
-                        if (val != null)
-                            inst_to_emit |= (val.value() & 0b11111) << 16;
-                    }
-                    if (nzcv != null)
-                        inst_to_emit |= nzcv.value() & 0b1111;
-                    if (cond != null)
-                        inst_to_emit |= (cond.value() & 0b1111) << 12;
-                    inst_to_emit |= id.opcode;
-                    _emitInt32(inst_to_emit);
-                }
-                else
-                    throw new IllegalArgumentException("illegal arguments");
-                break;
+        }
+    }
+
+    /**
+     * Emits a single register load/store of @a mem. Base + displacement goes
+     * through {@link #_emitLdstImm}; base + index uses the register offset form
+     * when there is no displacement and the index is shifted by 0 or the access
+     * size, otherwise the index is first added to the base in a scratch register.
+     */
+    final void _emitLdstMem(int size, int opc, int rt, Mem mem) {
+        if (!mem.hasBase() || mem.hasLabel()) {
+            throw new IllegalArgumentException("loads and stores need a base register");
+        }
+        int rn = REG_GPR | mem.base();
+        if (!mem.hasIndex()) {
+            _emitLdstImm(size, opc, rt, rn, mem.displacement());
+            return;
+        }
+
+        int rm = REG_GPR | mem.index();
+        Ext extend = mem.extend();
+        int option = extend != null ? (int) extend.type() : Ext.UXTX;
+        int amount = extend != null ? (int) extend.value() : mem.shift();
+        if (option != Ext.UXTW && option != Ext.UXTX && option != Ext.SXTW && option != Ext.SXTX) {
+            throw new IllegalArgumentException("invalid index extend: " + option);
+        }
+        if (amount < 0 || amount > 4) {
+            throw new IllegalArgumentException("invalid index shift: " + amount);
+        }
+
+        if (mem.displacement() == 0 && (amount == 0 || amount == size)) {
+            _emitInt32(Encoding.ldstReg(size, opc, rt, rn, rm, option, amount != 0));
+        } else {
+            int scratch = REG_GPR | _ldstScratch(opc, rt, rn, rm);
+            _emitInt32(Encoding.addSubExt(Encoding.ADD_EXT, scratch, rn, rm, option, amount));
+            _emitLdstImm(size, opc, rt, scratch, mem.displacement());
+        }
+    }
+
+    /** Returns x16, or x17 if x16 is the base, the index or the register being stored. */
+    private static int _ldstScratch(int opc, int rt, int rn, int rm) {
+        for (int scratch = 16; scratch <= 17; scratch++) {
+            if (Encoding.r(rn) != scratch && Encoding.r(rm) != scratch
+                    && (opc != Encoding.OPC_STORE || Encoding.r(rt) != scratch)) {
+                return scratch;
             }
-            case condsel:
-            {
-                int inst_to_emit = 0;
-                if (o1.isReg()){
-                    Register regD = (Register) o1;
-                    Register regN = (Register) o2;
-                    Register regM = (Register) o3;
-                    Conditions cond0 = (Conditions) o4;
-                    Conditions cond1 = (Conditions) o3;
-                    Conditions cond2 = (Conditions) o2;
-                    if (regD != null)
-                        inst_to_emit |= regD.code & 0b11111;
-                        if(o4.isCond() && ((cond0.value() & 0b1110) != 0b1110)){
-                            inst_to_emit |= (cond0.value() ^ 0b1) << 12;
-                            inst_to_emit |= (regN.code &  0b11111) << 5;
-                            inst_to_emit |= (regM.code &  0b11111) << 16;
-                        }
-                        else if(o3.isCond() && ((cond1.value() & 0b1110) != 0b1110)){
-                            inst_to_emit |= (cond1.value() ^ 0b1) << 12;
-                            inst_to_emit |= (regN.code &  0b11111) << 5;
-                            inst_to_emit |= (0b11111) << 16;    /*regM is 0b11111 if not explicitly mentioned in ASM inst*/
-                        }
-                        else if(o2.isCond() && ((cond2.value() & 0b1110) != 0b1110)){
-                            inst_to_emit |= (cond1.value() ^ 0b1) << 12;
-                            inst_to_emit |= (0b11111) << 5;
-                            inst_to_emit |= (0b11111) << 16;    /*regM&N is 0b11111 if not explicitly mentioned in ASM inst*/
-                        }
-                        inst_to_emit |= id.opcode;
-                        _emitInt32(inst_to_emit);
-                    }
-                    else
-                        throw new IllegalArgumentException("illegal arguments");
+        }
+        throw new IllegalArgumentException("x16 and x17 are both in use, no scratch register for the address");
+    }
+
+    private void _emitLdstPair(int mode, boolean load, int rt, int rt2, int rn, long offset) {
+        if (!Encoding.isPairOffset(rt, offset)) {
+            throw new IllegalArgumentException("load/store pair offset out of range: " + offset);
+        }
+        _emitInt32(Encoding.ldstPair(mode, load, rt, rt2, rn, offset));
+    }
+
+    /**
+     * Emits {@code ldr rt, =value}: loads @a value (32 or 64 bit, following
+     * @a rt) from the literal pool. Equal constants share one pool entry.
+     */
+    public final void ldrLiteral(int rt, long value) {
+        if (_ir != null) {
+            _ir.addValue(InstructionList.LITERAL, Encoding.loadLit(rt, 0), InstructionList.NO_FIXUP, value);
+            return;
+        }
+        int size = Encoding.is64(rt) ? 8 : 4;
+        int label = _pool.entry(_labels, size == 8 ? value : value & 0xffffffffL, size, offset());
+        int disp = _labels.position(label) >= 0 ? _labels.position(label) - offset() : 0;
+        _labels.addFixup(offset(), LabelTable.FIXUP_IMM19, label);
+        _emitInt32(Encoding.loadLit(rt, disp));
+    }
+
+    /**
+     * Emits the pending literal pool at the current offset. Call this at a
+     * point execution never falls through, e.g. after a ret or b. Pending
+     * constants are otherwise emitted behind a branch when their loads would
+     * go out of reach, and at the end of the code.
+     */
+    public final void emitLiteralPool() {
+        if (_ir != null) {
+            _ir.addValue(InstructionList.POOL, 0, InstructionList.NO_FIXUP, 0);
+            return;
+        }
+        if (!_pool.isEmpty()) {
+            _pool.emit(_buffer, _labels);
+        }
+    }
+
+    private void _emitPoolOverBranch() {
+        int after = _labels.newLabel();
+        _labels.addFixup(offset(), LabelTable.FIXUP_IMM26, after);
+        _buffer.emitWord32(Encoding.B);
+        _pool.emit(_buffer, _labels);
+        _labels.bind(after, offset());
+    }
+
+    /** Creates a new unbound label owned by this assembler. */
+    public final Label newLabel() {
+        return new Label(_labels.newLabel());
+    }
+
+    /**
+     * Binds @a label to the current offset. Branches, literal loads and adr
+     * referring to it are patched when the code is finalized.
+     */
+    public final void bind(Label label) {
+        _labels.check(label.id);
+        if (_labels.position(label.id) >= 0) {
+            throw new IllegalStateException("label already bound");
+        }
+        if (_ir != null) {
+            // Marks the label bound; the real offset is set by finalizeCode().
+            _labels.bind(label.id, _ir.size());
+            _ir.addLabel(label.id);
+            return;
+        }
+        _labels.bind(label.id, offset());
+        label.bind(offset());
+    }
+
+    /**
+     * Records a fixup of @a kind from the instruction about to be emitted to
+     * @a label and returns the byte displacement to it if it is already bound
+     * and in range (0 otherwise; out of range branches are relaxed later).
+     */
+    final int _labelDisp(Label label, int kind) {
+        _labels.check(label.id);
+        if (_ir != null) {
+            label.link();
+            _irLabel = label.id;
+            _irKind = kind;
+            return 0;
+        }
+        _labels.addFixup(offset(), kind, label.id);
+        label.link();
+        int pos = _labels.position(label.id);
+        return pos >= 0 && Encoding.fitsFixup(kind, pos - offset()) ? pos - offset() : 0;
+    }
+
+    /**
+     * Switches to recording mode: from here on instructions, label bindings,
+     * literal loads and calls are captured in an {@link InstructionList}
+     * instead of being encoded into the code buffer, until
+     * {@link #finalizeCode()} runs the passes added by {@link #addPass} over
+     * them and encodes the result. {@link #offset()} stays 0 while recording.
+     * Without recording, instructions are encoded as they are emitted.
+     *
+     * @throws IllegalStateException if code was already emitted.
+     */
+    public final void beginRecording() {
+        if (_buffer.offset() != 0 || _ir != null) {
+            throw new IllegalStateException("recording must start before any code is emitted");
+        }
+        _ir = new InstructionList();
+    }
+
+    /** Adds @a pass to the passes run on recorded instructions, in order. */
+    public final void addPass(InstructionPass pass) {
+        _passes.add(pass);
+    }
+
+    /**
+     * Runs the passes over the recorded instructions and encodes them into the
+     * code buffer, leaving recording mode; does nothing when not recording.
+     * Called by {@link #code()}, {@link #codeSize()} and {@link #relocCode}.
+     */
+    public final void finalizeCode() {
+        InstructionList ir = _ir;
+        if (ir == null) {
+            return;
+        }
+        _ir = null;
+        for (InstructionPass pass : _passes) {
+            pass.run(ir);
+        }
+
+        _labels.unbindAll();
+        for (int i = 0; i < ir.size(); i++) {
+            switch (ir.code(i)) {
+                case InstructionList.REMOVED:
+                    break;
+                case InstructionList.LABEL:
+                    _labels.bind(ir.label(i), offset());
+                    break;
+                case InstructionList.CALL:
+                    _emitJmpOrCallReloc(ir.word(i), ir.value(i));
+                    break;
+                case InstructionList.LITERAL: {
+                    int w = ir.word(i);
+                    ldrLiteral(((w & (1 << 30)) != 0 ? REG_GPR : REG_GPT) | Encoding.r(w), ir.value(i));
                     break;
-            }
-            case dp_1src:
-            case dp_2src:
-            case dp_3src:
-            {
-                int inst_to_emit = 0;
-                if (o1.isReg() && o2.isReg()){
-                    Register regD = (Register) o1;
-                    Register regN = (Register) o2;
-                    Register regM = (Register) o3;
-                    Register regA = (Register) o4;
-                    if (regD != null)
-                        inst_to_emit |= regD.code & 0b11111;
-                    if (regN != null)
-                        inst_to_emit |= (regN.code &  0b11111) << 5;
-                    if (regM != null && (id.group == dp_2src || id.group == dp_3src))
-                        inst_to_emit |= (regM.code &  0b11111) << 16;
-                    if (regA != null && id.group == dp_3src)
-                        inst_to_emit |= (regA.code &  0b11111) << 10;
-                    inst_to_emit |= id.opcode;
-                    _emitInt32(inst_to_emit);
-                }
-                else
-                    throw new IllegalArgumentException("illegal arguments");
-                break;
-            }
-            case exception:
-            {
-                int inst_to_emit = 0;
-                if (o1.isImm()){
-                    Immediate imm16 = (Immediate) o1;
-                    if(imm16 != null)
-                        inst_to_emit |= (imm16.value() & 0xffff) << 5;
-                    inst_to_emit |= id.opcode;
-                    _emitInt32(inst_to_emit);
-                }
-                else
-                    throw new IllegalArgumentException("illegal arguments");
-                break;
-            }
-            case extract:
-            {
-                int inst_to_emit = 0;
-                if (o1.isReg() && o2.isReg()){
-                    Register regD = (Register) o1;
-                    Register regN = (Register) o2;
-                    Register regM = (Register) o3;
-                    Immediate imm6 = (Immediate) o4;
-                    Immediate imm6_1 = (Immediate) o3;
-                    if (regD != null)
-                        inst_to_emit |= regD.code & 0b11111;
-                    if (regN != null)
-                        inst_to_emit |= (regN.code &  0b11111) << 5;
-                    if (o3.isReg() && regM != null){
-                        inst_to_emit |= (regM.code &  0b11111) << 16;
-                        inst_to_emit |= (imm6.value() & 0b111111) << 10;
-                    }
-                    else if (o3.isImm() && imm6_1 != null ){
-                        inst_to_emit |= (imm6_1.value() & 0b111111) << 10;
-                        inst_to_emit |= (regN.code &  0b11111) << 16;   /*in the case of ROR Rn and Rm will hold same value*/
-                    }
-                    inst_to_emit |= id.opcode;
-                    _emitInt32(inst_to_emit);
-                }
-                else
-                    throw new IllegalArgumentException("illegal arguments");
-                break;
-            }
-            case ldst_imm9:
-            case ldst_pos:
-            {
-                int inst_to_emit = 0;
-                if (o1.isReg() || id.code == INST_PRFM_LDST_POS__IMMEDIATE){
-                    Register regD = null;
-                    PRFOP_ENUM pfrop = null;
-                    if(id.code == INST_PRFM_LDST_POS__IMMEDIATE && o1 != null)
-                        pfrop = (PRFOP_ENUM)o1;
-                    else if(o1 != _none)
-                        regD = (Register) o1;
-                    Register regN = null;
-                    Post_index postindex = null;
-                    Pre_index preindex = null;
-                    Offset offset = null;
-                    Immediate imm9 = null;
-                    Immediate imm12 = null;
-                    if(o2 != _none && o2.isReg())
-                        regN = (Register) o2;
-                    else if((o2 != _none) && (o2.isPreIndex() || o2.isPostIndex() || o2.isOffset())){
-                        if(o2.isPreIndex()) {
-                            preindex = (Pre_index)o2;
-                            regN = preindex.getRegister();
-                            imm9 = preindex.getPreIndex();
-                        }
-                        else if(o2.isPostIndex()){
-                            postindex = (Post_index)o2;
-                            regN = postindex.getRegister();
-                            imm9 = postindex.getPostIndex();
-                        }
-                        else{
-                            offset = (Offset)o2;
-                            regN = offset.getRegister();
-                            imm12 = offset.getOffset();
-                        }
-                    }
-                    if(o3 != _none && id.group == ldst_imm9 && !(o2.isPreIndex() || o2.isPostIndex()))
-                        imm9 = (Immediate)o3;
-                    if(o3 != _none && id.group == ldst_pos && !(o2.isPreIndex() || o2.isPostIndex()))
-                        imm12 = (Immediate) o3;
-                    if(o1.size() == SIZE_DWORD && id.code != INST_PRFM_LDST_POS__IMMEDIATE && id.code != INST_LDRSW_IMM_OFF && id.code != INST_LDRH_IMM_OFF && id.code != INST_LDRSH_IMM_OFF && id.code != INST_LDRB_IMM_OFF && id.code != INST_LDRSB_IMM_OFF)
-                        inst_to_emit |= 1 << 30;
-                    if(o1.size() == SIZE_WORD && id.code != INST_LDRB_IMM_OFF  && (id.code == INST_LDRSH_IMM_OFF || id.code == INST_LDRSB_IMM_OFF) )
-                        inst_to_emit |= 1 << 22;
-                    if (regD != null)
-                        inst_to_emit |= regD.code & 0b11111;
-                    else if (pfrop != null)
-                        inst_to_emit |= pfrop.intValue() & 0b11111; /*in case of prfm inst*/
-                    if (regN != null)
-                        inst_to_emit |= (regN.code &  0b11111) << 5;
-                    if (id.group == ldst_imm9)
-                        inst_to_emit |= (imm9.value() & 0x1ff) << 12;
-                    else if(id.group == ldst_pos && (id.code == INST_LDRB_IMM_OFF || id.code == INST_LDRSB_IMM_OFF))
-                        inst_to_emit |= (imm12.value() & 0xfff) << 10;
-                    else if(id.group == ldst_pos && (id.code == INST_LDRH_IMM_OFF || id.code == INST_LDRSH_IMM_OFF))
-                        inst_to_emit |= (imm12.value()>>1 & 0xfff) << 10;
-                    else if(id.group == ldst_pos)
-                        inst_to_emit |= (imm12.value()>>((id.code == INST_LDRSW_IMM_OFF)?(2):(3)) & 0xfff) << 10;   /*<pimm> Is the optional positive immediate byte offset, a multiple of 8 in the range 0 to 32760, defaulting to 0 and encoded in the "imm12" field as <pimm>/8.*/
-                    inst_to_emit |= id.opcode;
-                    _emitInt32(inst_to_emit);
-                }
-                else
-                    throw new IllegalArgumentException("illegal arguments");
-                break;
-            }
-            case ldst_imm9_2reg:
-            case ldst_pos_2reg:
-            {
-                int inst_to_emit = 0;
-                if (o1.isReg()){
-                    Register regT = (Register) o1;
-                    Register regT2 = (Register) o2;
-                    Post_index postindex = null;
-                    Pre_index preindex = null;
-                    Offset offset = null;
-                    Immediate imm7 = null;
-                    Register regN = null;
-                    if(o3 != _none && o3.isPreIndex() || o3.isPostIndex() || o3.isOffset()){
-                        if(o3.isPreIndex()) {
-                            preindex = (Pre_index)o3;
-                            regN = preindex.getRegister();
-                            imm7 = preindex.getPreIndex();
-                        }
-                        else if(o3.isPostIndex()){
-                            postindex = (Post_index)o3;
-                            regN = postindex.getRegister();
-                            imm7 = postindex.getPostIndex();
-                        }
-                        else{
-                            offset = (Offset)o3;
-                            regN = offset.getRegister();
-                            imm7 = offset.getOffset();
-                        }
-                    }
-                    if(o1.size() == SIZE_DWORD)
-                        inst_to_emit |= 1 << 31;
-                    if (regT != null)
-                        inst_to_emit |= regT.code & 0b11111;
-                    if (regN != null)
-                        inst_to_emit |= (regN.code &  0b11111) << 5;
-                    if (regT2 != null)
-                        inst_to_emit |= (regT2.code &  0b11111) << 10;
-                    /*<imm> For the 32-bit variant: is the optional signed immediate byte offset, a multiple of 4 in the range -256
-                    to 252, defaulting to 0 and encoded in the "imm7" field as <imm>/4.
-                    <imm> For the 64-bit variant: is the optional signed immediate byte offset, a multiple of 8 in the range -512
-                    to 504, defaulting to 0 and encoded in the "imm7" field as <imm>/8. */
-                    if(imm7 != null)
-                        inst_to_emit |= ((imm7.value()>>((o1.size() == SIZE_DWORD)?(3):(2)))  & 0b1111111) << 15;
-                    inst_to_emit |= id.opcode;
-                    _emitInt32(inst_to_emit);
-                }
-                else
-                    throw new IllegalArgumentException("illegal arguments");
-                break;
-            }
-            case ldst_regoff:
-            {
-                int inst_to_emit = 0;
-                if ((o1.isReg() && o2.isReg())  || id.code == INST_PRFM_LDST_REGOFF__REGISTER){
-                    Register regD = null;
-                    PRFOP_ENUM pfrop = null;
-                    if(id.code == INST_PRFM_LDST_REGOFF__REGISTER)
-                        pfrop = (PRFOP_ENUM) o1;
-                    else
-                        regD = (Register) o1;
-                    Register regN = (Register) o2;
-                    Register regM = (Register) o3;
-                    Ext extnd = (Ext) o3;
-                    if(o1.size() == SIZE_DWORD && id.code != INST_PRFM_LDST_REGOFF__REGISTER)
-                        inst_to_emit |= 1 << 30;
-                    if (regD != null)
-                        inst_to_emit |= regD.code & 0b11111;
-                    else
-                        inst_to_emit |= pfrop.intValue() & 0b11111;
-                    if (regN != null)
-                        inst_to_emit |= (regN.code &  0b11111) << 5;
-                    if (regM != null)
-                        inst_to_emit |= (regM.code &  0b11111) << 16;
-                    if (o4 != null && o4.isExtend()){
-                        inst_to_emit |= (extnd.value() == 3 || extnd.value() == 2) ? (0b1 << 12) : (0);
-                        inst_to_emit |= (extnd.type() & 0b111) << 13;
-                    }
-                    inst_to_emit |= id.opcode;
-                    _emitInt32(inst_to_emit);
-                }
-                else
-                    throw new IllegalArgumentException("illegal arguments");
-                break;
-            }
-            case ldst_unpriv:
-            case ldst_unscaled:
-            {
-                int inst_to_emit = 0;
-                if (o1.isReg() && o2.isReg() || id.code == INST_PRFUM_LDST_UNSCALED){
-                    Register regD = null;
-                    PRFOP_ENUM pfrop = null;
-                    if(id.code == INST_PRFUM_LDST_UNSCALED)
-                        pfrop = (PRFOP_ENUM) o1;
-                    else
-                        regD = (Register) o1;
-                    Register regN = (Register) o2;
-                    Immediate imm9 = (Immediate) o3;
-                    if (regD != null)
-                        inst_to_emit |= regD.code & 0b11111;
-                    else
-                        inst_to_emit |= pfrop.intValue() & 0b11111;
-                    if (regN != null)
-                        inst_to_emit |= (regN.code &  0b11111) << 5;
-                    if (o3 != null && o3.isImm())
-                        inst_to_emit |= (imm9.value() &  0x1ff) << 12;
-                    inst_to_emit |= id.opcode;
-                    _emitInt32(inst_to_emit);
-                }
-                else
-                    throw new IllegalArgumentException("illegal arguments");
-                break;
-            }
-            case ldstexcl:
-            case ldstexcl_op3:
-            {
-                int inst_to_emit = 0;
-                Register regD = (Register) o1;
-                Register regN = (Register) o2;
-                Register regM = null;
-                Offset offset = null;
-                if(o3 != null && o3.isReg())
-                    regM = (Register) o3;
-                else if (o3 != null && o3.isOffset()){
-                    offset = (Offset) o3;
-                    regM = offset.getRegister();
                 }
-                inst_to_emit |= (regD.code & 0b11111) << 16;
-                inst_to_emit |= regN.code &  0b11111;
-                if(id.group == ldstexcl_op3 && regM != null)
-                    inst_to_emit |= (regM.code &  0b11111) << 5;
-                inst_to_emit |= id.opcode;
-                _emitInt32(inst_to_emit);
-                break;
-            }
-            case ldstexcl_op4:
-            {
-                int inst_to_emit = 0;
-                Register regS = (Register) o1;
-                Register regt = (Register) o2;
-                Register regt2 = (Register) o3;
-                Register regN = (Register) o3;
-                inst_to_emit |= (regS.code & 0b11111) << 16;
-                inst_to_emit |= regt.code &  0b11111;
-                inst_to_emit |= (regt2.code &  0b11111) << 10;
-                inst_to_emit |= (regN.code &  0b11111) << 5;
-                inst_to_emit |= id.opcode;
-                _emitInt32(inst_to_emit);
-                break;
-            }
-            case ldstnapair_offs:
-            case ldstpair_off:
-            case ldstpair_indexed:
-            {
-                int inst_to_emit = 0;
-                if (o1.isReg() && o2.isReg()){
-                    Register regD = (Register) o1;
-                    Register regN = (Register) o2;
-                    Register regM = null;
-                    Pre_index preindex = null;
-                    Post_index posindex = null;
-                    Immediate imm7 = null;
-                    if (o3.isReg())
-                        regM = (Register) o3;
-                    else if (o3.isPostIndex()){
-                        posindex = (Post_index) o3;
-                        regM = posindex.getRegister();
-                        imm7 = posindex.getPostIndex();
-                    }
-                    else if(o3.isPreIndex()){
-                        preindex = (Pre_index) o3;
-                        regM = preindex.getRegister();
-                        imm7 = preindex.getPreIndex();
-                    }
-                    if(o4 != _none && o4.isImm())
-                        imm7 = (Immediate) o4;
-                    if (id.group == ldstexcl || id.group == ldstnapair_offs){
-                        if(o1.size() == SIZE_DWORD )
-                            inst_to_emit |= 0b1 << 30;
-                        else if(o1.size() == SIZE_QWORD )
-                            inst_to_emit |= 0b1 << 31;
-                    }
-                    else{
-                        if(o1.size() == SIZE_DWORD)
-                            inst_to_emit |= 0b1 << 31;
+                case InstructionList.POOL:
+                    emitLiteralPool();
+                    break;
+                case InstructionList.DATA:
+                    _emitData(ir.value(i), ir.kind(i));
+                    break;
+                default:
+                    if (ir.label(i) != 0) {
+                        _labels.addFixup(offset(), ir.kind(i), ir.label(i));
                     }
-                    inst_to_emit |= regD.code & 0b11111;
-                    inst_to_emit |= (regN.code &  0b11111) << 10;
-                    inst_to_emit |= (regM.code &  0b11111) << 5;
-                    /*<imm> For the 32-bit variant: is the optional signed immediate byte offset, a multiple of 4 in the range -256
-                    to 252, defaulting to 0 and encoded in the "imm7" field as <imm>/4.
-                    <imm> For the 64-bit variant: is the optional signed immediate byte offset, a multiple of 8 in the range -512
-                    to 504, defaulting to 0 and encoded in the "imm7" field as <imm>/8. */
-                    if(imm7 != null)
-                        inst_to_emit |= ((imm7.value()>>((o1.size() == SIZE_DWORD)?(3):(2)))  & 0b1111111) << 15;
-                    inst_to_emit |= id.opcode;
-                    _emitInt32(inst_to_emit);
-                }
-                else
-                    throw new IllegalArgumentException("illegal arguments");
-                break;
-            }
-            case loadlit:
-            {
-                int inst_to_emit = 0;
-                if (o1.isReg() || id.code == INST_PRFM_LOADLIT__LITERAL){
-                    Register regD = null;
-                    PRFOP_ENUM prfop = null;
-                    if(id.code == INST_PRFM_LOADLIT__LITERAL)
-                        prfop = (PRFOP_ENUM)o1;
-                    else
-                        regD = (Register) o1;
-                    Immediate lbl = (Immediate) o2;
-                    if(o1.size() == SIZE_DWORD && id.code != INST_PRFM_LOADLIT__LITERAL)
-                        inst_to_emit |= 0b1 << 30;
-                    if(id.code == INST_PRFM_LOADLIT__LITERAL)
-                        inst_to_emit |= prfop.intValue() & 0b11111;
-                    else
-                        inst_to_emit |= regD.code & 0b11111;
-                    /*<label> Is the program label from which the data is to be loaded. Its offset from the address of this
-                    instruction, in the range +/-1MB, is encoded as "imm19" times 4.*/
-                    inst_to_emit |= (lbl.value()>>2 & 0x7fff) << 5;
-                    inst_to_emit |= id.opcode;
-                    _emitInt32(inst_to_emit);
-                }
-                else
-                    throw new IllegalArgumentException("illegal arguments");
-                break;
+                    _emitInt32(ir.word(i));
+                    break;
             }
-            case log_imm:
-            {
-                int inst_to_emit = 0;
-                if (o1.isReg() && o2.isReg() && o3.isImm()){
-                    Register regD = (Register) o1;
-                    Register regN = (Register) o2;
-                    Immediate imm = (Immediate) o3;
-                    if(o1.size() == SIZE_DWORD)
-                        inst_to_emit |= 0b1 << 31;
-                    else
-                        inst_to_emit &= ~(0b1 << 22);
-                    inst_to_emit |= regD.code & 0b11111;
-                    inst_to_emit |= (regN.code & 0b11111) << 5;
-                    if(o1.size() == SIZE_DWORD)
-                        inst_to_emit |= (imm.value() & 0x1fff) << 10;
-                    else
-                        inst_to_emit |= (imm.value() & 0xfff) << 10;
-                    inst_to_emit |= id.opcode;
-                    _emitInt32(inst_to_emit);
-                }
-                else
-                    throw new IllegalArgumentException("illegal arguments");
+        }
+    }
+
+    private void _emitData(long x, int size) {
+        switch (size) {
+            case 1:
+                _emitByte((int) x);
                 break;
-            }
-            case log_shift:
-            {
-                int inst_to_emit = 0;
-                if (o1.isReg() && o2.isReg()){
-                    Register regD = (Register) o1;
-                    Register regN = (Register) o2;
-                    Register regM = null;
-                    if(o3 != _none) regM = (Register) o3;
-                    Shift sft = null;
-                    if(o4 != _none)
-                        sft = (Shift) o4;
-                    if(o1.size() == SIZE_DWORD)
-                        inst_to_emit |= 0b1 << 31;
-                    inst_to_emit |= regD.code & 0b11111;
-                    if(id.code == INST_MOV_LOG_SHIFT){
-                        inst_to_emit |= (regN.code & 0b11111) << 5;
-                    }
-                    else{
-                        inst_to_emit |= (regN.code & 0b11111) << 5;
-                        inst_to_emit |= (regM.code & 0b11111) << 16;
-                    }
-                    if(sft != null){
-                        inst_to_emit |= (sft.value() & 0b111111) << 10;
-                        inst_to_emit |= (sft.type() & 0b11) << 22;
-                    }
-                    inst_to_emit |= id.opcode;
-                    _emitInt32(inst_to_emit);
-                }
-                else
-                    throw new IllegalArgumentException("illegal arguments");
+            case 2:
+                _emitWord((int) x);
                 break;
-            }
-            case movewide:
-            {
-                int inst_to_emit = 0;
-                if (o1.isReg() && o2.isImm()){
-                    Register regD = (Register) o1;
-                    Immediate imm16 = (Immediate) o2;
-                    Shift sft = null;
-                    if(o3 != _none)
-                        sft = (Shift) o3;
-                    if(o1.size() == SIZE_DWORD)
-                        inst_to_emit |= 0b1 << 31;
-                    inst_to_emit |= regD.code & 0b11111;
-                    inst_to_emit |= (imm16.value() & 0xffff) << 5;
-                    if(sft != null && sft.value()%16 == 0 && sft.value() < 49 ) /*shift val can be 0, 16, 32, 48 only*/
-                        inst_to_emit |= (sft.value()>>4 & 0b11) << 21;  // type is LSL only,
-                    inst_to_emit |= id.opcode;
-                    _emitInt32(inst_to_emit);
-                }
-                else
-                    throw new IllegalArgumentException("illegal arguments");
+            case 4:
+                _emitDWord((int) x);
                 break;
-            }
-            case pcreladdr:
-            {
-                int inst_to_emit = 0;
-                if (o1.isReg() && o2.isImm()){
-                    Register regD = (Register) o1;
-                    Immediate imm16 = (Immediate) o2;
-                    inst_to_emit |= regD.code & 0b11111;
-                    /* the program label whose 4KB page address is to be calculated. Its offset from the page address of
-                    this instruction, in the range +/-4GB, is encoded as "immhi:immlo" times 4096.*/
-                    long imm = imm16.value() >> 12;
-                    inst_to_emit |= (imm>>2 & 0x7ffff) << 5;
-                    inst_to_emit |= (imm & 0b11) << 29;
-                    inst_to_emit |= id.opcode;
-                    _emitInt32(inst_to_emit);
-                }
-                else
-                    throw new IllegalArgumentException("illegal arguments");
+            default:
+                _emitQWord(x);
                 break;
-            }
-            case ic_system:
-            {
-                int inst_to_emit = 0;
-                if(id.code == INST_NOP_IC_SYSTEM || id.code == INST_YIELD_IC_SYSTEM || id.code == INST_WFE_IC_SYSTEM || id.code == INST_WFI_IC_SYSTEM || id.code == INST_SEV_IC_SYSTEM || id.code == INST_SEVL_IC_SYSTEM )
-                    inst_to_emit |= id.opcode;
-                else if(id.code == INST_HINT_IC_SYSTEM || id.code == INST_CLREX_IC_SYSTEM || id.code == INST_DSB_IC_SYSTEM || id.code == INST_DMB_IC_SYSTEM || id.code == INST_ISB_IC_SYSTEM){
-                    Immediate imm = (Immediate) o1;
-                    if(id.code == INST_HINT_IC_SYSTEM)
-                        inst_to_emit |= (imm.value() & 0b1111111) << 5; /*<imm> Is a 7-bit unsigned immediate, in the range 0 to 127, encoded in "CRm:op2".*/
-                    else
-                        inst_to_emit |= (imm.value() & 0b1111) << 8;
-                }
-                else if(id.code == INST_MSR_IC_SYSTEM_X){
-                    SysRegister sysrt = (SysRegister) o1;
-                    Register rt = (Register) o2;
-                    SysRegDescription sysregid = SysRegDescription.find(sysrt.getEnum());
-                    inst_to_emit |= (sysregid.reg_code & 0xffff) << 5;
-                    inst_to_emit |= rt.code & 0b11111;
-                }
-                else if(id.code == INST_SYS_IC_SYSTEM || id.code == INST_SYSL_IC_SYSTEM){
-                    Immediate imm3_op1 = (Immediate) o1;
-                    Register Rt = (Register) o1;
-                    Register cRn = (Register) o2;
-                    Immediate imm3_op1_2 = (Immediate) o2;
-                    Register cRm = (Register) o3;
-                    Register cRn_2 = (Register) o3;
-                    Immediate imm3_op2_4 = (Immediate) o4;
-                    Register cRm_2 = (Register) o4;
-                    Register rt = null;
-                    Immediate imm3_op2_5_2 = null;
-                    if(o5 != null){
-                        rt = (Register) o5;
-                        imm3_op2_5_2 = (Immediate) o5;
-                    }
-                    inst_to_emit |= (((id.code == INST_SYS_IC_SYSTEM) ? (imm3_op1.value())   : (imm3_op1_2.value()))   & 0b111)  << 16;
-                    inst_to_emit |= (((id.code == INST_SYS_IC_SYSTEM) ? (cRn.code())         : (cRn_2.code()))         & 0b1111) << 12;
-                    inst_to_emit |= (((id.code == INST_SYS_IC_SYSTEM) ? (cRm.code())         : (cRm_2.code()))         & 0b1111) << 8;
-                    inst_to_emit |= (((id.code == INST_SYS_IC_SYSTEM) ? (imm3_op2_4.value()) : (imm3_op2_5_2.value())) & 0b111)  << 5;
-                    if(id.code == INST_SYS_IC_SYSTEM)
-                        if(rt != null)
-                            inst_to_emit |= rt.code() & 0b11111;
-                        else
-                            inst_to_emit |= 0b11111;  /*<Xt> Is the 64-bit name of the optional general-purpose source register, defaulting to '11111', encoded in the "Rt" field.*/
-                    else
-                        inst_to_emit |= Rt.code() & 0b11111;
+        }
+    }
+
+    /**
+     * Emits the pending literal pool, relaxes out of range conditional branches
+     * and patches all label fixups; called before the code is handed out.
+     */
+    private void _resolveLabels() {
+        emitLiteralPool();
+        int[] points;
+        while ((points = _labels.relax(_buffer)) != null) {
+            for (ListIterator<RelocData> it = _relocData.listIterator(); it.hasNext(); ) {
+                RelocData r = it.next();
+                int shift = LabelTable.shift(points, points.length, r.offset, true);
+                if (shift != 0) {
+                    it.set(new RelocData(r.type, r.size, r.offset + shift, r.destination));
                 }
-                else
-                    throw new IllegalArgumentException("illegal arguments");
-                inst_to_emit |= id.opcode;
-                _emitInt32(inst_to_emit);
-                break;
             }
-            case testbranch:
-            {
-                int inst_to_emit = 0;
-                if (o1.isReg()){
-                    Register regD = (Register) o1;
-                    Immediate imm = (Immediate) o2;
-                    Immediate lbl_imm14  = (Immediate) o3;
-                    inst_to_emit |= regD.code & 0b11111;
-                    /* <imm> Is the bit number to be tested, in the range 0 to 63, encoded in "b5:b40".*/
-                    inst_to_emit |= (imm.value() & 0b11111) << 19;
-                    inst_to_emit |= (imm.value()>>5 & 0b1) << 31;
-                    inst_to_emit |= (lbl_imm14.value() & 0x3fff) << 5;
-                    inst_to_emit |= id.opcode;
-                    _emitInt32(inst_to_emit);
-                }
-                else
-                    throw new IllegalArgumentException("illegal arguments");
-                break;
-            }   /*END of case testbranch:*/
-        }   /*END of switch(id.group)*/
-    }   /*END of void _emita64(INST_CODE code, Operand o1, Operand o2, Operand o3, Operand o4, Operand o5)*/
+        }
+        _labels.resolve(_buffer);
+    }
 
-    void _emitJmpOrCallReloc(InstructionGroup instruction, long target) {
+    /**
+     * Emits b or bl (@a opcode) to absolute address @a target. The opcode is
+     * kept in the placeholder word and in the recorded entry, so the relocation
+     * turns a jump into a jump and a call into a call.
+     */
+    void _emitJmpOrCallReloc(int opcode, long target) {
+        if (_ir != null) {
+            _ir.addValue(InstructionList.CALL, opcode, InstructionList.NO_FIXUP, target);
+            return;
+        }
+        if (!_veneers.containsKey(target)) {
+            if (_veneerBase >= 0) {
+                throw new IllegalStateException("code already relocated in place");
+            }
+            _veneers.put(target, _veneers.size());
+        }
         RelocData rd = new RelocData(RelocData.Type.ABSOLUTE_TO_RELATIVE_TRAMPOLINE, 4, offset(), target);
         _relocData.add(rd);
-        // Emit dummy 32-bit integer (will be overwritten by relocCode()).
-        _emitInt32(0);
+        // Emit the bare opcode (the offset is filled in by relocCode()).
+        _emitInt32(opcode);
     }
 
+    /**
+     * Copies the code to @a buffer (at least {@link #codeSize()} bytes from its
+     * position) and relocates it for execution at @a address.
+     *
+     * A call whose target is out of reach of bl (+/-128MB) goes through a veneer
+     * ({@code ldr x16, #8; br x16; .quad target}) placed after the code. Calls to
+     * the same target share one veneer; calls in range stay direct.
+     */
     public void relocCode(ByteBuffer buffer, long address) {
+        finalizeCode();
+        _resolveLabels();
+
         // Copy code to virtual memory (this is a given _dst pointer).
         int csize = codeSize();
 
-        // We are copying exactly size of generated code. Extra code for trampolines
-        // is generated on-the-fly by relocator (this code not exists at now).
+        // We are copying exactly size of generated code. The veneers are written
+        // by the relocator below, into the space reserved after the code.
         _buffer.copyTo(buffer);
+        for (int pos = _buffer.offset(); pos < csize; pos++) {
+            buffer.put(pos, (byte) 0);
+        }
 
         // Relocate recorded locations.
         for (RelocData r : _relocData) {
-            long val;
-
             // Be sure that reloc data structure is correct.
             assert ((r.offset + r.size) <= csize);
 
-            switch (r.type) {
-                case ABSOLUTE_TO_ABSOLUTE:
-                    val = r.destination;
-                    break;
-                case RELATIVE_TO_ABSOLUTE:
-                    val = address + r.destination;
+            int veneer = _veneerFor(r, address);
+            if (veneer >= 0) {
+                buffer.putInt(veneer, Encoding.loadLit(REG_X16, 8));
+                buffer.putInt(veneer + 4, Encoding.branchReg(Encoding.BR, REG_X16));
+                buffer.putLong(veneer + 8, r.destination);
+            }
+
+            switch (r.size) {
+                case 4:
+                    buffer.putInt(r.offset, (int) _relocValue(r, address, veneer) | buffer.getInt(r.offset) & 0xfc000000);
                     break;
-                case ABSOLUTE_TO_RELATIVE:
-                case ABSOLUTE_TO_RELATIVE_TRAMPOLINE:
-                    if (  (r.destination-(address+r.offset)) > (128*1024*1024) )
-                        System.out.println("IMPOSSIBLE JUMP : ADDRESS AHEAD OF RANGE of 128MB");
-                    if (  (r.destination-(address+r.offset)) < -(128*1024*1024) )
-                        System.out.println("IMPOSSIBLE JUMP : ADDRESS BELOW OF RANGE of 128MB");
-                    val = ((r.destination)-(address+r.offset))/4;
+                case 8:
+                    buffer.putLong(r.offset, _relocValue(r, address, veneer));
                     break;
                 default:
-                    throw new IllegalStateException("invalid relocation type");
+                    throw new IllegalStateException("invalid relocation size");
+            }
+        }
+    }
+
+    /**
+     * Relocates the code in place for execution at @a address, without copying
+     * it out. Used with {@link CodeStorage#DIRECT} or a caller-supplied buffer,
+     * where the code already lives in the memory it runs from. Room for veneers
+     * is appended to the code buffer, so no further far calls may be emitted.
+     */
+    public void relocCode(long address) {
+        finalizeCode();
+        _resolveLabels();
+        if (!_veneers.isEmpty() && _veneerBase < 0) {
+            int csize = codeSize();
+            _veneerBase = _veneerBase();
+            while (_buffer.offset() < csize) {
+                _buffer.emitByte((byte) 0);
+            }
+        }
+
+        for (RelocData r : _relocData) {
+            int veneer = _veneerFor(r, address);
+            if (veneer >= 0) {
+                _buffer.setDWordAt(veneer, Encoding.loadLit(REG_X16, 8));
+                _buffer.setDWordAt(veneer + 4, Encoding.branchReg(Encoding.BR, REG_X16));
+                _buffer.setQWordAt(veneer + 8, r.destination);
             }
 
             switch (r.size) {
                 case 4:
-                    val &= (int)0x3FFFFFF;  /*mask for imm27  val*/
-                    val |= 0x94000000;  /*opcode for BL*/
-                    buffer.putInt(r.offset, (int) val);
+                    int opcode = _buffer.getDWordAt(r.offset) & 0xfc000000;
+                    if ((r.offset & 3) == 0) {
+                        _buffer.setWord32(r.offset >>> 2, (int) _relocValue(r, address, veneer) | opcode);
+                    } else {
+                        _buffer.setDWordAt(r.offset, (int) _relocValue(r, address, veneer) | opcode);
+                    }
                     break;
                 case 8:
-                    buffer.putLong(r.offset, val);
+                    _buffer.setQWordAt(r.offset, _relocValue(r, address, veneer));
                     break;
                 default:
                     throw new IllegalStateException("invalid relocation size");
@@ -1013,4 +1040,54 @@ public final class Assembler_A64 extends Serializer {
         }
     }
 
+    /**
+     * Returns the offset of the veneer @a r must call through when the code
+     * runs at @a address, or -1 if a direct bl reaches its target.
+     */
+    private int _veneerFor(RelocData r, long address) {
+        if (r.type != RelocData.Type.ABSOLUTE_TO_RELATIVE_TRAMPOLINE) {
+            return -1;
+        }
+        long disp = r.destination - (address + r.offset);
+        if (disp >= -(128*1024*1024) && disp < (128*1024*1024)) {
+            return -1;
+        }
+        return _veneerBase() + _veneers.get(r.destination) * VENEER_SIZE;
+    }
+
+    private static long _relocValue(RelocData r, long address, int veneer) {
+        long val;
+
+        switch (r.type) {
+            case ABSOLUTE_TO_ABSOLUTE:
+                val = r.destination;
+                break;
+            case RELATIVE_TO_ABSOLUTE:
+                val = address + r.destination;
+                break;
+            case ABSOLUTE_TO_RELATIVE_TRAMPOLINE:
+                val = veneer >= 0 ? (veneer - r.offset)/4 : _branchDisplacement(r, address);
+                break;
+            case ABSOLUTE_TO_RELATIVE:
+                val = _branchDisplacement(r, address);
+                break;
+            default:
+                throw new IllegalStateException("invalid relocation type");
+        }
+
+        if (r.size == 4) {
+            val &= (int)0x3FFFFFF;  /*mask for imm26 val; the b/bl opcode is in the placeholder*/
+        }
+        return val;
+    }
+
+    /** Returns the b/bl displacement in words from @a r, run at @a address, to its destination. */
+    private static long _branchDisplacement(RelocData r, long address) {
+        long disp = r.destination - (address + r.offset);
+        if (disp < -(128*1024*1024) || disp >= (128*1024*1024)) {
+            throw new IllegalStateException("branch target out of range (+/-128MB): 0x" + Long.toHexString(r.destination));
+        }
+        return disp/4;
+    }
+
 }
@@ -40,7 +40,7 @@ public abstract class BaseReg extends Operand {
         return code;
     }
 
-    //! @brief Return register index (value from 0 to 7/15).
+    //! @brief Return register index (value from 0 to 31).
     public final int index() {
         return code() & REGCODE_MASK;
     }
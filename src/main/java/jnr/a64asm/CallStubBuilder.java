@@ -0,0 +1,638 @@
+/*
+ * Copyright (C) 2018 Ossdev07
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.a64asm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static jnr.a64asm.REG.*;
+
+/**
+ * Generates AAPCS64 call stubs for native functions bound through JNI, as
+ * jnr-ffi does.
+ *
+ * A stub is the body of a static native method. It is entered with the
+ * JNIEnv and class in x0/x1 and the Java arguments after them, moves the
+ * arguments to where the C signature wants them (x0-x7, v0-v7 or the stack),
+ * calls the target and converts the result.
+ *
+ * Java passes integers and pointers as jint/jlong, float and double as
+ * jfloat/jdouble, and a struct as the jlong address of its memory. A struct
+ * over 16 bytes is copied to the stub's frame and passed by reference to the
+ * copy. A struct result is stored to an address passed as an extra first
+ * parameter, and the Java method returns void. 8 and 16 bit integer results are sign or zero
+ * extended to 32 bits, and unsigned 32 bit ones to 64.
+ *
+ * A stub whose arguments all end up in registers and whose result needs no
+ * conversion jumps to the target without a frame. The code depends only on
+ * the signature, so it is built once per signature and cached. Emitting a
+ * stub copies the cached words around the call.
+ */
+public final class CallStubBuilder {
+    // Argument locations: x registers are 0-31, v registers V + n, stack slots STACK + byte offset.
+    private static final int V = 32;
+    private static final int STACK = 64;
+
+    private static final int SP = REG_X31;
+
+    private final ConcurrentMap<Signature, Stub> stubs = new ConcurrentHashMap<Signature, Stub>();
+
+    /** A C parameter or result type. */
+    public static final class Type {
+        static final int KIND_VOID = 0, KIND_INT = 1, KIND_FLOAT = 2, KIND_STRUCT = 3, KIND_HFA = 4;
+
+        public static final Type VOID = new Type(KIND_VOID, 0, 1, false, 0);
+        public static final Type SINT8 = new Type(KIND_INT, 1, 1, true, 0);
+        public static final Type UINT8 = new Type(KIND_INT, 1, 1, false, 0);
+        public static final Type SINT16 = new Type(KIND_INT, 2, 2, true, 0);
+        public static final Type UINT16 = new Type(KIND_INT, 2, 2, false, 0);
+        public static final Type SINT32 = new Type(KIND_INT, 4, 4, true, 0);
+        public static final Type UINT32 = new Type(KIND_INT, 4, 4, false, 0);
+        public static final Type SINT64 = new Type(KIND_INT, 8, 8, true, 0);
+        public static final Type UINT64 = new Type(KIND_INT, 8, 8, false, 0);
+        public static final Type POINTER = new Type(KIND_INT, 8, 8, false, 0);
+        public static final Type FLOAT = new Type(KIND_FLOAT, 4, 4, false, 0);
+        public static final Type DOUBLE = new Type(KIND_FLOAT, 8, 8, false, 0);
+
+        final int kind;
+        final int size;
+        final int align;
+        final boolean signed;
+        //! @brief Number of members of a homogeneous floating point aggregate.
+        final int count;
+
+        private Type(int kind, int size, int align, boolean signed, int count) {
+            this.kind = kind;
+            this.size = size;
+            this.align = align;
+            this.signed = signed;
+            this.count = count;
+        }
+
+        /**
+         * Returns a struct of @a size bytes aligned to @a align, with at least
+         * one member that is not float or double (see {@link #hfa} otherwise).
+         */
+        public static Type struct(int size, int align) {
+            if (size <= 0 || align <= 0 || align > 16 || (align & (align - 1)) != 0) {
+                throw new IllegalArgumentException("invalid struct size or alignment: " + size + ", " + align);
+            }
+            return new Type(KIND_STRUCT, size, align, false, 0);
+        }
+
+        /** Returns a struct of 1 to 4 members, all @a element ({@link #FLOAT} or {@link #DOUBLE}). */
+        public static Type hfa(Type element, int count) {
+            if (element.kind != KIND_FLOAT || count < 1 || count > 4) {
+                throw new IllegalArgumentException("invalid homogeneous aggregate: " + count + " members");
+            }
+            return new Type(KIND_HFA, element.size * count, element.size, false, count);
+        }
+
+        //! @brief Get the size in bytes of each member of a homogeneous aggregate.
+        int elementSize() {
+            return size / count;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Type)) {
+                return false;
+            }
+            Type t = (Type) o;
+            return kind == t.kind && size == t.size && align == t.align && signed == t.signed && count == t.count;
+        }
+
+        @Override
+        public int hashCode() {
+            return (((kind * 31 + size) * 31 + align) * 31 + count) * 2 + (signed ? 1 : 0);
+        }
+    }
+
+    /**
+     * Emits a stub calling the function at absolute address @a target, of C
+     * signature @a result (@a params), into @a a. The call is resolved by
+     * {@link Assembler_A64#relocCode}.
+     */
+    public void emit(Assembler_A64 a, long target, Type result, Type... params) {
+        Signature key = new Signature(result, params.clone());
+        Stub stub = stubs.get(key);
+        if (stub == null) {
+            stub = new Plan(result, key.params).build();
+            stubs.putIfAbsent(key, stub);
+        }
+        for (int w : stub.before) {
+            a._emitInt32(w);
+        }
+        if (stub.tail) {
+            a.bImm(target);
+        } else {
+            a.blImm(target);
+        }
+        for (int w : stub.after) {
+            a._emitInt32(w);
+        }
+    }
+
+    //! @brief Get number of signatures stubs have been built for.
+    public int cachedSignatures() {
+        return stubs.size();
+    }
+
+    private static final class Signature {
+        final Type result;
+        final Type[] params;
+
+        Signature(Type result, Type[] params) {
+            this.result = result;
+            this.params = params;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Signature && result.equals(((Signature) o).result) && Arrays.equals(params, ((Signature) o).params);
+        }
+
+        @Override
+        public int hashCode() {
+            return result.hashCode() * 31 + Arrays.hashCode(params);
+        }
+    }
+
+    /** Cached stub code: the words before and after the call, which is b when @c tail and bl otherwise. */
+    private static final class Stub {
+        final int[] before;
+        final boolean tail;
+        final int[] after;
+
+        Stub(int[] before, boolean tail, int[] after) {
+            this.before = before;
+            this.tail = tail;
+            this.after = after;
+        }
+    }
+
+    /** AAPCS64 argument allocation state: next general, SIMD&FP register and stacked argument address. */
+    private static final class Slots {
+        int ngrn;
+        int nsrn;
+        int nsaa;
+
+        Slots(int ngrn) {
+            this.ngrn = ngrn;
+        }
+
+        int gp() {
+            return ngrn < 8 ? ngrn++ : stack(8, 8);
+        }
+
+        int fp() {
+            return nsrn < 8 ? V + nsrn++ : stack(8, 8);
+        }
+
+        /** Places a struct or homogeneous aggregate passed by value (or by reference if over 16 bytes). */
+        int composite(Type t) {
+            if (t.kind == Type.KIND_HFA) {
+                if (nsrn + t.count <= 8) {
+                    nsrn += t.count;
+                    return V + nsrn - t.count;
+                }
+                nsrn = 8;
+                return stack(t.size, Math.max(8, t.align));
+            }
+            if (t.size > 16) {
+                return gp();
+            }
+            int words = (t.size + 7) / 8;
+            if (t.align == 16) {
+                ngrn = (ngrn + 1) & ~1;
+            }
+            if (ngrn + words <= 8) {
+                ngrn += words;
+                return ngrn - words;
+            }
+            ngrn = 8;
+            return stack(t.size, Math.max(8, t.align));
+        }
+
+        int stack(int size, int align) {
+            nsaa = (nsaa + align - 1) & -align;
+            int at = nsaa;
+            nsaa += (size + 7) & ~7;
+            return STACK + at;
+        }
+    }
+
+    /**
+     * One argument: the value (or, with @c load, the struct at the address) in
+     * @c from goes to @c to; with a @c copy, the struct is copied and the
+     * address of the copy goes to @c to.
+     */
+    private static final class Move {
+        final int to;
+        final int from;
+        final Type type;
+        final boolean load;
+        //! @brief Offset of the struct's copy from the stub's own slots, or -1.
+        final int copy;
+
+        Move(int to, int from, Type type, boolean load) {
+            this(to, from, type, load, -1);
+        }
+
+        Move(int to, int from, Type type, boolean load, int copy) {
+            this.to = to;
+            this.from = from;
+            this.type = type;
+            this.load = load;
+            this.copy = copy;
+        }
+    }
+
+    /** Stub generation for one signature. */
+    private static final class Plan {
+        private final Type result;
+        private final Assembler_A64 s = new Assembler_A64(CPU_A64.A64, 256);
+        private final List<Move> stackMoves = new ArrayList<Move>();
+        private final List<Move> fpMoves = new ArrayList<Move>();
+        private final List<Move> gpMoves = new ArrayList<Move>();
+        private final ParallelMoves moves = new ParallelMoves();
+        private int resultAddress = -1;
+        private boolean storeResult;
+        private boolean convert;
+        private int outSize;
+        private int frameSize;
+
+        Plan(Type result, Type[] params) {
+            this.result = result;
+            boolean structResult = result.kind == Type.KIND_STRUCT || result.kind == Type.KIND_HFA;
+            boolean indirectResult = result.kind == Type.KIND_STRUCT && result.size > 16;
+
+            // Java: JNIEnv and class first, then the parameters; struct addresses are jlongs.
+            Slots java = new Slots(2);
+            Slots c = new Slots(0);
+            storeResult = structResult && !indirectResult;
+            // The stub's own slots: the result address, then the struct copies.
+            int locals = storeResult ? 8 : 0;
+            if (structResult) {
+                resultAddress = java.gp();
+                if (indirectResult) {
+                    gpMoves.add(new Move(8, resultAddress, Type.POINTER, false));
+                }
+            }
+            for (Type t : params) {
+                int from = t.kind == Type.KIND_FLOAT ? java.fp() : java.gp();
+                int to;
+                if (t.kind == Type.KIND_INT) {
+                    to = c.gp();
+                } else if (t.kind == Type.KIND_FLOAT) {
+                    to = c.fp();
+                } else if (t.kind == Type.KIND_VOID) {
+                    throw new IllegalArgumentException("void parameter");
+                } else {
+                    to = c.composite(t);
+                }
+                Move m;
+                if (t.kind == Type.KIND_STRUCT && t.size > 16) {
+                    int align = Math.max(8, t.align);
+                    locals = (locals + align - 1) & -align;
+                    m = new Move(to, from, t, false, locals);
+                    locals += (t.size + 7) & ~7;
+                } else {
+                    m = new Move(to, from, t, t.kind == Type.KIND_HFA || t.kind == Type.KIND_STRUCT);
+                }
+                (to >= STACK ? stackMoves : to >= V ? fpMoves : gpMoves).add(m);
+            }
+
+            // Each SIMD&FP argument lands at or above its Java register, so
+            // moving them from the top reads every source before it is
+            // overwritten. The general ones go through a parallel move.
+            Collections.sort(fpMoves, new Comparator<Move>() {
+                @Override
+                public int compare(Move a, Move b) {
+                    return b.to - a.to;
+                }
+            });
+
+            convert = result.kind == Type.KIND_INT && result.size < 8 && !(result.size == 4 && result.signed);
+            outSize = (c.nsaa + 15) & ~15;
+            if (outSize > 0 || locals > 0 || convert) {
+                frameSize = (outSize + 16 + locals + 15) & ~15;
+            }
+        }
+
+        Stub build() {
+            prologue();
+            if (storeResult) {
+                storeWord(resultSlot(), resultAddress);
+            }
+            for (Move m : stackMoves) {
+                stackMove(m);
+            }
+            for (Move m : fpMoves) {
+                fpMove(m);
+            }
+            // Structs whose address came on the stack are loaded, and the
+            // addresses of struct copies set, after the parallel move, which
+            // leaves their registers alone.
+            List<Move> late = new ArrayList<Move>();
+            for (Move m : gpMoves) {
+                if (m.copy >= 0) {
+                    copyStruct(m.from, m.type.size, localBase() + m.copy);
+                    late.add(m);
+                } else if (m.load && m.from >= STACK) {
+                    late.add(m);
+                } else {
+                    gpMove(m);
+                }
+            }
+            moves.emit(s);
+            for (Move m : late) {
+                if (m.copy >= 0) {
+                    s.addImm(REG_GPR | m.to, SP, localBase() + m.copy);
+                } else {
+                    loadStruct(REG_GPR | m.to, value(m.from, REG_X16), m.type.size);
+                }
+            }
+            int[] before = words(0, s.wordCount());
+
+            int mark = s.wordCount();
+            convertResult();
+            epilogue();
+            return new Stub(before, frameSize == 0, words(mark, s.wordCount()));
+        }
+
+        private int[] words(int from, int to) {
+            int[] w = new int[to - from];
+            for (int i = from; i < to; i++) {
+                w[i - from] = s.getWord32(i);
+            }
+            return w;
+        }
+
+        /**
+         * Allocates the frame: outgoing stack arguments at the bottom, then
+         * x29/x30, then the stub's own slots. When the outgoing arguments are
+         * beyond the reach of stp, x29/x30 are pushed first and go on top.
+         */
+        private void prologue() {
+            if (frameSize == 0) {
+                return;
+            }
+            if (outSize == 0 && frameSize <= 504) {
+                s.stpPre(REG_X29, REG_X30, SP, -frameSize);
+            } else if (Encoding.isPairOffset(REG_X29, outSize)) {
+                s.subImm(SP, SP, frameSize);
+                s.stpImm(REG_X29, REG_X30, SP, outSize);
+            } else {
+                s.stpPre(REG_X29, REG_X30, SP, -16);
+                s.subImm(SP, SP, frameSize - 16);
+            }
+        }
+
+        private void epilogue() {
+            if (frameSize == 0) {
+                return;
+            }
+            if (outSize == 0 && frameSize <= 504) {
+                s.ldpPost(REG_X29, REG_X30, SP, frameSize);
+            } else if (Encoding.isPairOffset(REG_X29, outSize)) {
+                s.ldpImm(REG_X29, REG_X30, SP, outSize);
+                s.addImm(SP, SP, frameSize);
+            } else {
+                s.addImm(SP, SP, frameSize - 16);
+                s.ldpPost(REG_X29, REG_X30, SP, 16);
+            }
+            s.retReg(REG_X30);
+        }
+
+        //! @brief Get the offset from SP of the stub's own slots, above the outgoing arguments (and x29/x30 if there).
+        private int localBase() {
+            return outSize + (Encoding.isPairOffset(REG_X29, outSize) ? 16 : 0);
+        }
+
+        private int resultSlot() {
+            return localBase();
+        }
+
+        /** Offset from SP of incoming stack argument location @a loc. */
+        private int incoming(int loc) {
+            return frameSize + loc - STACK;
+        }
+
+        /**
+         * Returns the x register holding the 64 bit value at Java location
+         * @a loc, loading it into @a scratch if it is on the stack.
+         */
+        private int value(int loc, int scratch) {
+            if (loc >= STACK) {
+                s.ldrImm(scratch, SP, incoming(loc));
+                return scratch;
+            }
+            return REG_GPR | loc;
+        }
+
+        /** Adds storing the 64 bit value at Java location @a loc to [sp, #off] to the parallel move. */
+        private void storeWord(int off, int loc) {
+            if (loc >= STACK) {
+                moves.copy(SP, off, SP, incoming(loc));
+            } else {
+                moves.store(SP, off, REG_GPR | loc);
+            }
+        }
+
+        private void stackMove(Move m) {
+            int off = m.to - STACK;
+            if (m.copy >= 0) {
+                copyStruct(m.from, m.type.size, localBase() + m.copy);
+                s.addImm(REG_X16, SP, localBase() + m.copy);
+                s.strImm(REG_X16, SP, off);
+            } else if (m.load) {
+                copyStruct(m.from, m.type.size, off);
+            } else if (m.from >= V && m.from < STACK) {
+                s._emitInt32(Encoding.fpLdstPos(m.type.size == 8, false, m.from - V, SP, off));
+            } else {
+                storeWord(off, m.from);
+            }
+        }
+
+        private void fpMove(Move m) {
+            int to = m.to - V;
+            if (m.load) {
+                boolean isDouble = m.type.elementSize() == 8;
+                int base = value(m.from, REG_X16);
+                for (int j = 0; j < m.type.count; j += 2) {
+                    if (j + 1 < m.type.count) {
+                        s._emitInt32(Encoding.fpLdstPair(isDouble, true, to + j, to + j + 1, base, j * m.type.elementSize()));
+                    } else {
+                        s._emitInt32(Encoding.fpLdstPos(isDouble, true, to + j, base, j * m.type.elementSize()));
+                    }
+                }
+            } else if (m.from >= STACK) {
+                s._emitInt32(Encoding.fpLdstPos(m.type.size == 8, true, to, SP, incoming(m.from)));
+            } else if (m.from - V != to) {
+                s._emitInt32(Encoding.fmovD(to, m.from - V));
+            }
+        }
+
+        /** Adds general argument @a m, unless it is a struct whose address is on the stack, to the parallel move. */
+        private void gpMove(Move m) {
+            int to = REG_GPR | m.to;
+            if (!m.load) {
+                if (m.from >= STACK) {
+                    moves.load(to, SP, incoming(m.from));
+                } else {
+                    moves.move(to, REG_GPR | m.from);
+                }
+                return;
+            }
+            int base = REG_GPR | m.from;
+            int size = m.type.size;
+            moves.load(to, base, 0, Math.min(8, size));
+            if (size > 8) {
+                moves.load(to + 1, base, 8, size - 8);
+            }
+        }
+
+        /** Loads the struct of @a size bytes at @a base (not x17) into @a to and the register after it. */
+        private void loadStruct(int to, int base, int size) {
+            if (size == 16) {
+                s.ldpImm(to, to + 1, base, 0);
+                return;
+            }
+            ParallelMoves.loadBytes(s, to, base, 0, Math.min(8, size), REG_X17);
+            if (size > 8) {
+                ParallelMoves.loadBytes(s, to + 1, base, 8, size - 8, REG_X17);
+            }
+        }
+
+        /**
+         * Copies the struct of @a size bytes at the address in Java location
+         * @a from to [sp, #to]. Whole words from a register address join the
+         * parallel move; the rest is copied now. An address on the stack is
+         * loaded into x9, which carries no argument, so that x16 and x17 stay
+         * free for the addresses of far slots.
+         */
+        private void copyStruct(int from, int size, int to) {
+            int k = 0;
+            if (from < STACK) {
+                for (; k + 8 <= size; k += 8) {
+                    moves.copy(SP, to + k, REG_GPR | from, k);
+                }
+            }
+            if (k < size) {
+                copyBytes(value(from, REG_X9), k, to + k, size - k);
+            }
+        }
+
+        /**
+         * Copies @a bytes at @a base + @a from to [sp, #to] through x16, in
+         * words and then exactly the 4, 2 and 1 byte pieces left. @a base may
+         * not be x16 or x17, which far offsets need for the address.
+         */
+        private void copyBytes(int base, int from, int to, int bytes) {
+            for (; bytes >= 8; bytes -= 8, from += 8, to += 8) {
+                s.ldrImm(REG_X16, base, from);
+                s.strImm(REG_X16, SP, to);
+            }
+            if (bytes >= 4) {
+                s.ldrImm(REG_W16, base, from);
+                s.strImm(REG_W16, SP, to);
+                bytes -= 4;
+                from += 4;
+                to += 4;
+            }
+            if (bytes >= 2) {
+                s.ldrhImm(REG_W16, base, from);
+                s.strhImm(REG_W16, SP, to);
+                bytes -= 2;
+                from += 2;
+                to += 2;
+            }
+            if (bytes == 1) {
+                s.ldrbImm(REG_W16, base, from);
+                s.strbImm(REG_W16, SP, to);
+            }
+        }
+
+        /** Stores the low @a bytes (1-8) of x register @a reg exactly, shifting it down as it goes. */
+        private void storePiece(int reg, int base, int off, int bytes) {
+            int w = REG_GPT | Encoding.r(reg);
+            if (bytes == 8) {
+                s.strImm(reg, base, off);
+                return;
+            }
+            if (bytes >= 4) {
+                s.strImm(w, base, off);
+                off += 4;
+                bytes -= 4;
+                if (bytes > 0) {
+                    s._emitInt32(Encoding.bitfield(Encoding.UBFM, reg, reg, 32, 63));
+                }
+            }
+            if (bytes >= 2) {
+                s.strhImm(w, base, off);
+                off += 2;
+                bytes -= 2;
+                if (bytes > 0) {
+                    s._emitInt32(Encoding.bitfield(Encoding.UBFM, w, w, 16, 31));
+                }
+            }
+            if (bytes == 1) {
+                s.strbImm(w, base, off);
+            }
+        }
+
+        private void convertResult() {
+            if (convert) {
+                if (result.size == 4) {
+                    s.movReg(REG_W0, REG_W0);
+                } else {
+                    s._emitInt32(Encoding.bitfield(result.signed ? Encoding.SBFM : Encoding.UBFM, REG_W0, REG_W0, 0,
+                            8 * result.size - 1));
+                }
+            }
+            if (!storeResult) {
+                return;
+            }
+            s.ldrImm(REG_X16, SP, resultSlot());
+            if (result.kind == Type.KIND_HFA) {
+                boolean isDouble = result.elementSize() == 8;
+                for (int j = 0; j < result.count; j += 2) {
+                    if (j + 1 < result.count) {
+                        s._emitInt32(Encoding.fpLdstPair(isDouble, false, j, j + 1, REG_X16, j * result.elementSize()));
+                    } else {
+                        s._emitInt32(Encoding.fpLdstPos(isDouble, false, j, REG_X16, j * result.elementSize()));
+                    }
+                }
+            } else if (result.size == 16) {
+                s.stpImm(REG_X0, REG_X1, REG_X16, 0);
+            } else {
+                storePiece(REG_X0, REG_X16, 0, Math.min(8, result.size));
+                if (result.size > 8) {
+                    storePiece(REG_X1, REG_X16, 8, result.size - 8);
+                }
+            }
+        }
+    }
+}
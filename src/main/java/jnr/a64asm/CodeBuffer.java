@@ -19,99 +19,104 @@
 package jnr.a64asm;
 
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 
-final class CodeBuffer {
-    private ByteBuffer buf;
+/**
+ * Growable little-endian buffer the assembler emits code into.
+ *
+ * Instances are created by {@link GrowthPolicy#newBuffer(int, CodeStorage)}.
+ */
+abstract class CodeBuffer {
+    static final int DEFAULT_CAPACITY = 128;
 
-    public CodeBuffer() {
-        buf = ByteBuffer.allocate(128).order(ByteOrder.LITTLE_ENDIAN);
-    }
+    CodeBuffer() {}
 
-    public final void ensureSpace() {
-        if (buf.remaining() < 16) {
-            grow();
-        }
-    }
+    /** Copies all emitted bytes to @a dst, starting at its position. */
+    abstract void copyTo(ByteBuffer dst);
 
-    public void grow() {
-        int newSize = buf.capacity() * 2;
-        ByteBuffer newBuffer = ByteBuffer.allocate(newSize).order(ByteOrder.BIG_ENDIAN);
+    /**
+     * Returns a view of the emitted bytes that shares this buffer's memory
+     * (a copy for word storage).
+     *
+     * @throws IllegalStateException if the code is not contiguous.
+     */
+    abstract ByteBuffer view();
 
-        // Copy the data over
-        buf.flip();
-        newBuffer.put(buf);
-        buf = newBuffer;
-    }
+    public abstract int offset();
 
-    final void copyTo(ByteBuffer dst) {
-        ByteBuffer dup = buf.duplicate();
-        dup.flip();
-        dst.put(dup);
-    }
+    public abstract int capacity();
 
-    public final int offset() {
-        return buf.position();
-    }
+    public abstract void emitByte(byte x);
 
-    public int capacity() {
-        return buf.capacity();
-    }
+    public abstract void emitWord(short x);
 
-    public final void emitByte(byte x) {
-        buf.put(x);
-    }
+    public abstract void emitDWord(int x);
 
-    public final void emitWord(short x) {
-        buf.putShort(x);
-    }
+    public abstract void emitQWord(long x);
 
-    public final void emitDWord(int x) {
-        buf.putInt(x);
-    }
+    public abstract void emitData(ByteBuffer data, int len);
 
-    public final void emitQWord(long x) {
-        buf.putLong(x);
-    }
+    public abstract byte getByteAt(int pos);
 
-    public final void emitData(ByteBuffer data, int len) {
-        ByteBuffer dup = data.duplicate();
-        if (dup.remaining() > len) {
-            dup.limit(dup.position() + len);
-        }
-        buf.put(dup);
-    }
+    public abstract short getWordAt(int pos);
 
-    public final byte getByteAt(int pos) {
-        return buf.get(pos);
-    }
+    public abstract int getDWordAt(int pos);
 
-    public final short getWordAt(int pos) {
-        return buf.getShort(pos);
-    }
+    public abstract long getQWordAt(int pos);
 
-    public final int getDWordAt(int pos) {
-        return buf.getInt(pos);
-    }
+    public abstract void setByteAt(int pos, byte x);
+
+    public abstract void setWordAt(int pos, short x);
 
-    public final long getQWordAt(int pos) {
-        return buf.getLong(pos);
+    public abstract void setDWordAt(int pos, int x);
+
+    public abstract void setQWordAt(int pos, long x);
+
+    /** Emits one 32-bit instruction word. */
+    public void emitWord32(int x) {
+        emitDWord(x);
     }
 
-    public final void setByteAt(int pos, byte x) {
-        buf.put(pos, x);
+    /** Emits @a len instruction words from @a src starting at @a off. */
+    public void emitWords(int[] src, int off, int len) {
+        for (int i = 0; i < len; i++) {
+            emitWord32(src[off + i]);
+        }
     }
 
-    public final void setWordAt(int pos, short x) {
-        buf.putShort(pos, x);
+    /** Returns the instruction word at word index @a index (byte offset {@code index * 4}). */
+    public int getWord32(int index) {
+        return getDWordAt(index << 2);
     }
 
-    public final void setDWordAt(int pos, int x) {
-        buf.putInt(pos, x);
+    /** Patches the instruction word at word index @a index. */
+    public void setWord32(int index, int x) {
+        setDWordAt(index << 2, x);
     }
 
-    public final void setQWordAt(int pos, long x) {
-        buf.putLong(pos, x);
+    /**
+     * Inserts @a words[k] before the byte at @a positions[k] for each of the first
+     * @a count entries (@a positions sorted ascending, in pre-insertion offsets),
+     * moving the following code up. Used by branch relaxation, which is rare, so
+     * this simply moves bytes once from the end.
+     */
+    void insertWords(int[] positions, int[] words, int count) {
+        int end = offset();
+        for (int i = 0; i < count; i++) {
+            emitDWord(0);
+        }
+        for (int k = count - 1; k >= 0; k--) {
+            int p = positions[k];
+            int delta = (k + 1) << 2;
+            for (int src = end - 1; src >= p; src--) {
+                setByteAt(src + delta, getByteAt(src));
+            }
+            setDWordAt(p + (k << 2), words[k]);
+            end = p;
+        }
     }
 
+    /** Returns the number of whole 32-bit words emitted so far. */
+    public int wordCount() {
+        return offset() >>> 2;
+    }
 }
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2018 Ossdev07
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.a64asm;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Where the assembler code buffer lives.
+ */
+public enum CodeStorage {
+    /** Java heap; {@link Assembler_A64#relocCode} copies the code out. */
+    HEAP,
+    /**
+     * Direct (off-heap) memory; the buffer can be handed to native code as is,
+     * see {@link Assembler_A64#code()}.
+     */
+    DIRECT,
+    /**
+     * A Java {@code int[]} of instruction words; emitting and patching aligned
+     * words skips the byte-order handling of a {@link ByteBuffer}. Only
+     * supported with non-segmented growth policies.
+     */
+    WORDS;
+
+    ByteBuffer allocate(int capacity) {
+        if (this == WORDS) {
+            throw new IllegalStateException("word storage is not byte addressable");
+        }
+        ByteBuffer buf = this == DIRECT ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        return buf.order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
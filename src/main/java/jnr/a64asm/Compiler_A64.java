@@ -0,0 +1,827 @@
+/*
+ * Copyright (C) 2018 Ossdev07
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.a64asm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import static jnr.a64asm.REG.*;
+
+/**
+ * Register allocating front end to {@link Assembler_A64}, in the spirit of
+ * asmjit's Compiler.
+ *
+ * A function is written against virtual registers from {@link #newGp} and
+ * {@link #arg}; physical @c REG codes may be mixed in. Nothing is emitted until
+ * {@link #serialize()}, which computes liveness over the recorded code,
+ * assigns registers by linear scan and emits the function with its prologue
+ * and epilogue into the assembler.
+ *
+ * Allocation follows AAPCS64. Values not live across a call get caller-saved
+ * registers (x9-x15, then x0-x8 where no argument or result lives), values
+ * live across a call get callee-saved x19-x28, reusing those already taken
+ * before touching another. Only the callee-saved registers used (and x30 if
+ * the function calls out) are saved, in stp/ldp pairs. When registers run out
+ * the value used least often for the length of its interval is spilled to the
+ * frame and reloaded through x16/x17 around each use. x16/x17 are otherwise left to the assembler's
+ * immediate fallbacks; x18 and x29 are never touched.
+ */
+public final class Compiler_A64 {
+    //! @brief Virtual register codes are (id + 1) << VIRTUAL_SHIFT | REG type, above every physical code.
+    private static final int VIRTUAL_SHIFT = 8;
+    //! @brief Allocation order for values not live across a call.
+    private static final int[] CALLER_SAVED = { 9, 10, 11, 12, 13, 14, 15, 8, 7, 6, 5, 4, 3, 2, 1, 0 };
+    //! @brief Allocation order for values live across a call.
+    private static final int[] CALLEE_SAVED = { 19, 20, 21, 22, 23, 24, 25, 26, 27, 28 };
+    //! @brief Registers clobbered by a call, x0-x18.
+    private static final int CALL_CLOBBERED = (1 << 19) - 1;
+    //! @brief Scratch registers for spill reloads.
+    private static final int SCRATCH0 = 16, SCRATCH1 = 17;
+
+    // Recorded operations; r0..r2 hold register codes unless noted.
+    private static final int OP_ADD_IMM = 0;    // r0 = r1 + imm
+    private static final int OP_SUB_IMM = 1;    // r0 = r1 - imm
+    private static final int OP_ADD_REG = 2;    // r0 = r1 + r2
+    private static final int OP_SUB_REG = 3;    // r0 = r1 - r2
+    private static final int OP_MOV = 4;        // r0 = r1
+    private static final int OP_CONST = 5;      // r0 = imm
+    private static final int OP_LDR = 6;        // r0 = [r1 + imm]
+    private static final int OP_STR = 7;        // [r1 + imm] = r0
+    private static final int OP_CMP_IMM = 8;    // r0 - imm
+    private static final int OP_CMP_REG = 9;    // r0 - r1
+    private static final int OP_LABEL = 10;     // imm = label index
+    private static final int OP_B = 11;         // imm = label index
+    private static final int OP_BCOND = 12;     // r0 = condition code, imm = label index
+    private static final int OP_CBZ = 13;       // r0 tested, imm = label index
+    private static final int OP_CBNZ = 14;
+    private static final int OP_CALL = 15;      // r0 = argument count, imm = target
+    private static final int OP_RET = 16;       // r0 = 1 if x0 holds a result
+
+    private final Assembler_A64 a;
+    private final List<Label> labels = new ArrayList<Label>();
+
+    private int[] op = new int[64];
+    private int[] r0 = new int[64];
+    private int[] r1 = new int[64];
+    private int[] r2 = new int[64];
+    private long[] imm = new long[64];
+    private int count = 0;
+    private int[] types = new int[16];
+    private int virtuals = 0;
+
+    // Allocation results, filled in by serialize().
+    private int[] assigned;
+    private int[] slot;
+    private int slots;
+    private int[] saved;
+    private int frameSize;
+    //! @brief Scratch register spilled operands of the instruction being emitted go to first.
+    private int firstScratch = SCRATCH0;
+
+    public Compiler_A64(Assembler_A64 a) {
+        this.a = a;
+    }
+
+    /** Returns a new virtual register, 64 bit if @a is64 is @c true and 32 bit otherwise. */
+    public int newGp(boolean is64) {
+        if (virtuals == types.length) {
+            types = Arrays.copyOf(types, virtuals * 2);
+        }
+        types[virtuals] = is64 ? REG_GPR : REG_GPT;
+        return ++virtuals << VIRTUAL_SHIFT | types[virtuals - 1];
+    }
+
+    /**
+     * Returns a 64 bit virtual register holding integer argument @a index (0-7).
+     * Call it before emitting any instruction that could clobber x0-x7.
+     */
+    public int arg(int index) {
+        if (index < 0 || index > 7) {
+            throw new IllegalArgumentException("argument register index out of range: " + index);
+        }
+        int v = newGp(true);
+        record(OP_MOV, v, REG_GPR | index, 0, 0);
+        return v;
+    }
+
+    //! @brief Get number of virtual registers spilled by the last {@link #serialize()}.
+    public int spilled() {
+        return slots;
+    }
+
+    //! @brief Get the registers saved by the prologue of the last {@link #serialize()}, x30 included.
+    public int[] savedRegisters() {
+        return saved == null ? new int[0] : saved.clone();
+    }
+
+    //! @brief Get the stack frame size in bytes of the last {@link #serialize()}.
+    public int frameSize() {
+        return frameSize;
+    }
+
+    /** Returns the physical register code @a reg was assigned, or -1 if it was spilled. */
+    public int physical(int reg) {
+        if (!isVirtual(reg)) {
+            return reg;
+        }
+        int p = assigned != null ? assigned[id(reg)] : -1;
+        return p < 0 ? -1 : (reg & REGTYPE_MASK) | p;
+    }
+
+    public void addImm(int rd, int rn, long value) {
+        record(OP_ADD_IMM, rd, rn, 0, value);
+    }
+
+    public void subImm(int rd, int rn, long value) {
+        record(OP_SUB_IMM, rd, rn, 0, value);
+    }
+
+    public void addReg(int rd, int rn, int rm) {
+        record(OP_ADD_REG, rd, rn, rm, 0);
+    }
+
+    public void subReg(int rd, int rn, int rm) {
+        record(OP_SUB_REG, rd, rn, rm, 0);
+    }
+
+    public void movReg(int rd, int rm) {
+        record(OP_MOV, rd, rm, 0, 0);
+    }
+
+    public void loadConstant(int rd, long value) {
+        record(OP_CONST, rd, 0, 0, value);
+    }
+
+    public void ldrImm(int rt, int rn, long offset) {
+        record(OP_LDR, rt, rn, 0, offset);
+    }
+
+    public void strImm(int rt, int rn, long offset) {
+        record(OP_STR, rt, rn, 0, offset);
+    }
+
+    public void cmpImm(int rn, long value) {
+        record(OP_CMP_IMM, rn, 0, 0, value);
+    }
+
+    public void cmpReg(int rn, int rm) {
+        record(OP_CMP_REG, rn, rm, 0, 0);
+    }
+
+    public Label newLabel() {
+        return a.newLabel();
+    }
+
+    public void bind(Label label) {
+        record(OP_LABEL, 0, 0, 0, labelIndex(label));
+    }
+
+    public void b(Label label) {
+        record(OP_B, 0, 0, 0, labelIndex(label));
+    }
+
+    /** Records {@code b.cond label}; @a cond is the 4 bit A64 condition code. */
+    public void bCond(int cond, Label label) {
+        record(OP_BCOND, cond & 0xf, 0, 0, labelIndex(label));
+    }
+
+    public void cbz(int rt, Label label) {
+        record(OP_CBZ, rt, 0, 0, labelIndex(label));
+    }
+
+    public void cbnz(int rt, Label label) {
+        record(OP_CBNZ, rt, 0, 0, labelIndex(label));
+    }
+
+    /**
+     * Records a call to absolute address @a target passing @a args in x0-x7;
+     * @a result, unless 0, receives x0 afterwards.
+     */
+    public void call(long target, int result, int... args) {
+        if (args.length > 8) {
+            throw new IllegalArgumentException("at most 8 register arguments: " + args.length);
+        }
+        for (int i = 0; i < args.length; i++) {
+            record(OP_MOV, (args[i] & REGTYPE_MASK) | i, args[i], 0, 0);
+        }
+        record(OP_CALL, args.length, 0, 0, target);
+        if (result != 0) {
+            record(OP_MOV, result, (result & REGTYPE_MASK) | 0, 0, 0);
+        }
+    }
+
+    /** Records a return of @a value (0 for none) in x0. */
+    public void ret(int value) {
+        if (value != 0) {
+            record(OP_MOV, (value & REGTYPE_MASK) | 0, value, 0, 0);
+        }
+        record(OP_RET, value != 0 ? 1 : 0, 0, 0, 0);
+    }
+
+    /**
+     * Allocates registers for the recorded function and emits it, prologue
+     * first, into the assembler.
+     *
+     * @throws IllegalStateException if a label branched to is never bound.
+     */
+    public void serialize() {
+        int n = count;
+        int vars = 32 + virtuals;
+        int[] uses = new int[8];
+        int[] defs = new int[32];
+
+        // Basic blocks: a label starts one, a branch or ret ends one.
+        int[] labelAt = new int[labels.size()];
+        Arrays.fill(labelAt, -1);
+        boolean[] leader = new boolean[n + 1];
+        leader[0] = true;
+        for (int i = 0; i < n; i++) {
+            if (op[i] == OP_LABEL) {
+                leader[i] = true;
+                labelAt[(int) imm[i]] = i;
+            } else if (op[i] >= OP_B && op[i] <= OP_CBNZ || op[i] == OP_RET) {
+                leader[i + 1] = true;
+            }
+        }
+        int[] blockOf = new int[n];
+        int blocks = 0;
+        for (int i = 0; i < n; i++) {
+            if (leader[i]) {
+                blocks++;
+            }
+            blockOf[i] = blocks - 1;
+        }
+        int[] first = new int[blocks];
+        int[] last = new int[blocks];
+        for (int i = n - 1; i >= 0; i--) {
+            first[blockOf[i]] = i;
+        }
+        for (int i = 0; i < n; i++) {
+            last[blockOf[i]] = i;
+        }
+        int[][] succ = new int[blocks][];
+        for (int b = 0; b < blocks; b++) {
+            int i = last[b];
+            int target = -1;
+            if (op[i] >= OP_B && op[i] <= OP_CBNZ) {
+                int at = labelAt[(int) imm[i]];
+                if (at < 0) {
+                    throw new IllegalStateException("branch to unbound label");
+                }
+                target = blockOf[at];
+            }
+            boolean falls = op[i] != OP_B && op[i] != OP_RET && b + 1 < blocks;
+            succ[b] = target < 0 ? (falls ? new int[] { b + 1 } : new int[0])
+                    : (falls ? new int[] { target, b + 1 } : new int[] { target });
+        }
+
+        // Liveness: physical registers are variables 0-31, virtual ones 32 on.
+        BitSet[] use = new BitSet[blocks];
+        BitSet[] def = new BitSet[blocks];
+        BitSet[] in = new BitSet[blocks];
+        BitSet[] out = new BitSet[blocks];
+        for (int b = 0; b < blocks; b++) {
+            use[b] = new BitSet(vars);
+            def[b] = new BitSet(vars);
+            in[b] = new BitSet(vars);
+            out[b] = new BitSet(vars);
+            for (int i = first[b]; i <= last[b]; i++) {
+                for (int k = operands(i, uses, defs, true); --k >= 0; ) {
+                    if (!def[b].get(uses[k])) {
+                        use[b].set(uses[k]);
+                    }
+                }
+                for (int k = operands(i, uses, defs, false); --k >= 0; ) {
+                    def[b].set(defs[k]);
+                }
+            }
+        }
+        boolean changed;
+        do {
+            changed = false;
+            for (int b = blocks - 1; b >= 0; b--) {
+                BitSet o = new BitSet(vars);
+                for (int s : succ[b]) {
+                    o.or(in[s]);
+                }
+                BitSet i = (BitSet) o.clone();
+                i.andNot(def[b]);
+                i.or(use[b]);
+                if (!i.equals(in[b]) || !o.equals(out[b])) {
+                    in[b] = i;
+                    out[b] = o;
+                    changed = true;
+                }
+            }
+        } while (changed);
+
+        // Intervals over points 2i (uses of instruction i) and 2i + 1 (its
+        // defs), and the physical registers busy at each point.
+        int[] start = new int[virtuals];
+        int[] end = new int[virtuals];
+        Arrays.fill(start, Integer.MAX_VALUE);
+        Arrays.fill(end, -1);
+        int[] liveIn = new int[n + 1];
+        int[] written = new int[n];
+        for (int b = 0; b < blocks; b++) {
+            BitSet live = (BitSet) out[b].clone();
+            for (int v = live.nextSetBit(32); v >= 0; v = live.nextSetBit(v + 1)) {
+                end[v - 32] = Math.max(end[v - 32], 2 * last[b] + 2);
+            }
+            for (int i = last[b]; i >= first[b]; i--) {
+                for (int k = operands(i, uses, defs, false); --k >= 0; ) {
+                    int v = defs[k];
+                    live.clear(v);
+                    if (v >= 32) {
+                        start[v - 32] = Math.min(start[v - 32], 2 * i + 1);
+                        end[v - 32] = Math.max(end[v - 32], 2 * i + 1);
+                    } else {
+                        written[i] |= 1 << v;
+                    }
+                }
+                for (int k = operands(i, uses, defs, true); --k >= 0; ) {
+                    int v = uses[k];
+                    live.set(v);
+                    if (v >= 32) {
+                        end[v - 32] = Math.max(end[v - 32], 2 * i);
+                    }
+                }
+                for (int v = live.nextSetBit(0); v >= 0 && v < 32; v = live.nextSetBit(v + 1)) {
+                    liveIn[i] |= 1 << v;
+                }
+            }
+            for (int v = live.nextSetBit(32); v >= 0; v = live.nextSetBit(v + 1)) {
+                start[v - 32] = Math.min(start[v - 32], 2 * first[b]);
+            }
+        }
+        int[] busy = new int[2 * n + 2];
+        int[] refs = new int[virtuals];
+        for (int i = 0; i < n; i++) {
+            busy[2 * i] |= liveIn[i];
+            busy[2 * i + 1] |= written[i] | (i + 1 < n ? liveIn[i + 1] & ~written[i] : 0);
+            for (int k = operands(i, uses, defs, true); --k >= 0; ) {
+                if (uses[k] >= 32) {
+                    refs[uses[k] - 32]++;
+                }
+            }
+            for (int k = operands(i, uses, defs, false); --k >= 0; ) {
+                if (defs[k] >= 32) {
+                    refs[defs[k] - 32]++;
+                }
+            }
+        }
+
+        // Hints: moves from and to fixed registers, and between virtual ones.
+        int[] hint = new int[virtuals];
+        int[] hintFrom = new int[virtuals];
+        Arrays.fill(hint, -1);
+        Arrays.fill(hintFrom, -1);
+        for (int i = 0; i < n; i++) {
+            if (op[i] != OP_MOV) {
+                continue;
+            }
+            if (isVirtual(r0[i]) && isVirtual(r1[i])) {
+                hintFrom[id(r0[i])] = id(r1[i]);
+            } else if (isVirtual(r0[i])) {
+                hint[id(r0[i])] = Encoding.r(r1[i]);
+            } else if (isVirtual(r1[i])) {
+                hint[id(r1[i])] = Encoding.r(r0[i]);
+            }
+        }
+
+        allocate(start, end, refs, busy, hint, hintFrom);
+        emit(n, uses, defs);
+    }
+
+    /**
+     * Linear scan over the intervals, in order of their start; @a refs counts
+     * the reads and writes of each value.
+     */
+    private void allocate(int[] start, int[] end, int[] refs, int[] busy, int[] hint, int[] hintFrom) {
+        assigned = new int[virtuals];
+        slot = new int[virtuals];
+        Arrays.fill(assigned, -1);
+        Arrays.fill(slot, -1);
+        slots = 0;
+
+        long[] order = new long[virtuals];
+        int live = 0;
+        for (int v = 0; v < virtuals; v++) {
+            if (start[v] != Integer.MAX_VALUE) {
+                order[live++] = (long) start[v] << 32 | v;
+            }
+        }
+        Arrays.sort(order, 0, live);
+
+        int[] active = new int[32];
+        int actives = 0;
+        int calleeUsed = 0;
+        for (int k = 0; k < live; k++) {
+            int v = (int) order[k];
+            int taken = 0;
+            int kept = 0;
+            for (int j = 0; j < actives; j++) {
+                if (end[active[j]] >= start[v]) {
+                    active[kept++] = active[j];
+                    taken |= 1 << assigned[active[j]];
+                }
+            }
+            actives = kept;
+
+            int reg = -1;
+            if (hintFrom[v] >= 0 && assigned[hintFrom[v]] >= 0) {
+                reg = fits(assigned[hintFrom[v]], taken, busy, start[v], end[v]);
+            }
+            if (reg < 0 && hint[v] >= 0) {
+                reg = fits(hint[v], taken, busy, start[v], end[v]);
+            }
+            for (int j = 0; reg < 0 && j < CALLER_SAVED.length; j++) {
+                reg = fits(CALLER_SAVED[j], taken, busy, start[v], end[v]);
+            }
+            for (int j = 0; reg < 0 && j < CALLEE_SAVED.length; j++) {
+                if ((calleeUsed & 1 << CALLEE_SAVED[j]) != 0) {
+                    reg = fits(CALLEE_SAVED[j], taken, busy, start[v], end[v]);
+                }
+            }
+            for (int j = 0; reg < 0 && j < CALLEE_SAVED.length; j++) {
+                reg = fits(CALLEE_SAVED[j], taken, busy, start[v], end[v]);
+            }
+
+            if (reg < 0) {
+                // Spill whichever of v and the active values able to give up
+                // their register to v costs the fewest reloads and stores.
+                int victim = -1;
+                for (int j = 0; j < actives; j++) {
+                    int u = active[j];
+                    if (fits(assigned[u], 0, busy, start[v], end[v]) >= 0
+                            && (victim < 0 || cheaperToSpill(u, active[victim], start, end, refs))) {
+                        victim = j;
+                    }
+                }
+                if (victim >= 0 && cheaperToSpill(active[victim], v, start, end, refs)) {
+                    int u = active[victim];
+                    reg = assigned[u];
+                    assigned[u] = -1;
+                    slot[u] = slots++;
+                    active[victim] = active[--actives];
+                } else {
+                    slot[v] = slots++;
+                    continue;
+                }
+            }
+            assigned[v] = reg;
+            active[actives++] = v;
+            if (reg >= 19) {
+                calleeUsed |= 1 << reg;
+            }
+        }
+
+        int n = Integer.bitCount(calleeUsed) + (hasCalls() ? 1 : 0);
+        saved = new int[n];
+        int s = 0;
+        for (int j = 0; j < CALLEE_SAVED.length; j++) {
+            if ((calleeUsed & 1 << CALLEE_SAVED[j]) != 0) {
+                saved[s++] = CALLEE_SAVED[j];
+            }
+        }
+        if (s < n) {
+            saved[s] = 30;
+        }
+        frameSize = align16(8 * saved.length) + align16(8 * slots);
+    }
+
+    /**
+     * Returns @c true if spilling @a u frees its register for longer per
+     * reload or store than spilling @a v: @a u has fewer references for the
+     * length of its interval, or as many and lives longer.
+     */
+    private static boolean cheaperToSpill(int u, int v, int[] start, int[] end, int[] refs) {
+        long cu = (long) refs[u] * (end[v] - start[v] + 1);
+        long cv = (long) refs[v] * (end[u] - start[u] + 1);
+        return cu < cv || cu == cv && end[u] > end[v];
+    }
+
+    /** Returns @a reg if it is neither @a taken nor busy between points @a from and @a to, -1 otherwise. */
+    private static int fits(int reg, int taken, int[] busy, int from, int to) {
+        if ((taken & 1 << reg) != 0) {
+            return -1;
+        }
+        for (int p = from; p <= to && p < busy.length; p++) {
+            if ((busy[p] & 1 << reg) != 0) {
+                return -1;
+            }
+        }
+        return reg;
+    }
+
+    private void emit(int n, int[] uses, int[] defs) {
+        prologue();
+        int[] scratchOf = new int[2];
+        int[] nextUses = new int[8];
+        int deferred = -1;
+        int deferredReg = 0;
+        for (int i = 0; i < n; i++) {
+            // Reload spilled operands into x16/x17, with one ldp when they sit
+            // in adjacent slots; a spilled result goes through x16 (or the
+            // register its operand was reloaded into). While the store of the
+            // previous result waits in one of them, the other is used.
+            firstScratch = deferred >= 0 ? Encoding.r(deferredReg) ^ 1 : SCRATCH0;
+            int reloads = 0;
+            for (int k = operands(i, uses, defs, true); --k >= 0; ) {
+                int v = uses[k] - 32;
+                if (v >= 0 && slot[v] >= 0 && (reloads == 0 || scratchOf[0] != v)) {
+                    scratchOf[reloads++] = v;
+                }
+            }
+            if (reloads == 2 && types[scratchOf[0]] == REG_GPR && types[scratchOf[1]] == REG_GPR
+                    && Math.abs(slot[scratchOf[0]] - slot[scratchOf[1]]) == 1) {
+                boolean firstLow = slot[scratchOf[0]] < slot[scratchOf[1]];
+                int lo = types[scratchOf[0]] | (firstLow ? firstScratch : firstScratch ^ 1);
+                int hi = types[scratchOf[0]] | (firstLow ? firstScratch ^ 1 : firstScratch);
+                a.ldpImm(lo, hi, REG_X31, spillOffset(scratchOf[firstLow ? 0 : 1]));
+            } else {
+                for (int k = 0; k < reloads; k++) {
+                    a.ldrImm(types[scratchOf[k]] | (k == 0 ? firstScratch : firstScratch ^ 1), REG_X31, spillOffset(scratchOf[k]));
+                }
+            }
+            switch (op[i]) {
+                case OP_ADD_IMM: a.addImm(reg(r0[i], scratchOf, reloads), reg(r1[i], scratchOf, reloads), imm[i]); break;
+                case OP_SUB_IMM: a.subImm(reg(r0[i], scratchOf, reloads), reg(r1[i], scratchOf, reloads), imm[i]); break;
+                case OP_ADD_REG: a.addReg(reg(r0[i], scratchOf, reloads), reg(r1[i], scratchOf, reloads), reg(r2[i], scratchOf, reloads)); break;
+                case OP_SUB_REG: a.subReg(reg(r0[i], scratchOf, reloads), reg(r1[i], scratchOf, reloads), reg(r2[i], scratchOf, reloads)); break;
+                case OP_MOV: {
+                    int rd = reg(r0[i], scratchOf, reloads);
+                    int rm = reg(r1[i], scratchOf, reloads);
+                    if (Encoding.r(rd) != Encoding.r(rm)) {
+                        a.movReg(rd, rm);
+                    }
+                    break;
+                }
+                case OP_CONST: a.loadConstant(reg(r0[i], scratchOf, reloads), imm[i]); break;
+                case OP_LDR: a.ldrImm(reg(r0[i], scratchOf, reloads), reg(r1[i], scratchOf, reloads), imm[i]); break;
+                case OP_STR: a.strImm(reg(r0[i], scratchOf, reloads), reg(r1[i], scratchOf, reloads), imm[i]); break;
+                case OP_CMP_IMM: a.cmpImm(reg(r0[i], scratchOf, reloads), imm[i]); break;
+                case OP_CMP_REG: a.cmpReg(reg(r0[i], scratchOf, reloads), reg(r1[i], scratchOf, reloads)); break;
+                case OP_LABEL: a.bind(labels.get((int) imm[i])); break;
+                case OP_B: a.bLabel(labels.get((int) imm[i])); break;
+                case OP_BCOND: a.bCond(r0[i], labels.get((int) imm[i])); break;
+                case OP_CBZ: a.cbzLabel(reg(r0[i], scratchOf, reloads), labels.get((int) imm[i])); break;
+                case OP_CBNZ: a.cbnzLabel(reg(r0[i], scratchOf, reloads), labels.get((int) imm[i])); break;
+                case OP_CALL: a.blImm(imm[i]); break;
+                case OP_RET: epilogue(); a.retReg(REG_X30); break;
+                default: throw new IllegalStateException("unknown operation " + op[i]);
+            }
+            // Spill the result, pairing it with the next instruction's when
+            // that goes to the adjacent slot.
+            for (int k = operands(i, uses, defs, false); --k >= 0; ) {
+                int v = defs[k] - 32;
+                if (v < 0 || slot[v] < 0) {
+                    continue;
+                }
+                int rd = reg(r0[i], scratchOf, reloads);
+                if (deferred >= 0) {
+                    boolean deferredLow = slot[deferred] < slot[v];
+                    a.stpImm(deferredLow ? deferredReg : rd, deferredLow ? rd : deferredReg, REG_X31,
+                            spillOffset(deferredLow ? deferred : v));
+                    deferred = -1;
+                } else if (spillPairsWithNext(i, v, nextUses, defs)) {
+                    deferred = v;
+                    deferredReg = rd;
+                } else {
+                    a.strImm(rd, REG_X31, spillOffset(v));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns @c true if the spill store of @a v, defined by instruction
+     * @a i, can wait for the next instruction and pair with its spill store:
+     * that one defines an X value in the slot next to @a v, does not read
+     * @a v, reloads at most one operand (leaving the other scratch register
+     * alone) and has no immediate the assembler might need x16/x17 for.
+     */
+    private boolean spillPairsWithNext(int i, int v, int[] nextUses, int[] nextDefs) {
+        int j = i + 1;
+        if (j >= count || op[j] != OP_ADD_REG && op[j] != OP_SUB_REG && op[j] != OP_MOV && op[j] != OP_CONST
+                || !isVirtual(r0[j]) || types[v] != REG_GPR) {
+            return false;
+        }
+        int w = id(r0[j]);
+        if (slot[w] < 0 || types[w] != REG_GPR || Math.abs(slot[v] - slot[w]) != 1
+                || !Encoding.isPairOffset(REG_X0, spillOffset(slot[v] < slot[w] ? v : w))) {
+            return false;
+        }
+        int reloaded = -1;
+        for (int k = operands(j, nextUses, nextDefs, true); --k >= 0; ) {
+            int u = nextUses[k] - 32;
+            if (u == v || u >= 0 && slot[u] >= 0 && reloaded >= 0 && reloaded != u) {
+                return false;
+            }
+            if (u >= 0 && slot[u] >= 0) {
+                reloaded = u;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the physical code for operand @a reg of the instruction being emitted. */
+    private int reg(int reg, int[] scratchOf, int reloads) {
+        if (!isVirtual(reg)) {
+            return reg;
+        }
+        int v = id(reg);
+        if (slot[v] < 0) {
+            return (reg & REGTYPE_MASK) | assigned[v];
+        }
+        return (reg & REGTYPE_MASK) | (reloads > 1 && scratchOf[1] == v ? firstScratch ^ 1 : firstScratch);
+    }
+
+    /**
+     * Allocates the frame and saves the registers, the first pair with a
+     * pre-indexed stp when the frame is small enough.
+     */
+    private void prologue() {
+        if (frameSize == 0) {
+            return;
+        }
+        int k = 0;
+        if (saved.length >= 2 && frameSize <= 504) {
+            a.stpPre(REG_GPR | saved[0], REG_GPR | saved[1], REG_X31, -frameSize);
+            k = 2;
+        } else {
+            a.subImm(REG_X31, REG_X31, frameSize);
+        }
+        for (; k + 1 < saved.length; k += 2) {
+            a.stpImm(REG_GPR | saved[k], REG_GPR | saved[k + 1], REG_X31, 8 * k);
+        }
+        if (k < saved.length) {
+            a.strImm(REG_GPR | saved[k], REG_X31, 8 * k);
+        }
+    }
+
+    private void epilogue() {
+        if (frameSize == 0) {
+            return;
+        }
+        boolean post = saved.length >= 2 && frameSize <= 504;
+        int k = post ? 2 : 0;
+        for (; k + 1 < saved.length; k += 2) {
+            a.ldpImm(REG_GPR | saved[k], REG_GPR | saved[k + 1], REG_X31, 8 * k);
+        }
+        if (k < saved.length) {
+            a.ldrImm(REG_GPR | saved[k], REG_X31, 8 * k);
+        }
+        if (post) {
+            a.ldpPost(REG_GPR | saved[0], REG_GPR | saved[1], REG_X31, frameSize);
+        } else {
+            a.addImm(REG_X31, REG_X31, frameSize);
+        }
+    }
+
+    private int spillOffset(int v) {
+        return align16(8 * saved.length) + 8 * slot[v];
+    }
+
+    private boolean hasCalls() {
+        for (int i = 0; i < count; i++) {
+            if (op[i] == OP_CALL) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stores the variables (register number, or 32 + virtual id) used by
+     * instruction @a i into @a uses if @a used is @c true, or those it
+     * defines into @a defs otherwise, and returns their count. SP/ZR is left
+     * out.
+     */
+    private int operands(int i, int[] uses, int[] defs, boolean used) {
+        int k = 0;
+        switch (op[i]) {
+            case OP_ADD_IMM:
+            case OP_SUB_IMM:
+            case OP_MOV:
+            case OP_LDR:
+                if (used) {
+                    k = add(uses, k, r1[i]);
+                } else {
+                    k = add(defs, k, r0[i]);
+                }
+                break;
+            case OP_ADD_REG:
+            case OP_SUB_REG:
+                if (used) {
+                    k = add(uses, add(uses, k, r1[i]), r2[i]);
+                } else {
+                    k = add(defs, k, r0[i]);
+                }
+                break;
+            case OP_CONST:
+                if (!used) {
+                    k = add(defs, k, r0[i]);
+                }
+                break;
+            case OP_STR:
+            case OP_CMP_REG:
+                if (used) {
+                    k = add(uses, add(uses, k, r0[i]), r1[i]);
+                }
+                break;
+            case OP_CMP_IMM:
+            case OP_CBZ:
+            case OP_CBNZ:
+                if (used) {
+                    k = add(uses, k, r0[i]);
+                }
+                break;
+            case OP_CALL:
+                // Reads its arguments, and leaves the result in x0 and
+                // garbage in the rest of x0-x18.
+                for (int j = 0; used && j < r0[i]; j++) {
+                    uses[k++] = j;
+                }
+                for (int j = 0; !used && j < 32; j++) {
+                    if ((CALL_CLOBBERED & 1 << j) != 0) {
+                        defs[k++] = j;
+                    }
+                }
+                break;
+            case OP_RET:
+                if (used && r0[i] != 0) {
+                    uses[k++] = 0;
+                }
+                break;
+            default:
+                break;
+        }
+        return k;
+    }
+
+    private static int add(int[] vars, int k, int reg) {
+        if (isVirtual(reg)) {
+            vars[k++] = 32 + id(reg);
+        } else if (Encoding.r(reg) != 31) {
+            vars[k++] = Encoding.r(reg);
+        }
+        return k;
+    }
+
+    private int labelIndex(Label label) {
+        int index = labels.indexOf(label);
+        if (index < 0) {
+            index = labels.size();
+            labels.add(label);
+        }
+        return index;
+    }
+
+    private void record(int o, int a0, int a1, int a2, long value) {
+        if (count == op.length) {
+            int size = count * 2;
+            op = Arrays.copyOf(op, size);
+            r0 = Arrays.copyOf(r0, size);
+            r1 = Arrays.copyOf(r1, size);
+            r2 = Arrays.copyOf(r2, size);
+            imm = Arrays.copyOf(imm, size);
+        }
+        op[count] = o;
+        r0[count] = a0;
+        r1[count] = a1;
+        r2[count] = a2;
+        imm[count] = value;
+        count++;
+    }
+
+    private static boolean isVirtual(int reg) {
+        return reg >>> VIRTUAL_SHIFT != 0;
+    }
+
+    private static int id(int reg) {
+        return (reg >>> VIRTUAL_SHIFT) - 1;
+    }
+
+    private static int align16(int n) {
+        return (n + 15) & ~15;
+    }
+}
@@ -32,4 +32,39 @@ public final class Conditions extends Operand {
         return value;
     }
 
+    private static final Conditions[] cache = new Conditions[16];
+
+    static {
+        for (int i = 0; i < 16; i++) {
+            cache[i] = new Conditions(i);
+        }
+    }
+
+    /** Returns the shared condition for the 4 bit condition code @a value. */
+    public static final Conditions of(int value) {
+        if (value >= 0 && value < 16) {
+            return cache[value];
+        }
+        return new Conditions(value);
+    }
+
+    public static final Conditions eq() { return cache[0x0]; }
+    public static final Conditions ne() { return cache[0x1]; }
+    public static final Conditions cs() { return cache[0x2]; }
+    public static final Conditions hs() { return cache[0x2]; }
+    public static final Conditions cc() { return cache[0x3]; }
+    public static final Conditions lo() { return cache[0x3]; }
+    public static final Conditions mi() { return cache[0x4]; }
+    public static final Conditions pl() { return cache[0x5]; }
+    public static final Conditions vs() { return cache[0x6]; }
+    public static final Conditions vc() { return cache[0x7]; }
+    public static final Conditions hi() { return cache[0x8]; }
+    public static final Conditions ls() { return cache[0x9]; }
+    public static final Conditions ge() { return cache[0xa]; }
+    public static final Conditions lt() { return cache[0xb]; }
+    public static final Conditions gt() { return cache[0xc]; }
+    public static final Conditions le() { return cache[0xd]; }
+    public static final Conditions al() { return cache[0xe]; }
+    public static final Conditions nv() { return cache[0xf]; }
+
 }
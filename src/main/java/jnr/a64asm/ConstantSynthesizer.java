@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2018 Ossdev07
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.a64asm;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static jnr.a64asm.REG.*;
+
+/**
+ * Picks the shortest instruction sequence that materializes a constant.
+ *
+ * Candidates are movz + movk (skipping zero halfwords), movn + movk (skipping
+ * 0xffff halfwords), a single orr of a bitmask immediate, and orr followed by
+ * one or two movk. Sequences are returned as instruction words with Rd = 0,
+ * and are cached per constant in a small LRU map.
+ */
+final class ConstantSynthesizer {
+    private ConstantSynthesizer() {}
+
+    private static final int CACHE_SIZE = 256;
+
+    private static final Map<Long, int[]> cache64 = newCache();
+    private static final Map<Long, int[]> cache32 = newCache();
+
+    private static Map<Long, int[]> newCache() {
+        return new LinkedHashMap<Long, int[]>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, int[]> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        };
+    }
+
+    /**
+     * Returns the instruction words materializing @a value in a 64 bit
+     * (@a is64) or 32 bit register, with Rd = 0. The array is shared and must
+     * not be modified.
+     */
+    static int[] sequence(long value, boolean is64) {
+        if (!is64) {
+            value &= 0xffffffffL;
+        }
+        Map<Long, int[]> cache = is64 ? cache64 : cache32;
+        synchronized (cache) {
+            int[] seq = cache.get(value);
+            if (seq == null) {
+                seq = synthesize(value, is64);
+                cache.put(value, seq);
+            }
+            return seq;
+        }
+    }
+
+    private static int halfword(long value, int i) {
+        return (int) (value >>> (i << 4)) & 0xffff;
+    }
+
+    private static int[] synthesize(long value, boolean is64) {
+        int rd = is64 ? REG_X0 : REG_W0;
+        int halves = is64 ? 4 : 2;
+
+        int imm = LogicalImmediate.encode(value, is64);
+        if (imm >= 0) {
+            return new int[] { logImm(Encoding.ORR_IMM, rd, imm) };
+        }
+
+        int[] best = moveWide(value, rd, halves, false);
+        int[] inverted = moveWide(value, rd, halves, true);
+        if (inverted.length < best.length) {
+            best = inverted;
+        }
+
+        // orr of a bitmask immediate, then movk the halfwords that differ.
+        if (best.length > 2) {
+            int[] orrMovk = orrMovk(value, rd, halves, best.length - 1);
+            if (orrMovk != null) {
+                best = orrMovk;
+            }
+        }
+        return best;
+    }
+
+    /** movz (or movn if @a inverted) of the first halfword, then movk of the rest. */
+    private static int[] moveWide(long value, int rd, int halves, boolean inverted) {
+        int skip = inverted ? 0xffff : 0;
+        int n = 0;
+        for (int i = 0; i < halves; i++) {
+            if (halfword(value, i) != skip) {
+                n++;
+            }
+        }
+        if (n == 0) {
+            // All halfwords are skipped: a single movz #0 or movn #0.
+            return new int[] { Encoding.moveWide(inverted ? Encoding.MOVN : Encoding.MOVZ, rd, 0, 0) };
+        }
+
+        int[] seq = new int[n];
+        int k = 0;
+        for (int i = 0; i < halves; i++) {
+            int h = halfword(value, i);
+            if (h == skip) {
+                continue;
+            }
+            if (k == 0) {
+                seq[k++] = inverted
+                        ? Encoding.moveWide(Encoding.MOVN, rd, ~h & 0xffff, i << 4)
+                        : Encoding.moveWide(Encoding.MOVZ, rd, h, i << 4);
+            } else {
+                seq[k++] = Encoding.moveWide(Encoding.MOVK, rd, h, i << 4);
+            }
+        }
+        return seq;
+    }
+
+    /**
+     * Tries orr of a bitmask immediate followed by movk of one or two
+     * halfwords, each replaced by another halfword of @a value. Returns @c null
+     * unless the result is at most @a limit instructions.
+     */
+    private static int[] orrMovk(long value, int rd, int halves, int limit) {
+        for (int count = 1; count <= 2 && count + 1 <= limit; count++) {
+            for (int i = 0; i < halves; i++) {
+                for (int j = count == 1 ? i : i + 1; j < halves; j++) {
+                    for (int src = 0; src < halves; src++) {
+                        long fill = halfword(value, src);
+                        long candidate = value & ~(0xffffL << (i << 4)) | fill << (i << 4);
+                        if (count == 2) {
+                            candidate = candidate & ~(0xffffL << (j << 4)) | fill << (j << 4);
+                        }
+                        int imm = LogicalImmediate.encode(candidate, halves == 4);
+                        if (imm < 0) {
+                            continue;
+                        }
+                        int[] seq = new int[count + 1];
+                        seq[0] = logImm(Encoding.ORR_IMM, rd, imm);
+                        seq[1] = Encoding.moveWide(Encoding.MOVK, rd, halfword(value, i), i << 4);
+                        if (count == 2) {
+                            seq[2] = Encoding.moveWide(Encoding.MOVK, rd, halfword(value, j), j << 4);
+                        }
+                        return seq;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /** orr rd, zr, #imm */
+    private static int logImm(int op, int rd, int imm) {
+        return Encoding.logImm(op, rd, rd | REGCODE_MASK, imm);
+    }
+}
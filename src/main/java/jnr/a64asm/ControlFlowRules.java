@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2018 Ossdev07
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.a64asm;
+
+import static jnr.a64asm.INST_CODE.*;
+import static jnr.a64asm.REG.*;
+
+/**
+ * Control flow cleanup rules for {@link PeepholeOptimizer}, see
+ * {@link PeepholeOptimizer#controlFlowCleanup()}.
+ *
+ * Branch ranges are estimated from the recorded instructions; a branch that
+ * still ends up out of range is relaxed when the code is finalized.
+ */
+final class ControlFlowRules {
+    private ControlFlowRules() {}
+
+    //! @brief Bytes of slack kept when estimating whether a short branch reaches.
+    private static final int RANGE_SLACK = 4096;
+    //! @brief Longest chain of branches to branches followed.
+    private static final int MAX_CHAIN = 8;
+
+    static PeepholeRule[] rules() {
+        return new PeepholeRule[] {
+            new PeepholeOptimizer.CmpZeroBranch(), new TestBitBranch(), new ThreadJump(), new BranchToNext(), new Unreachable()
+        };
+    }
+
+    static boolean isBranch(int w) {
+        return (w & 0xfc000000) == Encoding.B || Encoding.isCondBranch(w);
+    }
+
+    /** Returns @c true if execution never falls through @a w: b, br or ret. */
+    static boolean isJump(int w) {
+        return (w & 0xfc000000) == Encoding.B || (w & 0xfffffc1f) == Encoding.BR || (w & 0xfffffc1f) == Encoding.RET;
+    }
+
+    /** Returns the first instruction at or after entry @a i, skipping labels and removed entries, or -1. */
+    static int firstInstruction(InstructionList ir, int i) {
+        for (; i >= 0 && i < ir.size(); i++) {
+            int code = ir.code(i);
+            if (code != InstructionList.LABEL && code != InstructionList.REMOVED) {
+                return ir.isInstruction(i) ? i : -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the estimated byte distance from entry @a from to entry @a to, or
+     * @c Integer.MAX_VALUE if a literal pool between them makes it unknown.
+     */
+    static int distance(InstructionList ir, int from, int to) {
+        int lo = Math.min(from, to);
+        int hi = Math.max(from, to);
+        int bytes = 0;
+        for (int i = lo; i < hi; i++) {
+            int code = ir.code(i);
+            if (code == InstructionList.POOL) {
+                return Integer.MAX_VALUE;
+            } else if (code == InstructionList.DATA) {
+                bytes += ir.kind(i);
+            } else if (code != InstructionList.LABEL && code != InstructionList.REMOVED) {
+                bytes += 4;
+            }
+        }
+        return to < from ? -bytes : bytes;
+    }
+
+    /** Returns @c true if a branch at @a from with fixup @a kind likely reaches label @a label. */
+    static boolean reaches(InstructionList ir, int from, int kind, int label) {
+        if (kind == LabelTable.FIXUP_IMM26) {
+            return true;
+        }
+        int target = ir.indexOfLabel(label);
+        int d = target >= 0 ? distance(ir, from, target) : Integer.MAX_VALUE;
+        return d != Integer.MAX_VALUE && Encoding.fitsFixup(kind, d + (d < 0 ? -RANGE_SLACK : RANGE_SLACK));
+    }
+
+    /** {@code tst xN, #(1 << k); b.eq/b.ne label} becomes {@code tbz/tbnz xN, #k, label} if the flags are dead after it. */
+    static final class TestBitBranch implements PeepholeRule {
+        @Override
+        public String name() {
+            return "test-bit-branch";
+        }
+
+        @Override
+        public boolean apply(InstructionList ir, int i) {
+            int tst = ir.word(i);
+            int j = PeepholeOptimizer.nextInstruction(ir, i);
+            if (j < 0 || (tst & 0x7f80001f) != (Encoding.ANDS_IMM | 0x1f) || (tst >>> 5 & 0x1f) == 31) {
+                return false;
+            }
+            int b = ir.word(j);
+            if ((b & 0xff00001e) != Encoding.B_COND || ir.label(j) == 0) {
+                return false;
+            }
+            int bit = bitOf(tst);
+            if (bit < 0 || !reaches(ir, i, LabelTable.FIXUP_IMM14, ir.label(j)) || !PeepholeOptimizer.flagsDeadAfter(ir, j)) {
+                return false;
+            }
+            boolean eq = (b & 0xf) == 0;
+            ir.set(i, (eq ? INST_TBZ_TESTBRANCH : INST_TBNZ_TESTBRANCH).ordinal(),
+                    Encoding.testBranch(eq ? Encoding.TBZ : Encoding.TBNZ, REG_GPR | (tst >>> 5 & 0x1f), bit, 0),
+                    ir.label(j), LabelTable.FIXUP_IMM14);
+            ir.remove(j);
+            return true;
+        }
+
+        /** Returns k if the bitmask immediate of @a tst is a single bit k, -1 otherwise. */
+        private static int bitOf(int tst) {
+            boolean is64 = tst < 0;
+            int imm = tst >>> 10 & 0x1fff;
+            for (int k = 0; k < (is64 ? 64 : 32); k++) {
+                if (LogicalImmediate.encode(1L << k, is64) == imm) {
+                    return k;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /** A branch to a label whose first instruction is {@code b target} branches to @c target directly. */
+    static final class ThreadJump implements PeepholeRule {
+        @Override
+        public String name() {
+            return "thread-jump";
+        }
+
+        @Override
+        public boolean apply(InstructionList ir, int i) {
+            int label = ir.label(i);
+            if (label == 0 || !isBranch(ir.word(i))) {
+                return false;
+            }
+            int[] seen = new int[MAX_CHAIN];
+            int target = label;
+            for (int n = 0; ; n++) {
+                int t = firstInstruction(ir, ir.indexOfLabel(target));
+                if (t < 0 || (ir.word(t) & 0xfc000000) != Encoding.B || ir.label(t) == 0) {
+                    break;
+                }
+                if (n == MAX_CHAIN) {
+                    return false;
+                }
+                seen[n] = target;
+                target = ir.label(t);
+                for (int k = 0; k <= n; k++) {
+                    if (seen[k] == target) {
+                        return false;   // a loop of branches
+                    }
+                }
+            }
+            if (target == label || !reaches(ir, i, ir.kind(i), target)) {
+                return false;
+            }
+            ir.set(i, ir.code(i), ir.word(i), target, ir.kind(i));
+            return true;
+        }
+    }
+
+    /** A branch to the instruction that follows it anyway. */
+    static final class BranchToNext implements PeepholeRule {
+        @Override
+        public String name() {
+            return "branch-to-next";
+        }
+
+        @Override
+        public boolean apply(InstructionList ir, int i) {
+            int label = ir.label(i);
+            if (label == 0 || !isBranch(ir.word(i))) {
+                return false;
+            }
+            for (int j = PeepholeOptimizer.next(ir, i); j >= 0 && ir.code(j) == InstructionList.LABEL; j = PeepholeOptimizer.next(ir, j)) {
+                if (ir.label(j) == label) {
+                    ir.remove(i);
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /** Instructions after b, br or ret up to the next label are never executed. */
+    static final class Unreachable implements PeepholeRule {
+        @Override
+        public String name() {
+            return "unreachable";
+        }
+
+        @Override
+        public boolean apply(InstructionList ir, int i) {
+            if (!isJump(ir.word(i))) {
+                return false;
+            }
+            boolean removed = false;
+            for (int j = PeepholeOptimizer.next(ir, i); j >= 0; j = PeepholeOptimizer.next(ir, j)) {
+                int code = ir.code(j);
+                // Labels are entry points; pools and data are placed there on purpose.
+                if (code != InstructionList.CALL && code != InstructionList.LITERAL && !ir.isInstruction(j)) {
+                    break;
+                }
+                ir.remove(j);
+                removed = true;
+            }
+            return removed;
+        }
+    }
+}
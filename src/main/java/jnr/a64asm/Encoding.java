@@ -0,0 +1,363 @@
+/*
+ * Copyright (C) 2018 Ossdev07
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.a64asm;
+
+import static jnr.a64asm.REG.*;
+
+/**
+ * Primitive A64 instruction word builders.
+ *
+ * Registers are passed as @c REG codes (e.g. @c REG_X0, @c REG_W3); the
+ * register type selects the 32 or 64 bit form of the instruction. Nothing in
+ * here allocates, so these are used by the primitive emission API on
+ * {@link Assembler_A64}.
+ */
+final class Encoding {
+    private Encoding() {}
+
+    // add/sub (immediate)
+    static final int ADD_IMM = 0x11000000;
+    static final int ADDS_IMM = 0x31000000;
+    static final int SUB_IMM = 0x51000000;
+    static final int SUBS_IMM = 0x71000000;
+
+    // add/sub (shifted register)
+    static final int ADD_SHIFT = 0x0b000000;
+    static final int ADDS_SHIFT = 0x2b000000;
+    static final int SUB_SHIFT = 0x4b000000;
+    static final int SUBS_SHIFT = 0x6b000000;
+
+    // add/sub (extended register)
+    static final int ADD_EXT = 0x0b200000;
+    static final int ADDS_EXT = 0x2b200000;
+    static final int SUB_EXT = 0x4b200000;
+    static final int SUBS_EXT = 0x6b200000;
+
+    // logical (shifted register)
+    static final int AND_SHIFT = 0x0a000000;
+    static final int ORR_SHIFT = 0x2a000000;
+    static final int EOR_SHIFT = 0x4a000000;
+    static final int ANDS_SHIFT = 0x6a000000;
+
+    // logical (immediate)
+    static final int AND_IMM = 0x12000000;
+    static final int ORR_IMM = 0x32000000;
+    static final int EOR_IMM = 0x52000000;
+    static final int ANDS_IMM = 0x72000000;
+
+    // conditional select
+    static final int CSEL = 0x1a800000;
+    static final int CSINC = 0x1a800400;
+    static final int CSINV = 0x5a800000;
+    static final int CSNEG = 0x5a800400;
+
+    // move wide
+    static final int MOVN = 0x12800000;
+    static final int MOVZ = 0x52800000;
+    static final int MOVK = 0x72800000;
+
+    // bitfield move (sxtb/uxtb/sxth/uxth/lsr aliases)
+    static final int SBFM = 0x13000000;
+    static final int UBFM = 0x53000000;
+
+    // scalar floating point register move (double)
+    static final int FMOV_D = 0x1e604000;
+
+    // branches
+    static final int B = 0x14000000;
+    static final int BL = 0x94000000;
+    static final int B_COND = 0x54000000;
+    static final int CBZ = 0x34000000;
+    static final int CBNZ = 0x35000000;
+    static final int TBZ = 0x36000000;
+    static final int TBNZ = 0x37000000;
+    static final int BR = 0xd61f0000;
+    static final int LDR_LIT = 0x18000000;
+    static final int BLR = 0xd63f0000;
+    static final int RET = 0xd65f0000;
+    static final int NOP = 0xd503201f;
+
+    // load/store access sizes (the "size" field)
+    static final int SIZE_B = 0;
+    static final int SIZE_H = 1;
+    static final int SIZE_W = 2;
+    static final int SIZE_X = 3;
+
+    // load/store kinds (the "opc" field)
+    static final int OPC_STORE = 0;
+    static final int OPC_LOAD = 1;
+    static final int OPC_LOAD_SIGNED_64 = 2;
+    static final int OPC_LOAD_SIGNED_32 = 3;
+
+    // imm9 addressing modes
+    static final int MODE_UNSCALED = 0;
+    static final int MODE_POST = 1;
+    static final int MODE_PRE = 3;
+
+    // load/store pair addressing modes
+    static final int PAIR_NO_ALLOCATE = 0;
+    static final int PAIR_POST = 1;
+    static final int PAIR_OFFSET = 2;
+    static final int PAIR_PRE = 3;
+
+    /** Returns @c true if @a reg is a 64 bit register code. */
+    static boolean is64(int reg) {
+        return (reg & REGTYPE_MASK) == REG_GPR;
+    }
+
+    static int sf(int reg) {
+        return is64(reg) ? 1 << 31 : 0;
+    }
+
+    static int r(int reg) {
+        return reg & REGCODE_MASK;
+    }
+
+    static int addSubImm(int op, int rd, int rn, int imm12, int shift) {
+        if (imm12 < 0 || imm12 > 0xfff) {
+            throw new IllegalArgumentException("imm12 out of range: " + imm12);
+        }
+        if (shift != 0 && shift != 12) {
+            throw new IllegalArgumentException("shift must be 0 or 12: " + shift);
+        }
+        return op | sf(rd) | (shift == 12 ? 1 << 22 : 0) | imm12 << 10 | r(rn) << 5 | r(rd);
+    }
+
+    static int addSubShift(int op, int rd, int rn, int rm, int type, int amount) {
+        return op | sf(rd) | (type & 0b11) << 22 | r(rm) << 16 | (amount & 0b111111) << 10 | r(rn) << 5 | r(rd);
+    }
+
+    /** Add/sub (extended register); @a option is the extend (UXTB = 0 .. SXTX = 7). */
+    static int addSubExt(int op, int rd, int rn, int rm, int option, int amount) {
+        return op | sf(rd) | r(rm) << 16 | (option & 0b111) << 13 | (amount & 0b111) << 10 | r(rn) << 5 | r(rd);
+    }
+
+    static int logShift(int op, int rd, int rn, int rm, int type, int amount) {
+        return op | sf(rd) | (type & 0b11) << 22 | r(rm) << 16 | (amount & 0b111111) << 10 | r(rn) << 5 | r(rd);
+    }
+
+    /** Logical (immediate); @a imm is the N:immr:imms encoding from {@link LogicalImmediate}. */
+    static int logImm(int op, int rd, int rn, int imm) {
+        return op | sf(rd) | (imm & 0x1fff) << 10 | r(rn) << 5 | r(rd);
+    }
+
+    /** Conditional select: @c rd = @a cond ? @c rn : @c op(rm). */
+    static int condSelect(int op, int rd, int rn, int rm, int cond) {
+        return op | sf(rd) | r(rm) << 16 | (cond & 0xf) << 12 | r(rn) << 5 | r(rd);
+    }
+
+    /** Bitfield move SBFM/UBFM; the N bit follows the width of @a rd. */
+    static int bitfield(int op, int rd, int rn, int immr, int imms) {
+        return op | sf(rd) | (is64(rd) ? 1 << 22 : 0) | (immr & 0x3f) << 16 | (imms & 0x3f) << 10 | r(rn) << 5 | r(rd);
+    }
+
+    /** {@code fmov dd, dn}; @a vd and @a vn are SIMD&FP register numbers. */
+    static int fmovD(int vd, int vn) {
+        return FMOV_D | (vn & 0x1f) << 5 | (vd & 0x1f);
+    }
+
+    /**
+     * Load/store of S (@a isDouble @c false) or D register @a vt with a
+     * scaled, unsigned 12 bit offset; @a offset is in bytes.
+     */
+    static int fpLdstPos(boolean isDouble, boolean load, int vt, int rn, long offset) {
+        int size = isDouble ? SIZE_X : SIZE_W;
+        if (!isLdstPos(size, offset)) {
+            throw new IllegalArgumentException("offset out of range: " + offset);
+        }
+        return ldstPos(size, load ? OPC_LOAD : OPC_STORE, vt, rn, offset) | 1 << 26;
+    }
+
+    /** Load/store pair of S or D registers with a signed 7 bit scaled offset. */
+    static int fpLdstPair(boolean isDouble, boolean load, int vt, int vt2, int rn, long offset) {
+        int scale = isDouble ? 3 : 2;
+        if ((offset & ((1 << scale) - 1)) != 0 || (offset >> scale) < -64 || (offset >> scale) > 63) {
+            throw new IllegalArgumentException("pair offset out of range: " + offset);
+        }
+        return (isDouble ? 0x6d000000 : 0x2d000000) | (load ? 1 << 22 : 0) | ((int) (offset >> scale) & 0x7f) << 15
+                | (vt2 & 0x1f) << 10 | r(rn) << 5 | (vt & 0x1f);
+    }
+
+    static int moveWide(int op, int rd, int imm16, int shift) {
+        if ((shift & 0xf) != 0 || shift < 0 || shift > (is64(rd) ? 48 : 16)) {
+            throw new IllegalArgumentException("invalid move wide shift: " + shift);
+        }
+        return op | sf(rd) | (shift >> 4) << 21 | (imm16 & 0xffff) << 5 | r(rd);
+    }
+
+    /** Load/store with a scaled, unsigned 12 bit offset; @a offset is in bytes. */
+    static int ldstPos(int size, int opc, int rt, int rn, long offset) {
+        return 0x39000000 | size << 30 | opc << 22 | (int) (offset >> size) << 10 | r(rn) << 5 | r(rt);
+    }
+
+    /** Load/store with a signed 9 bit byte offset (unscaled, pre- or post-indexed). */
+    static int ldstImm9(int size, int opc, int mode, int rt, int rn, long offset) {
+        return 0x38000000 | size << 30 | opc << 22 | ((int) offset & 0x1ff) << 12 | mode << 10 | r(rn) << 5 | r(rt);
+    }
+
+    /** Returns @c true if @a offset can be encoded by {@link #ldstPos}. */
+    static boolean isLdstPos(int size, long offset) {
+        return offset >= 0 && (offset & ((1 << size) - 1)) == 0 && (offset >> size) <= 0xfff;
+    }
+
+    /**
+     * Load/store with a register offset; @a option is the index extend (UXTW,
+     * LSL/UXTX, SXTW or SXTX) and @a scaled shifts the index by the access size.
+     */
+    static int ldstReg(int size, int opc, int rt, int rn, int rm, int option, boolean scaled) {
+        return 0x38200800 | size << 30 | opc << 22 | r(rm) << 16 | (option & 0b111) << 13 | (scaled ? 1 << 12 : 0)
+                | r(rn) << 5 | r(rt);
+    }
+
+    static boolean isImm9(long offset) {
+        return offset >= -256 && offset <= 255;
+    }
+
+    /** Load/store pair of 32 or 64 bit registers (chosen by @a rt); @a offset is in bytes. */
+    static int ldstPair(int mode, boolean load, int rt, int rt2, int rn, long offset) {
+        int scale = is64(rt) ? 3 : 2;
+        return 0x28000000 | (is64(rt) ? 0b10 << 30 : 0) | mode << 23 | (load ? 1 << 22 : 0)
+                | ((int) (offset >> scale) & 0x7f) << 15 | r(rt2) << 10 | r(rn) << 5 | r(rt);
+    }
+
+    /** Returns @c true if @a offset can be encoded by {@link #ldstPair} for @a rt. */
+    static boolean isPairOffset(int rt, long offset) {
+        int scale = is64(rt) ? 3 : 2;
+        return (offset & ((1 << scale) - 1)) == 0 && (offset >> scale) >= -64 && (offset >> scale) <= 63;
+    }
+
+    static int branchReg(int op, int rn) {
+        return op | r(rn) << 5;
+    }
+
+    /** Unconditional immediate branch; @a disp is the byte displacement from the branch. */
+    static int branchImm(int op, long disp) {
+        return op | ((int) (disp >> 2) & 0x3ffffff);
+    }
+
+    static int condBranch(int cond, long disp) {
+        return B_COND | ((int) (disp >> 2) & 0x7ffff) << 5 | (cond & 0xf);
+    }
+
+    static int compBranch(int op, int rt, long disp) {
+        return op | sf(rt) | ((int) (disp >> 2) & 0x7ffff) << 5 | r(rt);
+    }
+
+    /**
+     * Returns @a word with the pc-relative field selected by @a kind (one of the
+     * {@link LabelTable} @c FIXUP_ constants) set to byte displacement @a disp.
+     */
+    static int fixup(int word, int kind, long disp) {
+        if (kind != LabelTable.FIXUP_ADR && (disp & 3) != 0) {
+            throw new IllegalArgumentException("misaligned branch displacement: " + disp);
+        }
+        switch (kind) {
+            case LabelTable.FIXUP_IMM26:
+                checkDisp(disp, 28);
+                return word & ~0x3ffffff | (int) (disp >> 2) & 0x3ffffff;
+            case LabelTable.FIXUP_IMM19:
+                checkDisp(disp, 21);
+                return word & ~(0x7ffff << 5) | ((int) (disp >> 2) & 0x7ffff) << 5;
+            case LabelTable.FIXUP_IMM14:
+                checkDisp(disp, 16);
+                return word & ~(0x3fff << 5) | ((int) (disp >> 2) & 0x3fff) << 5;
+            case LabelTable.FIXUP_ADR:
+                checkDisp(disp, 21);
+                return word & ~(0b11 << 29 | 0x7ffff << 5) | ((int) disp & 0b11) << 29 | ((int) (disp >> 2) & 0x7ffff) << 5;
+            default:
+                throw new IllegalArgumentException("invalid fixup kind " + kind);
+        }
+    }
+
+    /** Checks that @a disp fits a signed field of @a bits bits. */
+    private static void checkDisp(long disp, int bits) {
+        if (!fitsDisp(disp, bits)) {
+            throw new IllegalArgumentException("displacement out of range: " + disp);
+        }
+    }
+
+    private static boolean fitsDisp(long disp, int bits) {
+        return disp >= -(1L << (bits - 1)) && disp < (1L << (bits - 1));
+    }
+
+    /** Returns @c true if byte displacement @a disp fits the field of fixup @a kind. */
+    static boolean fitsFixup(int kind, long disp) {
+        switch (kind) {
+            case LabelTable.FIXUP_IMM26:
+                return fitsDisp(disp, 28);
+            case LabelTable.FIXUP_IMM14:
+                return fitsDisp(disp, 16);
+            default:
+                return fitsDisp(disp, 21);
+        }
+    }
+
+    /** Returns @c true if @a word is a b.cond, cbz/cbnz or tbz/tbnz. */
+    static boolean isCondBranch(int word) {
+        return (word & 0xff000010) == B_COND || (word & 0x7e000000) == CBZ || (word & 0x7e000000) == TBZ;
+    }
+
+    /**
+     * Returns conditional branch @a word with the opposite condition, or 0 if
+     * it cannot be inverted (b.al/b.nv).
+     */
+    static int invertCondBranch(int word) {
+        if ((word & 0xff000010) == B_COND) {
+            return (word & 0xe) == 0xe ? 0 : word ^ 1;
+        }
+        // cbz <-> cbnz, tbz <-> tbnz
+        return word ^ (1 << 24);
+    }
+
+    /**
+     * Returns @c true if @a word reads the NZCV flags: b.cond, csel/csinc/
+     * csinv/csneg, ccmp/ccmn, adc/sbc, fcsel, fccmp and mrs nzcv.
+     */
+    static boolean readsFlags(int word) {
+        return (word & 0xff000010) == B_COND
+                || (word & 0x1fe00000) == 0x1a800000
+                || (word & 0x1fe00000) == 0x1a400000
+                || (word & 0x1fe00000) == 0x1a000000
+                || (word & 0xff200c00) == 0x1e200c00
+                || (word & 0xff200c00) == 0x1e200400
+                || (word & 0xffffffe0) == 0xd53b4200;
+    }
+
+    /**
+     * Returns @c true if @a word sets the NZCV flags without reading them:
+     * adds/subs (cmp/cmn), ands/bics (tst), fcmp/fcmpe and msr nzcv.
+     */
+    static boolean setsFlags(int word) {
+        return (word & 0x3f000000) == 0x31000000
+                || (word & 0x3f000000) == 0x2b000000
+                || (word & 0x7f800000) == ANDS_IMM
+                || (word & 0x7f000000) == ANDS_SHIFT
+                || (word & 0xff20fc07) == 0x1e202000
+                || (word & 0xffffffe0) == 0xd51b4200;
+    }
+
+    /** ldr (literal) of a 32 or 64 bit register; @a disp is the byte displacement from the load. */
+    static int loadLit(int rt, long disp) {
+        return fixup(LDR_LIT | (is64(rt) ? 1 << 30 : 0) | r(rt), LabelTable.FIXUP_IMM19, disp);
+    }
+
+    static int testBranch(int op, int rt, int bit, long disp) {
+        return op | (bit >> 5) << 31 | (bit & 0b11111) << 19 | ((int) (disp >> 2) & 0x3fff) << 5 | r(rt);
+    }
+}
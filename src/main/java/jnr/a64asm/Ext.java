@@ -39,4 +39,62 @@ public final class Ext extends Operand {
         return type;
     }
 
+    /** Extend option values as encoded in the "option" field. */
+    static final int UXTB = 0, UXTH = 1, UXTW = 2, UXTX = 3, SXTB = 4, SXTH = 5, SXTW = 6, SXTX = 7;
+
+    private static final Ext[] cache = new Ext[8 * 5];
+
+    static {
+        for (int type = 0; type < 8; type++) {
+            for (int value = 0; value < 5; value++) {
+                cache[type * 5 + value] = new Ext(type, value);
+            }
+        }
+    }
+
+    /** Returns the shared extend of option @a type with left shift @a value (0 to 4). */
+    public static final Ext of(int type, int value) {
+        if (type >= 0 && type < 8 && value >= 0 && value < 5) {
+            return cache[type * 5 + value];
+        }
+        return new Ext(type, value);
+    }
+
+    public static final Ext uxtb(int value) {
+        return of(UXTB, value);
+    }
+
+    public static final Ext uxth(int value) {
+        return of(UXTH, value);
+    }
+
+    public static final Ext uxtw(int value) {
+        return of(UXTW, value);
+    }
+
+    public static final Ext uxtx(int value) {
+        return of(UXTX, value);
+    }
+
+    /** LSL as an extend; an alias of UXTX (UXTW for 32 bit operands). */
+    public static final Ext lsl(int value) {
+        return of(UXTX, value);
+    }
+
+    public static final Ext sxtb(int value) {
+        return of(SXTB, value);
+    }
+
+    public static final Ext sxth(int value) {
+        return of(SXTH, value);
+    }
+
+    public static final Ext sxtw(int value) {
+        return of(SXTW, value);
+    }
+
+    public static final Ext sxtx(int value) {
+        return of(SXTX, value);
+    }
+
 }
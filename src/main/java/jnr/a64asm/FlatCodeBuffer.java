@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2018 Ossdev07
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.a64asm;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Code buffer backed by one contiguous {@link ByteBuffer} that is replaced by a
+ * larger copy when it runs out of room.
+ *
+ * A buffer wrapping caller-supplied memory has no growth policy and never
+ * grows; emitting past its end throws {@link IllegalStateException}.
+ */
+final class FlatCodeBuffer extends CodeBuffer {
+    private final GrowthPolicy growth;
+    private final CodeStorage storage;
+    private ByteBuffer buf;
+
+    FlatCodeBuffer(int capacity, GrowthPolicy growth, CodeStorage storage) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("negative capacity " + capacity);
+        }
+        this.growth = growth;
+        this.storage = storage;
+        this.buf = storage.allocate(capacity);
+    }
+
+    /** Emits into the remaining space of @a target, starting at its position. */
+    FlatCodeBuffer(ByteBuffer target) {
+        this.growth = null;
+        this.storage = null;
+        this.buf = target.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public final void ensureSpace() {
+        ensureSpace(16);
+    }
+
+    /** Makes sure at least @a n more bytes can be emitted without growing. */
+    public final void ensureSpace(int n) {
+        if (buf.remaining() < n) {
+            grow(n);
+        }
+    }
+
+    public void grow() {
+        grow(1);
+    }
+
+    private void grow(int required) {
+        if (growth == null) {
+            throw new IllegalStateException("code buffer full: " + buf.capacity() + " bytes");
+        }
+        int newSize = growth.newCapacity(buf.capacity(), buf.position() + required);
+        ByteBuffer newBuffer = storage.allocate(newSize);
+
+        // Copy the data over
+        buf.flip();
+        newBuffer.put(buf);
+        buf = newBuffer;
+    }
+
+    @Override
+    void copyTo(ByteBuffer dst) {
+        ByteBuffer dup = buf.duplicate();
+        dup.flip();
+        dst.put(dup);
+    }
+
+    @Override
+    ByteBuffer view() {
+        ByteBuffer dup = buf.duplicate();
+        dup.flip();
+        return dup.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Override
+    public int offset() {
+        return buf.position();
+    }
+
+    @Override
+    public int capacity() {
+        return buf.capacity();
+    }
+
+    @Override
+    public void emitByte(byte x) {
+        ensureSpace(1);
+        buf.put(x);
+    }
+
+    @Override
+    public void emitWord(short x) {
+        ensureSpace(2);
+        buf.putShort(x);
+    }
+
+    @Override
+    public void emitDWord(int x) {
+        ensureSpace(4);
+        buf.putInt(x);
+    }
+
+    @Override
+    public void emitQWord(long x) {
+        ensureSpace(8);
+        buf.putLong(x);
+    }
+
+    @Override
+    public void emitData(ByteBuffer data, int len) {
+        ByteBuffer dup = data.duplicate();
+        if (dup.remaining() > len) {
+            dup.limit(dup.position() + len);
+        }
+        ensureSpace(dup.remaining());
+        buf.put(dup);
+    }
+
+    @Override
+    public byte getByteAt(int pos) {
+        return buf.get(pos);
+    }
+
+    @Override
+    public short getWordAt(int pos) {
+        return buf.getShort(pos);
+    }
+
+    @Override
+    public int getDWordAt(int pos) {
+        return buf.getInt(pos);
+    }
+
+    @Override
+    public long getQWordAt(int pos) {
+        return buf.getLong(pos);
+    }
+
+    @Override
+    public void setByteAt(int pos, byte x) {
+        buf.put(pos, x);
+    }
+
+    @Override
+    public void setWordAt(int pos, short x) {
+        buf.putShort(pos, x);
+    }
+
+    @Override
+    public void setDWordAt(int pos, int x) {
+        buf.putInt(pos, x);
+    }
+
+    @Override
+    public void setQWordAt(int pos, long x) {
+        buf.putLong(pos, x);
+    }
+
+}
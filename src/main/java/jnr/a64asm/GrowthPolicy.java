@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2018 Ossdev07
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.a64asm;
+
+/**
+ * How the assembler code buffer grows once the emitted code outgrows it.
+ */
+public abstract class GrowthPolicy {
+
+    GrowthPolicy() {}
+
+    /**
+     * Returns the capacity to grow to from @a capacity so that at least
+     * @a required bytes fit.
+     */
+    abstract int newCapacity(int capacity, int required);
+
+    /** Creates a code buffer of @a capacity bytes in @a storage that grows by this policy. */
+    CodeBuffer newBuffer(int capacity, CodeStorage storage) {
+        if (storage == CodeStorage.WORDS) {
+            return new WordCodeBuffer(capacity, this);
+        }
+        return new FlatCodeBuffer(capacity, this, storage);
+    }
+
+    /** Doubles the capacity until the required size fits (amortized O(1) per byte). */
+    public static final GrowthPolicy DOUBLING = new GrowthPolicy() {
+        @Override
+        int newCapacity(int capacity, int required) {
+            long size = Math.max(capacity, CodeBuffer.DEFAULT_CAPACITY);
+            while (size < required) {
+                size <<= 1;
+            }
+            return checkedSize(size);
+        }
+    };
+
+    /** Grows the capacity by whole chunks of @a chunkSize bytes. */
+    public static GrowthPolicy fixedChunk(final int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunk size must be positive: " + chunkSize);
+        }
+
+        return new GrowthPolicy() {
+            @Override
+            int newCapacity(int capacity, int required) {
+                long chunks = ((long) required - capacity + chunkSize - 1) / chunkSize;
+                return checkedSize(capacity + Math.max(chunks, 1) * chunkSize);
+            }
+        };
+    }
+
+    /**
+     * Grows by appending fixed-size segments of @a segmentSize bytes (a power
+     * of two, at least 16), so emitted code is never copied on growth.
+     */
+    public static GrowthPolicy segmented(final int segmentSize) {
+        if (segmentSize < 16 || Integer.bitCount(segmentSize) != 1) {
+            throw new IllegalArgumentException("segment size must be a power of two of at least 16: " + segmentSize);
+        }
+
+        return new GrowthPolicy() {
+            @Override
+            int newCapacity(int capacity, int required) {
+                long segments = ((long) required + segmentSize - 1) / segmentSize;
+                return checkedSize(segments * segmentSize);
+            }
+
+            @Override
+            CodeBuffer newBuffer(int capacity, CodeStorage storage) {
+                if (storage == CodeStorage.WORDS) {
+                    throw new IllegalArgumentException("word storage cannot be segmented");
+                }
+                return new SegmentedCodeBuffer(segmentSize, capacity, storage);
+            }
+        };
+    }
+
+    static int checkedSize(long size) {
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("code buffer too large: " + size);
+        }
+        return (int) size;
+    }
+}
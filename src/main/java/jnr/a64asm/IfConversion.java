@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2018 Ossdev07
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.a64asm;
+
+import static jnr.a64asm.INST_CODE.*;
+import static jnr.a64asm.REG.*;
+
+/**
+ * Pass replacing short branchy selections with csel, csinc, csinv or csneg.
+ *
+ * It rewrites the diamond
+ * <pre>
+ *     b.cond else
+ *     (then arm)
+ *     b join
+ * else:
+ *     (else arm)
+ * join:
+ * </pre>
+ * and the triangle {@code b.cond skip; (arm); skip:}, when each arm is a
+ * single instruction writing the same register from a register or zero: mov,
+ * movz #0/#1, movn #0, add #1, neg or mvn. Both labels must be referenced only
+ * by the branches of the pattern. The labels themselves are kept.
+ *
+ * A triangle arm must write an X register: the csel writes its destination on
+ * both paths, and in the W form that would clear the upper half on the path
+ * that skipped the arm.
+ */
+public final class IfConversion implements InstructionPass {
+    //! @brief Arm value kinds, matching the csel family operation applied to Rm.
+    private static final int PLAIN = 0, INC = 1, INV = 2, NEG = 3;
+    private static final int[] OPS = { Encoding.CSEL, Encoding.CSINC, Encoding.CSINV, Encoding.CSNEG };
+    private static final INST_CODE[] CODES = { INST_CSEL_CONDSEL, INST_CSINC_CONDSEL, INST_CSINV_CONDSEL, INST_CSNEG_CONDSEL };
+
+    private int converted = 0;
+
+    //! @brief Get number of diamonds and triangles converted so far.
+    public int converted() {
+        return converted;
+    }
+
+    @Override
+    public void run(InstructionList ir) {
+        for (int i = 0; i < ir.size(); i++) {
+            if (!ir.isInstruction(i)) {
+                continue;
+            }
+            int w = ir.word(i);
+            if ((w & 0xff000010) != Encoding.B_COND || (w & 0xe) == 0xe || ir.label(i) == 0) {
+                continue;
+            }
+            if (diamond(ir, i) || triangle(ir, i)) {
+                converted++;
+            }
+        }
+        ir.compact();
+    }
+
+    private static boolean diamond(InstructionList ir, int i) {
+        int t = PeepholeOptimizer.nextInstruction(ir, i);
+        int jump = t >= 0 ? PeepholeOptimizer.nextInstruction(ir, t) : -1;
+        if (jump < 0 || (ir.word(jump) & 0xfc000000) != Encoding.B || ir.label(jump) == 0) {
+            return false;
+        }
+        int elseLabel = PeepholeOptimizer.next(ir, jump);
+        if (!isLabel(ir, elseLabel, ir.label(i))) {
+            return false;
+        }
+        int e = PeepholeOptimizer.nextInstruction(ir, elseLabel);
+        int joinLabel = e >= 0 ? PeepholeOptimizer.next(ir, e) : -1;
+        if (!isLabel(ir, joinLabel, ir.label(jump))
+                || references(ir, ir.label(i)) != 1 || references(ir, ir.label(jump)) != 1) {
+            return false;
+        }
+        int thenWord = ir.word(t);
+        int elseWord = ir.word(e);
+        int thenArm = arm(thenWord);
+        int elseArm = arm(elseWord);
+        if (thenArm < 0 || elseArm < 0 || (thenWord & 0x8000001f) != (elseWord & 0x8000001f)) {
+            return false;
+        }
+
+        // rd = cond ? else : then; csel picks Rn when its condition holds.
+        int cond = ir.word(i) & 0xf;
+        int rd = thenWord & 0x8000001f;
+        if (elseArm >>> 5 == PLAIN) {
+            select(ir, i, cond, rd, elseArm, thenArm);
+        } else if (thenArm >>> 5 == PLAIN) {
+            select(ir, i, cond ^ 1, rd, thenArm, elseArm);
+        } else {
+            return false;
+        }
+        ir.remove(t);
+        ir.remove(jump);
+        ir.remove(e);
+        return true;
+    }
+
+    private static boolean triangle(InstructionList ir, int i) {
+        int t = PeepholeOptimizer.nextInstruction(ir, i);
+        int skipLabel = t >= 0 ? PeepholeOptimizer.next(ir, t) : -1;
+        if (!isLabel(ir, skipLabel, ir.label(i)) || references(ir, ir.label(i)) != 1) {
+            return false;
+        }
+        int w = ir.word(t);
+        int arm = arm(w);
+        if (arm < 0 || w >= 0) {
+            return false;
+        }
+        // rd = cond ? rd : arm
+        select(ir, i, ir.word(i) & 0xf, w & 0x8000001f, PLAIN << 5 | (w & 0x1f), arm);
+        ir.remove(t);
+        return true;
+    }
+
+    /** Replaces entry @a i with {@code rd = cond ? n : op(m)}; @a rd carries the sf bit. */
+    private static void select(InstructionList ir, int i, int cond, int rd, int n, int m) {
+        int kind = m >>> 5;
+        int reg = (rd < 0 ? REG_GPR : REG_GPT) | (rd & 0x1f);
+        ir.set(i, CODES[kind].ordinal(), Encoding.condSelect(OPS[kind], reg, n & 0x1f, m & 0x1f, cond), 0,
+                InstructionList.NO_FIXUP);
+    }
+
+    /**
+     * Decodes a one-instruction arm into kind << 5 | source register (31 for
+     * zero), or returns -1 if @a w is not one; @a w must not write SP.
+     */
+    private static int arm(int w) {
+        if ((w & 0x1f) == 31) {
+            return -1;
+        }
+        int rn = w >>> 5 & 0x1f;
+        int rm = w >>> 16 & 0x1f;
+        if ((w & 0x7fe0ffe0) == 0x2a0003e0) {           // mov rd, rm
+            return PLAIN << 5 | rm;
+        } else if ((w & 0x7f9fffe0) == Encoding.MOVZ) { // mov rd, #0
+            return PLAIN << 5 | 31;
+        } else if ((w & 0x7fffffe0) == (Encoding.MOVZ | 1 << 5)) {  // mov rd, #1
+            return INC << 5 | 31;
+        } else if ((w & 0x7f9fffe0) == Encoding.MOVN) { // mov rd, #-1
+            return INV << 5 | 31;
+        } else if ((w & 0x7ffffc00) == (Encoding.ADD_IMM | 1 << 10) && rn != 31) {  // add rd, rn, #1
+            return INC << 5 | rn;
+        } else if ((w & 0x7fe0ffe0) == 0x2a2003e0) {    // mvn rd, rm
+            return INV << 5 | rm;
+        } else if ((w & 0x7fe0ffe0) == 0x4b0003e0) {    // neg rd, rm
+            return NEG << 5 | rm;
+        }
+        return -1;
+    }
+
+    private static boolean isLabel(InstructionList ir, int i, int label) {
+        return i >= 0 && ir.code(i) == InstructionList.LABEL && ir.label(i) == label;
+    }
+
+    /** Returns the number of instructions referring to @a label. */
+    private static int references(InstructionList ir, int label) {
+        int n = 0;
+        for (int i = 0; i < ir.size(); i++) {
+            if (ir.code(i) != InstructionList.LABEL && ir.label(i) == label) {
+                n++;
+            }
+        }
+        return n;
+    }
+}
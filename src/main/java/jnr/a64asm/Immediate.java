@@ -62,11 +62,25 @@ public final class Immediate extends Operand {
         return relocMode;
     }
 
+    /**
+     * Shared signed (row 0) and unsigned (row 1) immediates, for the values
+     * given by the system properties {@code jnr.a64asm.imm.cache.low} (-512)
+     * to {@code jnr.a64asm.imm.cache.high} (4095).
+     */
+    private static final OperandCache<Immediate> cache = new OperandCache<Immediate>(2,
+            Integer.getInteger("jnr.a64asm.imm.cache.low", -512),
+            Integer.getInteger("jnr.a64asm.imm.cache.high", 4095)) {
+        @Override
+        Immediate create(int row, long value) {
+            return new Immediate(value, row == 1);
+        }
+    };
+
     public static final Immediate imm(long value) {
-        return new Immediate(value, false);
+        return cache.get(0, value);
     }
 
     public static final Immediate uimm(long value) {
-        return new Immediate(value, true);
+        return cache.get(1, value);
     }
 }
@@ -20,8 +20,6 @@
 
 package jnr.a64asm;
 
-import java.util.EnumMap;
-import java.util.Map;
 import static jnr.a64asm.INST_CODE.*;
 import static jnr.a64asm.InstructionGroup.*;
 
@@ -31,12 +29,12 @@ public final class InstructionDescription {
     final int mask;
     final InstructionGroup group;
 
-    private static final Map<INST_CODE, InstructionDescription> table
-            = new EnumMap<INST_CODE, InstructionDescription>(INST_CODE.class);
+    /** Descriptions indexed by {@code INST_CODE.ordinal()}, filled for every code at class init. */
+    private static final InstructionDescription[] table = new InstructionDescription[INST_CODE.values().length];
 
     private static final InstructionDescription MAKE_INST(INST_CODE code, int opcode, int mask, InstructionGroup group){
         InstructionDescription id = new InstructionDescription(code, opcode, mask, group);
-        table.put(code, id);
+        table[code.ordinal()] = id;
         return id;
     }
 
@@ -49,14 +47,22 @@ public final class InstructionDescription {
 
     public static final InstructionDescription find(INST_CODE code) {
 
-        InstructionDescription id = table.get(code);
-        if (id == null) {
+        InstructionDescription id = table[code.ordinal()];
+        if (id.group == null) {
             throw new IllegalArgumentException("no description for " + code);
         }
 
         return id;
     }
 
+    /**
+     * Returns the description of @a code without validation. Codes that have
+     * no description yield a placeholder whose {@link #group} is {@code null}.
+     */
+    static InstructionDescription get(INST_CODE code) {
+        return table[code.ordinal()];
+    }
+
     private static final InstructionDescription[] all = {
         // Instruction code (enum)      | instruction name   | group           | operator 1 flags| operator 2 flags| r| opCode1   | opcode2
         MAKE_INST(INST_ADC_ADDSUB_CARRY, 0x1a000000, 0x7fe0fc00, addsub_carry),
@@ -77,8 +83,8 @@ public final class InstructionDescription {
         MAKE_INST(INST_ASR_DP_2SRC, 0x1ac02800, 0x7fe0fc00, dp_2src),
         MAKE_INST(INST_ASRV_DP_2SRC, 0x1ac02800, 0x7fe0fc00, dp_2src),
         MAKE_INST(INST_AT_IC_SYSTEM, 0xd5080000, 0xfff80000, ic_system),
-        MAKE_INST(INST_B_C_CONDBRANCH, 0x14000000, 0xfc000000, condbranch),
-        MAKE_INST(INST_B_BRANCH_IMM, 0x54000000, 0xff000010, branch_imm),
+        MAKE_INST(INST_B_C_CONDBRANCH, 0x54000000, 0xff000010, condbranch),
+        MAKE_INST(INST_B_BRANCH_IMM, 0x14000000, 0xfc000000, branch_imm),
         MAKE_INST(INST_BCC_CONDBRANCH, 0x54000003, 0xff00001f, condbranch),
         MAKE_INST(INST_BCS_CONDBRANCH, 0x54000002, 0xff00001f, condbranch),
         MAKE_INST(INST_BEQ_CONDBRANCH, 0x54000000, 0xff00001f, condbranch),
@@ -329,4 +335,12 @@ public final class InstructionDescription {
         MAKE_INST(INST_WFI_IC_SYSTEM, 0xd503207f, 0xffffffff, ic_system),
         MAKE_INST(INST_YIELD_IC_SYSTEM, 0xd503203f, 0xffffffff, ic_system)
     };
+
+    static {
+        for (INST_CODE code : INST_CODE.values()) {
+            if (table[code.ordinal()] == null) {
+                table[code.ordinal()] = new InstructionDescription(code, 0, 0, null);
+            }
+        }
+    }
 }
@@ -0,0 +1,1034 @@
+/*
+ * Copyright (C) 2018 Ossdev07
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.a64asm;
+
+import static jnr.a64asm.INST_CODE.*;
+import static jnr.a64asm.InstructionGroup.*;
+import static jnr.a64asm.SIZE.*;
+
+/**
+ * Per-group instruction encoder.
+ *
+ * Each {@link InstructionGroup} has its own small encoder so that HotSpot can
+ * compile and inline the encoding of one group independently of all the others.
+ * {@link Assembler_A64} dispatches through {@link #BY_CODE}, which is indexed by
+ * {@link INST_CODE#ordinal()}.
+ */
+abstract class InstructionEncoder {
+
+    private static final Operand _none = SerializerCore._none;
+
+    /** Placeholder for instruction codes without an {@link InstructionDescription}. */
+    private static final InstructionEncoder UNDESCRIBED = new InstructionEncoder() {
+        @Override
+        void encode(Assembler_A64 a, InstructionDescription id, Operand o1, Operand o2, Operand o3, Operand o4, Operand o5) {
+            throw new IllegalArgumentException("no description for " + id.code);
+        }
+    };
+
+    /** Encoders indexed by {@code INST_CODE.ordinal()}. */
+    static final InstructionEncoder[] BY_CODE;
+
+    static {
+        InstructionEncoder[] byGroup = new InstructionEncoder[InstructionGroup.values().length];
+        for (InstructionGroup group : InstructionGroup.values()) {
+            byGroup[group.ordinal()] = forGroup(group);
+        }
+
+        INST_CODE[] codes = INST_CODE.values();
+        BY_CODE = new InstructionEncoder[codes.length];
+        for (INST_CODE code : codes) {
+            InstructionDescription id = InstructionDescription.get(code);
+            BY_CODE[code.ordinal()] = id.group != null ? byGroup[id.group.ordinal()] : UNDESCRIBED;
+        }
+    }
+
+    //! @brief Encodes and emits instruction @a id into assembler @a a.
+    abstract void encode(Assembler_A64 a, InstructionDescription id, Operand o1, Operand o2, Operand o3, Operand o4, Operand o5);
+
+    static InstructionEncoder forGroup(InstructionGroup group) {
+        switch (group) {
+            case addsub_carry:
+            case addsub_ext:
+                return new AddSubCarryExt();
+            case addsub_imm:
+            case addsub_shift:
+                return new AddSubImmShift();
+            case bitfield:
+                return new Bitfield();
+            case branch_imm:
+                return new BranchImm();
+            case branch_reg:
+                return new BranchReg();
+            case compbranch:
+                return new CompBranch();
+            case condbranch:
+                return new CondBranch();
+            case condcmp_imm:
+            case condcmp_reg:
+                return new CondCmp();
+            case condsel:
+                return new CondSel();
+            case dp_1src:
+            case dp_2src:
+            case dp_3src:
+                return new DataProc();
+            case exception:
+                return new ExceptionGen();
+            case extract:
+                return new Extract();
+            case ldst_imm9:
+            case ldst_pos:
+                return new LdStImm9Pos();
+            case ldst_imm9_2reg:
+            case ldst_pos_2reg:
+                return new LdStImm9Pos2Reg();
+            case ldst_regoff:
+                return new LdStRegOff();
+            case ldst_unpriv:
+            case ldst_unscaled:
+                return new LdStUnscaled();
+            case ldstexcl:
+            case ldstexcl_op3:
+                return new LdStExcl();
+            case ldstexcl_op4:
+                return new LdStExclOp4();
+            case ldstnapair_offs:
+            case ldstpair_off:
+            case ldstpair_indexed:
+                return new LdStPair();
+            case loadlit:
+                return new LoadLit();
+            case log_imm:
+                return new LogImm();
+            case log_shift:
+                return new LogShift();
+            case movewide:
+                return new MoveWide();
+            case pcreladdr:
+                return new PcRelAddr();
+            case ic_system:
+                return new IcSystem();
+            case testbranch:
+                return new TestBranch();
+        }
+        throw new IllegalArgumentException("no encoder for " + group);
+    }
+
+    /** Encoder for the {@code addsub_carry} and {@code addsub_ext} groups. */
+    static final class AddSubCarryExt extends InstructionEncoder {
+        @Override
+        void encode(Assembler_A64 a, InstructionDescription id, Operand o1, Operand o2, Operand o3, Operand o4, Operand o5) {
+            int inst_to_emit = 0;
+            if ((o1.isReg() && o2.isReg() && o3.isReg()) || (o4 != null && o4.isExtend())){
+                Register regD = (Register) o1;
+                Register regN = (Register) o2;
+                Register regM = (Register) o3;
+                Ext extV = null;
+                if(o4 != _none && o4.isExtend())
+                    extV = (Ext) o4;
+                if(o1.size() == SIZE_DWORD){
+                        inst_to_emit |= 1 << 31;
+                }
+                inst_to_emit |= regD.code & 0b11111;
+                inst_to_emit |= (regN.code &  0b11111) << 5;
+                inst_to_emit |= (regM.code &  0b11111) << 16;
+                if((id.group == addsub_ext) && (extV != null)){
+                    inst_to_emit |= (extV.value() & 0b111) << 10;
+                    inst_to_emit |= (extV.type() & 0b111) << 13;
+                }
+                inst_to_emit |= id.opcode;
+                a._emitInt32(inst_to_emit);
+            }
+            else
+                throw new IllegalArgumentException("illegal arguments");
+        }
+    }
+
+    /** Encoder for the {@code addsub_imm} and {@code addsub_shift} groups. */
+    static final class AddSubImmShift extends InstructionEncoder {
+        @Override
+        void encode(Assembler_A64 a, InstructionDescription id, Operand o1, Operand o2, Operand o3, Operand o4, Operand o5) {
+            int inst_to_emit = 0;
+            if (id.group == addsub_imm && id.code != INST_MOV_ADDSUB_IMM){
+                encodeImm(a, id, o1, o2, o3, o4);
+                return;
+            }
+            if ((o1 != _none && o1.isReg()) && (o2 != _none && o2.isReg())){
+                Register regD = (Register) o1;
+                Register regN = (Register) o2;
+                Immediate val = null ;
+                if(o3 != _none  && o3.isImm())
+                    val = (Immediate) o3;
+                Shift sft = null;
+                if(o4 != _none)
+                    sft = (Shift) o4;
+                Register regM = null;
+                if(o3 != _none && o3.isReg())
+                    regM = (Register) o3;
+                if(o1.size() == SIZE_DWORD)
+                    inst_to_emit |= 1 << 31;
+                if(id.code == INST_CMP_ADDSUB_SHIFT || id.code == INST_CMN_ADDSUB_SHIFT)
+                    inst_to_emit |= (regD.code & 0b11111) << 5;     /* cmp/cmn Rn, Rm: Rd is zr */
+                else
+                    inst_to_emit |= regD.code & 0b11111;
+                /* With three registers the second one is Rn; with two (cmp, cmn, neg) and for mov it is Rm. */
+                inst_to_emit |= (regN.code &  0b11111) << (regM != null && id.group == addsub_shift ? 5 : 16);
+                if(id.group == addsub_shift){
+                    if(regM != null)
+                        inst_to_emit |= (regM.code &  0b11111) << 16;
+                    if (sft != null)
+                        inst_to_emit |= (sft.value() &  0b111111) << 10;
+                }
+                else {
+                    if (val != null)
+                        inst_to_emit |= (val.value() &  0xfff) << 10;
+                }
+                if(sft != null)
+                    inst_to_emit |= (sft.type() & 0b11) << 22;
+                inst_to_emit |= id.opcode;
+                a._emitInt32(inst_to_emit);
+            }
+            else
+                throw new IllegalArgumentException("illegal arguments");
+        }
+
+        /**
+         * add/adds/sub/subs (Rd, Rn, imm {, lsl #0|#12}) and cmp/cmn (Rn, imm {, lsl #0|#12})
+         * with any immediate; the assembler picks the instruction sequence.
+         */
+        private static void encodeImm(Assembler_A64 a, InstructionDescription id, Operand o1, Operand o2, Operand o3, Operand o4) {
+            boolean compare = id.code == INST_CMP_ADDSUB_IMM || id.code == INST_CMN_ADDSUB_IMM;
+            Operand rn = compare ? o1 : o2;
+            Operand val = compare ? o2 : o3;
+            Operand sft = compare ? o3 : o4;
+            if (!o1.isReg() || !rn.isReg() || !val.isImm())
+                throw new IllegalArgumentException("illegal arguments");
+
+            long value = ((Immediate) val).value();
+            if (sft != _none){
+                Shift shift = (Shift) sft;
+                if (shift.type() != 0 || (shift.value() != 0 && shift.value() != 12))
+                    throw new IllegalArgumentException("immediate shift must be lsl #0 or lsl #12");
+                value <<= shift.value();
+            }
+            int regN = ((Register) rn).code;
+            int regD = compare ? regN | REG.REGCODE_MASK : ((Register) o1).code;
+            boolean sub = id.code == INST_SUB_ADDSUB_IMM || id.code == INST_SUBS_ADDSUB_IMM || id.code == INST_CMP_ADDSUB_IMM;
+            boolean setFlags = id.code != INST_ADD_ADDSUB_IMM && id.code != INST_SUB_ADDSUB_IMM;
+            a._emitAddSubImm(sub, setFlags, regD, regN, value);
+        }
+    }
+
+    /** Encoder for the {@code bitfield} group. */
+    static final class Bitfield extends InstructionEncoder {
+        @Override
+        void encode(Assembler_A64 a, InstructionDescription id, Operand o1, Operand o2, Operand o3, Operand o4, Operand o5) {
+            int inst_to_emit = 0;
+            if (o1.isReg() && o2.isReg()){
+                Register regD = (Register) o1;
+                Register regN = (Register) o2;
+                Immediate val1 = null ;
+                if(o3.isImm())
+                    val1 = (Immediate) o3;
+                Immediate val2 = null;
+                if(o4.isImm())
+                    val2 = (Immediate) o4;
+                if(o1.size() == SIZE_DWORD){
+                    inst_to_emit |= 1 << 31;
+                    inst_to_emit |= 1 << 22;
+                }
+                inst_to_emit |= regD.code & 0b11111;
+                inst_to_emit |= (regN.code &  0b11111) << 5;
+                if (val1 != null)
+                    inst_to_emit |= (val1.value() &  0b111111) << 10;
+                if (val2 != null)
+                    inst_to_emit |= (val2.value() &  0b111111) << 16;
+                inst_to_emit |= id.opcode;
+                a._emitInt32(inst_to_emit);
+            }
+            else
+                throw new IllegalArgumentException("illegal arguments");
+        }
+    }
+
+    /** Encoder for the {@code branch_imm} group. */
+    static final class BranchImm extends InstructionEncoder {
+        @Override
+        void encode(Assembler_A64 a, InstructionDescription id, Operand o1, Operand o2, Operand o3, Operand o4, Operand o5) {
+            if (o1.isLabel()){
+                /* Label targets are pc-relative within this code, so b and bl encode directly. */
+                int disp = a._labelDisp((Label) o1, LabelTable.FIXUP_IMM26);
+                a._emitInt32(Encoding.fixup(id.opcode, LabelTable.FIXUP_IMM26, disp));
+            }
+            else if (o1 != _none){
+                Immediate mem = (Immediate) o1;
+                /*<label> Is the program label to be unconditionally branched to. Its offset from the address of this instruction,
+                in the range +/-128MB, is encoded as "imm26" times 4.*/
+                a._emitJmpOrCallReloc(id.opcode, mem.value());
+            }
+            else
+                throw new IllegalArgumentException("illegal arguments");
+        }
+    }
+
+    /** Encoder for the {@code branch_reg} group. */
+    static final class BranchReg extends InstructionEncoder {
+        @Override
+        void encode(Assembler_A64 a, InstructionDescription id, Operand o1, Operand o2, Operand o3, Operand o4, Operand o5) {
+            int inst_to_emit = 0;
+            Register regN = null;
+            if(o1 != _none && o1 != null && o1.isReg()) /*because at jnr-ffi level this is called like this a.ret((Register)null);*/
+            regN = (Register) o1;
+            if (regN != null)
+                inst_to_emit |= (regN.code &  0b11111) << 5;
+            if(regN == null && id.code == INST_RET_BRANCH_REG)
+                inst_to_emit |= 0b11110 << 5;   /*in the case of RET default location is X30*/
+            inst_to_emit |= id.opcode;
+            a._emitInt32(inst_to_emit);
+        }
+    }
+
+    /** Encoder for the {@code compbranch} group. */
+    static final class CompBranch extends InstructionEncoder {
+        @Override
+        void encode(Assembler_A64 a, InstructionDescription id, Operand o1, Operand o2, Operand o3, Operand o4, Operand o5) {
+            int inst_to_emit = 0;
+            if (o1.isReg() && o2.isLabel()){
+                Register regD = (Register) o1;
+                Label labl = (Label) o2;
+                if(o1.size() == SIZE_DWORD)
+                    inst_to_emit |= 1 << 31;
+                inst_to_emit |= regD.code & 0b11111;
+                inst_to_emit |= id.opcode;
+                int disp = a._labelDisp(labl, LabelTable.FIXUP_IMM19);
+                a._emitInt32(Encoding.fixup(inst_to_emit, LabelTable.FIXUP_IMM19, disp));
+            }
+            else
+                throw new IllegalArgumentException("illegal arguments");
+        }
+    }
+
+    /** Encoder for the {@code condbranch} group. */
+    static final class CondBranch extends InstructionEncoder {
+        @Override
+        void encode(Assembler_A64 a, InstructionDescription id, Operand o1, Operand o2, Operand o3, Operand o4, Operand o5) {
+            int inst_to_emit = 0;
+            if (o1.isLabel()){
+                int disp = a._labelDisp((Label) o1, LabelTable.FIXUP_IMM19);
+                a._emitInt32(Encoding.fixup(id.opcode, LabelTable.FIXUP_IMM19, disp));
+            }
+            else if (o1.isImm()){
+                Immediate imm19 = (Immediate) o1;
+                if (imm19 != null)
+                    inst_to_emit |= (imm19.value() & 0x7ffff) << 5;
+                inst_to_emit |= id.opcode;
+                a._emitInt32(inst_to_emit);
+            }
+            else
+                throw new IllegalArgumentException("illegal arguments");
+        }
+    }
+
+    /** Encoder for the {@code condcmp_imm} and {@code condcmp_reg} groups. */
+    static final class CondCmp extends InstructionEncoder {
+        @Override
+        void encode(Assembler_A64 a, InstructionDescription id, Operand o1, Operand o2, Operand o3, Operand o4, Operand o5) {
+            int inst_to_emit = 0;
+            if (o1.isReg() && o2.isImm()){
+                Register regD = (Register) o1;
+                Register regM = (Register) o2;
+                Immediate val = (Immediate) o2;
+                Immediate nzcv = (Immediate) o3;
+                Conditions cond = (Conditions) o4;
+                if (regD != null)
+                    inst_to_emit |= regD.code & 0b11111;
+                if (id.group == condcmp_reg && regM != null)
+                    inst_to_emit |= (regM.code &  0b11111) << 16;
+                else{
+                    if (val != null)
+                        inst_to_emit |= (val.value() & 0b11111) << 16;
+                }
+                if (nzcv != null)
+                    inst_to_emit |= nzcv.value() & 0b1111;
+                if (cond != null)
+                    inst_to_emit |= (cond.value() & 0b1111) << 12;
+                inst_to_emit |= id.opcode;
+                a._emitInt32(inst_to_emit);
+            }
+            else
+                throw new IllegalArgumentException("illegal arguments");
+        }
+    }
+
+    /** Encoder for the {@code condsel} group. */
+    static final class CondSel extends InstructionEncoder {
+        @Override
+        void encode(Assembler_A64 a, InstructionDescription id, Operand o1, Operand o2, Operand o3, Operand o4, Operand o5) {
+            int inst_to_emit = 0;
+            if (o1.isReg()){
+                Register regD = (Register) o1;
+                Register regN = (Register) o2;
+                Register regM = (Register) o3;
+                Conditions cond0 = (Conditions) o4;
+                Conditions cond1 = (Conditions) o3;
+                Conditions cond2 = (Conditions) o2;
+                if (regD != null)
+                    inst_to_emit |= regD.code & 0b11111;
+                    if(o4.isCond() && ((cond0.value() & 0b1110) != 0b1110)){
+                        inst_to_emit |= (cond0.value() ^ 0b1) << 12;
+                        inst_to_emit |= (regN.code &  0b11111) << 5;
+                        inst_to_emit |= (regM.code &  0b11111) << 16;
+                    }
+                    else if(o3.isCond() && ((cond1.value() & 0b1110) != 0b1110)){
+                        inst_to_emit |= (cond1.value() ^ 0b1) << 12;
+                        inst_to_emit |= (regN.code &  0b11111) << 5;
+                        inst_to_emit |= (0b11111) << 16;    /*regM is 0b11111 if not explicitly mentioned in ASM inst*/
+                    }
+                    else if(o2.isCond() && ((cond2.value() & 0b1110) != 0b1110)){
+                        inst_to_emit |= (cond1.value() ^ 0b1) << 12;
+                        inst_to_emit |= (0b11111) << 5;
+                        inst_to_emit |= (0b11111) << 16;    /*regM&N is 0b11111 if not explicitly mentioned in ASM inst*/
+                    }
+                    inst_to_emit |= id.opcode;
+                    a._emitInt32(inst_to_emit);
+                }
+                else
+                    throw new IllegalArgumentException("illegal arguments");
+        }
+    }
+
+    /** Encoder for the {@code dp_1src}, {@code dp_2src} and {@code dp_3src} groups. */
+    static final class DataProc extends InstructionEncoder {
+        @Override
+        void encode(Assembler_A64 a, InstructionDescription id, Operand o1, Operand o2, Operand o3, Operand o4, Operand o5) {
+            int inst_to_emit = 0;
+            if (o1.isReg() && o2.isReg()){
+                Register regD = (Register) o1;
+                Register regN = (Register) o2;
+                Register regM = (Register) o3;
+                Register regA = (Register) o4;
+                if (regD != null)
+                    inst_to_emit |= regD.code & 0b11111;
+                if (regN != null)
+                    inst_to_emit |= (regN.code &  0b11111) << 5;
+                if (regM != null && (id.group == dp_2src || id.group == dp_3src))
+                    inst_to_emit |= (regM.code &  0b11111) << 16;
+                if (regA != null && id.group == dp_3src)
+                    inst_to_emit |= (regA.code &  0b11111) << 10;
+                inst_to_emit |= id.opcode;
+                a._emitInt32(inst_to_emit);
+            }
+            else
+                throw new IllegalArgumentException("illegal arguments");
+        }
+    }
+
+    /** Encoder for the {@code exception} group. */
+    static final class ExceptionGen extends InstructionEncoder {
+        @Override
+        void encode(Assembler_A64 a, InstructionDescription id, Operand o1, Operand o2, Operand o3, Operand o4, Operand o5) {
+            int inst_to_emit = 0;
+            if (o1.isImm()){
+                Immediate imm16 = (Immediate) o1;
+                if(imm16 != null)
+                    inst_to_emit |= (imm16.value() & 0xffff) << 5;
+                inst_to_emit |= id.opcode;
+                a._emitInt32(inst_to_emit);
+            }
+            else
+                throw new IllegalArgumentException("illegal arguments");
+        }
+    }
+
+    /** Encoder for the {@code extract} group. */
+    static final class Extract extends InstructionEncoder {
+        @Override
+        void encode(Assembler_A64 a, InstructionDescription id, Operand o1, Operand o2, Operand o3, Operand o4, Operand o5) {
+            int inst_to_emit = 0;
+            if (o1.isReg() && o2.isReg()){
+                Register regD = (Register) o1;
+                Register regN = (Register) o2;
+                Register regM = (Register) o3;
+                Immediate imm6 = (Immediate) o4;
+                Immediate imm6_1 = (Immediate) o3;
+                if (regD != null)
+                    inst_to_emit |= regD.code & 0b11111;
+                if (regN != null)
+                    inst_to_emit |= (regN.code &  0b11111) << 5;
+                if (o3.isReg() && regM != null){
+                    inst_to_emit |= (regM.code &  0b11111) << 16;
+                    inst_to_emit |= (imm6.value() & 0b111111) << 10;
+                }
+                else if (o3.isImm() && imm6_1 != null ){
+                    inst_to_emit |= (imm6_1.value() & 0b111111) << 10;
+                    inst_to_emit |= (regN.code &  0b11111) << 16;   /*in the case of ROR Rn and Rm will hold same value*/
+                }
+                inst_to_emit |= id.opcode;
+                a._emitInt32(inst_to_emit);
+            }
+            else
+                throw new IllegalArgumentException("illegal arguments");
+        }
+    }
+
+    /** Encoder for the {@code ldst_imm9} and {@code ldst_pos} groups. */
+    static final class LdStImm9Pos extends InstructionEncoder {
+        @Override
+        void encode(Assembler_A64 a, InstructionDescription id, Operand o1, Operand o2, Operand o3, Operand o4, Operand o5) {
+            int inst_to_emit = 0;
+            if (o1.isReg() || id.code == INST_PRFM_LDST_POS__IMMEDIATE){
+                Register regD = null;
+                PRFOP_ENUM pfrop = null;
+                if(id.code == INST_PRFM_LDST_POS__IMMEDIATE && o1 != null)
+                    pfrop = (PRFOP_ENUM)o1;
+                else if(o1 != _none)
+                    regD = (Register) o1;
+                Register regN = null;
+                Post_index postindex = null;
+                Pre_index preindex = null;
+                Offset offset = null;
+                Immediate imm9 = null;
+                Immediate imm12 = null;
+                if(o2 != _none && o2.isReg())
+                    regN = (Register) o2;
+                else if((o2 != _none) && (o2.isPreIndex() || o2.isPostIndex() || o2.isOffset())){
+                    if(o2.isPreIndex()) {
+                        preindex = (Pre_index)o2;
+                        regN = preindex.getRegister();
+                        imm9 = preindex.getPreIndex();
+                    }
+                    else if(o2.isPostIndex()){
+                        postindex = (Post_index)o2;
+                        regN = postindex.getRegister();
+                        imm9 = postindex.getPostIndex();
+                    }
+                    else{
+                        offset = (Offset)o2;
+                        regN = offset.getRegister();
+                        imm12 = offset.getOffset();
+                    }
+                }
+                if(o3 != _none && id.group == ldst_imm9 && !(o2.isPreIndex() || o2.isPostIndex()))
+                    imm9 = (Immediate)o3;
+                if(o3 != _none && id.group == ldst_pos && !(o2.isPreIndex() || o2.isPostIndex()))
+                    imm12 = (Immediate) o3;
+                if(o1.size() == SIZE_DWORD && id.code != INST_PRFM_LDST_POS__IMMEDIATE && id.code != INST_LDRSW_IMM_OFF && id.code != INST_LDRH_IMM_OFF && id.code != INST_LDRSH_IMM_OFF && id.code != INST_LDRB_IMM_OFF && id.code != INST_LDRSB_IMM_OFF)
+                    inst_to_emit |= 1 << 30;
+                if(o1.size() == SIZE_WORD && id.code != INST_LDRB_IMM_OFF  && (id.code == INST_LDRSH_IMM_OFF || id.code == INST_LDRSB_IMM_OFF) )
+                    inst_to_emit |= 1 << 22;
+                if (regD != null)
+                    inst_to_emit |= regD.code & 0b11111;
+                else if (pfrop != null)
+                    inst_to_emit |= pfrop.intValue() & 0b11111; /*in case of prfm inst*/
+                if (regN != null)
+                    inst_to_emit |= (regN.code &  0b11111) << 5;
+                if (id.group == ldst_imm9)
+                    inst_to_emit |= (imm9.value() & 0x1ff) << 12;
+                else if(id.group == ldst_pos && (id.code == INST_LDRB_IMM_OFF || id.code == INST_LDRSB_IMM_OFF))
+                    inst_to_emit |= (imm12.value() & 0xfff) << 10;
+                else if(id.group == ldst_pos && (id.code == INST_LDRH_IMM_OFF || id.code == INST_LDRSH_IMM_OFF))
+                    inst_to_emit |= (imm12.value()>>1 & 0xfff) << 10;
+                else if(id.group == ldst_pos)
+                    inst_to_emit |= (imm12.value()>>((id.code == INST_LDRSW_IMM_OFF)?(2):(3)) & 0xfff) << 10;   /*<pimm> Is the optional positive immediate byte offset, a multiple of 8 in the range 0 to 32760, defaulting to 0 and encoded in the "imm12" field as <pimm>/8.*/
+                inst_to_emit |= id.opcode;
+                a._emitInt32(inst_to_emit);
+            }
+            else
+                throw new IllegalArgumentException("illegal arguments");
+        }
+    }
+
+    /** Encoder for the {@code ldst_imm9_2reg} and {@code ldst_pos_2reg} groups. */
+    static final class LdStImm9Pos2Reg extends InstructionEncoder {
+        @Override
+        void encode(Assembler_A64 a, InstructionDescription id, Operand o1, Operand o2, Operand o3, Operand o4, Operand o5) {
+            int inst_to_emit = 0;
+            if (o1.isReg()){
+                Register regT = (Register) o1;
+                Register regT2 = (Register) o2;
+                Post_index postindex = null;
+                Pre_index preindex = null;
+                Offset offset = null;
+                Immediate imm7 = null;
+                Register regN = null;
+                if(o3 != _none && o3.isPreIndex() || o3.isPostIndex() || o3.isOffset()){
+                    if(o3.isPreIndex()) {
+                        preindex = (Pre_index)o3;
+                        regN = preindex.getRegister();
+                        imm7 = preindex.getPreIndex();
+                    }
+                    else if(o3.isPostIndex()){
+                        postindex = (Post_index)o3;
+                        regN = postindex.getRegister();
+                        imm7 = postindex.getPostIndex();
+                    }
+                    else{
+                        offset = (Offset)o3;
+                        regN = offset.getRegister();
+                        imm7 = offset.getOffset();
+                    }
+                }
+                if(o1.size() == SIZE_DWORD)
+                    inst_to_emit |= 1 << 31;
+                if (regT != null)
+                    inst_to_emit |= regT.code & 0b11111;
+                if (regN != null)
+                    inst_to_emit |= (regN.code &  0b11111) << 5;
+                if (regT2 != null)
+                    inst_to_emit |= (regT2.code &  0b11111) << 10;
+                /*<imm> For the 32-bit variant: is the optional signed immediate byte offset, a multiple of 4 in the range -256
+                to 252, defaulting to 0 and encoded in the "imm7" field as <imm>/4.
+                <imm> For the 64-bit variant: is the optional signed immediate byte offset, a multiple of 8 in the range -512
+                to 504, defaulting to 0 and encoded in the "imm7" field as <imm>/8. */
+                if(imm7 != null)
+                    inst_to_emit |= ((imm7.value()>>((o1.size() == SIZE_DWORD)?(3):(2)))  & 0b1111111) << 15;
+                inst_to_emit |= id.opcode;
+                a._emitInt32(inst_to_emit);
+            }
+            else
+                throw new IllegalArgumentException("illegal arguments");
+        }
+    }
+
+    /**
+     * Encoder for the {@code ldst_regoff} group. A @c Mem second operand is not
+     * tied to this form; the assembler picks the shortest addressing for it.
+     */
+    static final class LdStRegOff extends InstructionEncoder {
+        @Override
+        void encode(Assembler_A64 a, InstructionDescription id, Operand o1, Operand o2, Operand o3, Operand o4, Operand o5) {
+            if (o1.isReg() && o2.isMem()) {
+                int rt = ((Register) o1).code;
+                int size = id.opcode >>> 30;
+                if (id.code == INST_LDR_REG || id.code == INST_STR_LDST_REGOFF) {
+                    size = Encoding.is64(rt) ? Encoding.SIZE_X : Encoding.SIZE_W;
+                }
+                int opc = (id.opcode >>> 22) & 0b11;
+                if (opc == Encoding.OPC_LOAD_SIGNED_64 && size < Encoding.SIZE_W && !Encoding.is64(rt)) {
+                    opc = Encoding.OPC_LOAD_SIGNED_32;
+                }
+                a._emitLdstMem(size, opc, rt, (Mem) o2);
+                return;
+            }
+            int inst_to_emit = 0;
+            if ((o1.isReg() && o2.isReg())  || id.code == INST_PRFM_LDST_REGOFF__REGISTER){
+                Register regD = null;
+                PRFOP_ENUM pfrop = null;
+                if(id.code == INST_PRFM_LDST_REGOFF__REGISTER)
+                    pfrop = (PRFOP_ENUM) o1;
+                else
+                    regD = (Register) o1;
+                Register regN = (Register) o2;
+                Register regM = (Register) o3;
+                Ext extnd = (Ext) o3;
+                if(o1.size() == SIZE_DWORD && id.code != INST_PRFM_LDST_REGOFF__REGISTER)
+                    inst_to_emit |= 1 << 30;
+                if (regD != null)
+                    inst_to_emit |= regD.code & 0b11111;
+                else
+                    inst_to_emit |= pfrop.intValue() & 0b11111;
+                if (regN != null)
+                    inst_to_emit |= (regN.code &  0b11111) << 5;
+                if (regM != null)
+                    inst_to_emit |= (regM.code &  0b11111) << 16;
+                if (o4 != null && o4.isExtend()){
+                    inst_to_emit |= (extnd.value() == 3 || extnd.value() == 2) ? (0b1 << 12) : (0);
+                    inst_to_emit |= (extnd.type() & 0b111) << 13;
+                }
+                inst_to_emit |= id.opcode;
+                a._emitInt32(inst_to_emit);
+            }
+            else
+                throw new IllegalArgumentException("illegal arguments");
+        }
+    }
+
+    /** Encoder for the {@code ldst_unpriv} and {@code ldst_unscaled} groups. */
+    static final class LdStUnscaled extends InstructionEncoder {
+        @Override
+        void encode(Assembler_A64 a, InstructionDescription id, Operand o1, Operand o2, Operand o3, Operand o4, Operand o5) {
+            int inst_to_emit = 0;
+            if (o1.isReg() && o2.isReg() || id.code == INST_PRFUM_LDST_UNSCALED){
+                Register regD = null;
+                PRFOP_ENUM pfrop = null;
+                if(id.code == INST_PRFUM_LDST_UNSCALED)
+                    pfrop = (PRFOP_ENUM) o1;
+                else
+                    regD = (Register) o1;
+                Register regN = (Register) o2;
+                Immediate imm9 = (Immediate) o3;
+                if (regD != null)
+                    inst_to_emit |= regD.code & 0b11111;
+                else
+                    inst_to_emit |= pfrop.intValue() & 0b11111;
+                if (regN != null)
+                    inst_to_emit |= (regN.code &  0b11111) << 5;
+                if (o3 != null && o3.isImm())
+                    inst_to_emit |= (imm9.value() &  0x1ff) << 12;
+                inst_to_emit |= id.opcode;
+                a._emitInt32(inst_to_emit);
+            }
+            else
+                throw new IllegalArgumentException("illegal arguments");
+        }
+    }
+
+    /** Encoder for the {@code ldstexcl} and {@code ldstexcl_op3} groups. */
+    static final class LdStExcl extends InstructionEncoder {
+        @Override
+        void encode(Assembler_A64 a, InstructionDescription id, Operand o1, Operand o2, Operand o3, Operand o4, Operand o5) {
+            int inst_to_emit = 0;
+            Register regD = (Register) o1;
+            Register regN = (Register) o2;
+            Register regM = null;
+            Offset offset = null;
+            if(o3 != null && o3.isReg())
+                regM = (Register) o3;
+            else if (o3 != null && o3.isOffset()){
+                offset = (Offset) o3;
+                regM = offset.getRegister();
+            }
+            inst_to_emit |= (regD.code & 0b11111) << 16;
+            inst_to_emit |= regN.code &  0b11111;
+            if(id.group == ldstexcl_op3 && regM != null)
+                inst_to_emit |= (regM.code &  0b11111) << 5;
+            inst_to_emit |= id.opcode;
+            a._emitInt32(inst_to_emit);
+        }
+    }
+
+    /** Encoder for the {@code ldstexcl_op4} group. */
+    static final class LdStExclOp4 extends InstructionEncoder {
+        @Override
+        void encode(Assembler_A64 a, InstructionDescription id, Operand o1, Operand o2, Operand o3, Operand o4, Operand o5) {
+            int inst_to_emit = 0;
+            Register regS = (Register) o1;
+            Register regt = (Register) o2;
+            Register regt2 = (Register) o3;
+            Register regN = (Register) o3;
+            inst_to_emit |= (regS.code & 0b11111) << 16;
+            inst_to_emit |= regt.code &  0b11111;
+            inst_to_emit |= (regt2.code &  0b11111) << 10;
+            inst_to_emit |= (regN.code &  0b11111) << 5;
+            inst_to_emit |= id.opcode;
+            a._emitInt32(inst_to_emit);
+        }
+    }
+
+    /** Encoder for the {@code ldstnapair_offs}, {@code ldstpair_off} and {@code ldstpair_indexed} groups. */
+    static final class LdStPair extends InstructionEncoder {
+        @Override
+        void encode(Assembler_A64 a, InstructionDescription id, Operand o1, Operand o2, Operand o3, Operand o4, Operand o5) {
+            int inst_to_emit = 0;
+            if (o1.isReg() && o2.isReg()){
+                Register regD = (Register) o1;
+                Register regN = (Register) o2;
+                Register regM = null;
+                Pre_index preindex = null;
+                Post_index posindex = null;
+                Immediate imm7 = null;
+                if (o3.isReg())
+                    regM = (Register) o3;
+                else if (o3.isPostIndex()){
+                    posindex = (Post_index) o3;
+                    regM = posindex.getRegister();
+                    imm7 = posindex.getPostIndex();
+                }
+                else if(o3.isPreIndex()){
+                    preindex = (Pre_index) o3;
+                    regM = preindex.getRegister();
+                    imm7 = preindex.getPreIndex();
+                }
+                if(o4 != _none && o4.isImm())
+                    imm7 = (Immediate) o4;
+                if (id.group == ldstexcl || id.group == ldstnapair_offs){
+                    if(o1.size() == SIZE_DWORD )
+                        inst_to_emit |= 0b1 << 30;
+                    else if(o1.size() == SIZE_QWORD )
+                        inst_to_emit |= 0b1 << 31;
+                }
+                else{
+                    if(o1.size() == SIZE_DWORD)
+                        inst_to_emit |= 0b1 << 31;
+                }
+                inst_to_emit |= regD.code & 0b11111;
+                inst_to_emit |= (regN.code &  0b11111) << 10;
+                inst_to_emit |= (regM.code &  0b11111) << 5;
+                /*<imm> For the 32-bit variant: is the optional signed immediate byte offset, a multiple of 4 in the range -256
+                to 252, defaulting to 0 and encoded in the "imm7" field as <imm>/4.
+                <imm> For the 64-bit variant: is the optional signed immediate byte offset, a multiple of 8 in the range -512
+                to 504, defaulting to 0 and encoded in the "imm7" field as <imm>/8. */
+                if(imm7 != null)
+                    inst_to_emit |= ((imm7.value()>>((o1.size() == SIZE_DWORD)?(3):(2)))  & 0b1111111) << 15;
+                inst_to_emit |= id.opcode;
+                a._emitInt32(inst_to_emit);
+            }
+            else
+                throw new IllegalArgumentException("illegal arguments");
+        }
+    }
+
+    /** Encoder for the {@code loadlit} group. */
+    static final class LoadLit extends InstructionEncoder {
+        @Override
+        void encode(Assembler_A64 a, InstructionDescription id, Operand o1, Operand o2, Operand o3, Operand o4, Operand o5) {
+            int inst_to_emit = 0;
+            if (o1.isReg() || id.code == INST_PRFM_LOADLIT__LITERAL){
+                Register regD = null;
+                PRFOP_ENUM prfop = null;
+                if(id.code == INST_PRFM_LOADLIT__LITERAL)
+                    prfop = (PRFOP_ENUM)o1;
+                else
+                    regD = (Register) o1;
+                if(o1.size() == SIZE_DWORD && id.code == INST_LDR_LOADLIT)
+                    inst_to_emit |= 0b1 << 30;
+                if(id.code == INST_PRFM_LOADLIT__LITERAL)
+                    inst_to_emit |= prfop.intValue() & 0b11111;
+                else
+                    inst_to_emit |= regD.code & 0b11111;
+                inst_to_emit |= id.opcode;
+                /*<label> Is the program label from which the data is to be loaded. Its offset from the address of this
+                instruction, in the range +/-1MB, is encoded as "imm19" times 4.*/
+                if (o2.isLabel()) {
+                    int disp = a._labelDisp((Label) o2, LabelTable.FIXUP_IMM19);
+                    inst_to_emit = Encoding.fixup(inst_to_emit, LabelTable.FIXUP_IMM19, disp);
+                } else {
+                    Immediate lbl = (Immediate) o2;
+                    inst_to_emit = Encoding.fixup(inst_to_emit, LabelTable.FIXUP_IMM19, lbl.value());
+                }
+                a._emitInt32(inst_to_emit);
+            }
+            else
+                throw new IllegalArgumentException("illegal arguments");
+        }
+    }
+
+    /** Encoder for the {@code log_imm} group. */
+    static final class LogImm extends InstructionEncoder {
+        @Override
+        void encode(Assembler_A64 a, InstructionDescription id, Operand o1, Operand o2, Operand o3, Operand o4, Operand o5) {
+            int inst_to_emit = 0;
+            Register regD;
+            Register regN;
+            Immediate imm;
+            if (o1.isReg() && o2.isReg() && o3.isImm()){
+                regD = (Register) o1;
+                regN = (Register) o2;
+                imm = (Immediate) o3;
+            }
+            else if (o1.isReg() && o2.isImm() && (id.code == INST_TST_LOG_IMM || id.code == INST_MOV_LOG_IMM)){
+                /* tst has Rd = zr and mov has Rn = zr, both already in the opcode. */
+                regD = id.code == INST_MOV_LOG_IMM ? (Register) o1 : null;
+                regN = id.code == INST_TST_LOG_IMM ? (Register) o1 : null;
+                imm = (Immediate) o2;
+            }
+            else
+                throw new IllegalArgumentException("illegal arguments");
+
+            boolean is64 = o1.size() == SIZE_DWORD;
+            long value = id.code == INST_BIC_LOG_IMM ? ~imm.value() : imm.value();
+            int bitmask = LogicalImmediate.encode(value, is64);
+            if (bitmask < 0)
+                throw new IllegalArgumentException("not a bitmask immediate: 0x" + Long.toHexString(imm.value()));
+            if (is64)
+                inst_to_emit |= 0b1 << 31;
+            if (regD != null)
+                inst_to_emit |= regD.code & 0b11111;
+            if (regN != null)
+                inst_to_emit |= (regN.code & 0b11111) << 5;
+            inst_to_emit |= bitmask << 10;
+            inst_to_emit |= id.opcode;
+            a._emitInt32(inst_to_emit);
+        }
+    }
+
+    /** Encoder for the {@code log_shift} group. */
+    static final class LogShift extends InstructionEncoder {
+        @Override
+        void encode(Assembler_A64 a, InstructionDescription id, Operand o1, Operand o2, Operand o3, Operand o4, Operand o5) {
+            int inst_to_emit = 0;
+            if (o1.isReg() && o2.isReg()){
+                Register regD = (Register) o1;
+                Register regN = (Register) o2;
+                Register regM = null;
+                if(o3 != _none) regM = (Register) o3;
+                Shift sft = null;
+                if(o4 != _none)
+                    sft = (Shift) o4;
+                if(o1.size() == SIZE_DWORD)
+                    inst_to_emit |= 0b1 << 31;
+                inst_to_emit |= regD.code & 0b11111;
+                if(id.code == INST_MOV_LOG_SHIFT){
+                    inst_to_emit |= (regN.code & 0b11111) << 5;
+                }
+                else{
+                    inst_to_emit |= (regN.code & 0b11111) << 5;
+                    inst_to_emit |= (regM.code & 0b11111) << 16;
+                }
+                if(sft != null){
+                    inst_to_emit |= (sft.value() & 0b111111) << 10;
+                    inst_to_emit |= (sft.type() & 0b11) << 22;
+                }
+                inst_to_emit |= id.opcode;
+                a._emitInt32(inst_to_emit);
+            }
+            else
+                throw new IllegalArgumentException("illegal arguments");
+        }
+    }
+
+    /** Encoder for the {@code movewide} group. */
+    static final class MoveWide extends InstructionEncoder {
+        @Override
+        void encode(Assembler_A64 a, InstructionDescription id, Operand o1, Operand o2, Operand o3, Operand o4, Operand o5) {
+            int inst_to_emit = 0;
+            if (o1.isReg() && o2.isImm()){
+                Register regD = (Register) o1;
+                Immediate imm16 = (Immediate) o2;
+                Shift sft = null;
+                if(o3 != _none)
+                    sft = (Shift) o3;
+                if(o1.size() == SIZE_DWORD)
+                    inst_to_emit |= 0b1 << 31;
+                inst_to_emit |= regD.code & 0b11111;
+                inst_to_emit |= (imm16.value() & 0xffff) << 5;
+                if(sft != null && sft.value()%16 == 0 && sft.value() < 49 ) /*shift val can be 0, 16, 32, 48 only*/
+                    inst_to_emit |= (sft.value()>>4 & 0b11) << 21;  // type is LSL only,
+                inst_to_emit |= id.opcode;
+                a._emitInt32(inst_to_emit);
+            }
+            else
+                throw new IllegalArgumentException("illegal arguments");
+        }
+    }
+
+    /** Encoder for the {@code pcreladdr} group. */
+    static final class PcRelAddr extends InstructionEncoder {
+        @Override
+        void encode(Assembler_A64 a, InstructionDescription id, Operand o1, Operand o2, Operand o3, Operand o4, Operand o5) {
+            int inst_to_emit = 0;
+            if (o1.isReg() && o2.isLabel()){
+                if (id.code == INST_ADRP_PCRELADDR)
+                    throw new IllegalArgumentException("adrp needs an absolute page address, not a label");
+                Register regD = (Register) o1;
+                inst_to_emit |= regD.code & 0b11111;
+                inst_to_emit |= id.opcode;
+                int disp = a._labelDisp((Label) o2, LabelTable.FIXUP_ADR);
+                a._emitInt32(Encoding.fixup(inst_to_emit, LabelTable.FIXUP_ADR, disp));
+            }
+            else if (o1.isReg() && o2.isImm()){
+                Register regD = (Register) o1;
+                Immediate imm16 = (Immediate) o2;
+                inst_to_emit |= regD.code & 0b11111;
+                /* the program label whose 4KB page address is to be calculated. Its offset from the page address of
+                this instruction, in the range +/-4GB, is encoded as "immhi:immlo" times 4096.*/
+                long imm = imm16.value() >> 12;
+                inst_to_emit |= (imm>>2 & 0x7ffff) << 5;
+                inst_to_emit |= (imm & 0b11) << 29;
+                inst_to_emit |= id.opcode;
+                a._emitInt32(inst_to_emit);
+            }
+            else
+                throw new IllegalArgumentException("illegal arguments");
+        }
+    }
+
+    /** Encoder for the {@code ic_system} group. */
+    static final class IcSystem extends InstructionEncoder {
+        @Override
+        void encode(Assembler_A64 a, InstructionDescription id, Operand o1, Operand o2, Operand o3, Operand o4, Operand o5) {
+            int inst_to_emit = 0;
+            if(id.code == INST_NOP_IC_SYSTEM || id.code == INST_YIELD_IC_SYSTEM || id.code == INST_WFE_IC_SYSTEM || id.code == INST_WFI_IC_SYSTEM || id.code == INST_SEV_IC_SYSTEM || id.code == INST_SEVL_IC_SYSTEM )
+                inst_to_emit |= id.opcode;
+            else if(id.code == INST_HINT_IC_SYSTEM || id.code == INST_CLREX_IC_SYSTEM || id.code == INST_DSB_IC_SYSTEM || id.code == INST_DMB_IC_SYSTEM || id.code == INST_ISB_IC_SYSTEM){
+                Immediate imm = (Immediate) o1;
+                if(id.code == INST_HINT_IC_SYSTEM)
+                    inst_to_emit |= (imm.value() & 0b1111111) << 5; /*<imm> Is a 7-bit unsigned immediate, in the range 0 to 127, encoded in "CRm:op2".*/
+                else
+                    inst_to_emit |= (imm.value() & 0b1111) << 8;
+            }
+            else if(id.code == INST_MSR_IC_SYSTEM_X){
+                SysRegister sysrt = (SysRegister) o1;
+                Register rt = (Register) o2;
+                SysRegDescription sysregid = SysRegDescription.find(sysrt.getEnum());
+                inst_to_emit |= (sysregid.reg_code & 0xffff) << 5;
+                inst_to_emit |= rt.code & 0b11111;
+            }
+            else if(id.code == INST_SYS_IC_SYSTEM || id.code == INST_SYSL_IC_SYSTEM){
+                Immediate imm3_op1 = (Immediate) o1;
+                Register Rt = (Register) o1;
+                Register cRn = (Register) o2;
+                Immediate imm3_op1_2 = (Immediate) o2;
+                Register cRm = (Register) o3;
+                Register cRn_2 = (Register) o3;
+                Immediate imm3_op2_4 = (Immediate) o4;
+                Register cRm_2 = (Register) o4;
+                Register rt = null;
+                Immediate imm3_op2_5_2 = null;
+                if(o5 != null){
+                    rt = (Register) o5;
+                    imm3_op2_5_2 = (Immediate) o5;
+                }
+                inst_to_emit |= (((id.code == INST_SYS_IC_SYSTEM) ? (imm3_op1.value())   : (imm3_op1_2.value()))   & 0b111)  << 16;
+                inst_to_emit |= (((id.code == INST_SYS_IC_SYSTEM) ? (cRn.code())         : (cRn_2.code()))         & 0b1111) << 12;
+                inst_to_emit |= (((id.code == INST_SYS_IC_SYSTEM) ? (cRm.code())         : (cRm_2.code()))         & 0b1111) << 8;
+                inst_to_emit |= (((id.code == INST_SYS_IC_SYSTEM) ? (imm3_op2_4.value()) : (imm3_op2_5_2.value())) & 0b111)  << 5;
+                if(id.code == INST_SYS_IC_SYSTEM)
+                    if(rt != null)
+                        inst_to_emit |= rt.code() & 0b11111;
+                    else
+                        inst_to_emit |= 0b11111;  /*<Xt> Is the 64-bit name of the optional general-purpose source register, defaulting to '11111', encoded in the "Rt" field.*/
+                else
+                    inst_to_emit |= Rt.code() & 0b11111;
+            }
+            else
+                throw new IllegalArgumentException("illegal arguments");
+            inst_to_emit |= id.opcode;
+            a._emitInt32(inst_to_emit);
+        }
+    }
+
+    /** Encoder for the {@code testbranch} group. */
+    static final class TestBranch extends InstructionEncoder {
+        @Override
+        void encode(Assembler_A64 a, InstructionDescription id, Operand o1, Operand o2, Operand o3, Operand o4, Operand o5) {
+            int inst_to_emit = 0;
+            if (o1.isReg()){
+                Register regD = (Register) o1;
+                Immediate imm = (Immediate) o2;
+                inst_to_emit |= regD.code & 0b11111;
+                /* <imm> Is the bit number to be tested, in the range 0 to 63, encoded in "b5:b40".*/
+                inst_to_emit |= (imm.value() & 0b11111) << 19;
+                inst_to_emit |= (imm.value()>>5 & 0b1) << 31;
+                inst_to_emit |= id.opcode;
+                if (o3.isLabel()) {
+                    int disp = a._labelDisp((Label) o3, LabelTable.FIXUP_IMM14);
+                    inst_to_emit = Encoding.fixup(inst_to_emit, LabelTable.FIXUP_IMM14, disp);
+                } else {
+                    Immediate lbl_imm14 = (Immediate) o3;
+                    inst_to_emit |= (lbl_imm14.value() & 0x3fff) << 5;
+                }
+                a._emitInt32(inst_to_emit);
+            }
+            else
+                throw new IllegalArgumentException("illegal arguments");
+        }
+    }
+}
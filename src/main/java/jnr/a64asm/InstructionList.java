@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2018 Ossdev07
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.a64asm;
+
+import java.util.Arrays;
+
+/**
+ * Instructions recorded by an assembler in recording mode, see
+ * {@link Assembler_A64#beginRecording()}.
+ *
+ * Each entry is a row of parallel arrays: the @c INST_CODE ordinal of the
+ * intrinsic that emitted it (or one of the negative pseudo codes below), the
+ * encoded instruction word with its operand fields packed in, and for
+ * pc-relative instructions the label id and the @c LabelTable fixup kind (the
+ * pc-relative field itself is left 0 until the code is finalized).
+ */
+public final class InstructionList {
+    //! @brief Instruction emitted by the primitive API, it has no @c INST_CODE.
+    public static final int RAW = -1;
+    //! @brief Binds label @c label(i) here; emits nothing.
+    public static final int LABEL = -2;
+    //! @brief bl to absolute address @c value(i), resolved on relocation.
+    public static final int CALL = -3;
+    //! @brief ldr (literal) of @c value(i) from the literal pool; @c word(i) holds the register.
+    public static final int LITERAL = -4;
+    //! @brief Emits the pending literal pool.
+    public static final int POOL = -5;
+    //! @brief @c kind(i) bytes of data @c value(i).
+    public static final int DATA = -6;
+    //! @brief Removed by a pass; skipped when encoding.
+    public static final int REMOVED = -7;
+
+    //! @brief Kind of entries without a label.
+    public static final int NO_FIXUP = -1;
+
+    private int[] code = new int[64];
+    private int[] word = new int[64];
+    private int[] label = new int[64];
+    private byte[] kind = new byte[64];
+    private int size = 0;
+
+    /** 64 bit operands of @c CALL, @c LITERAL and @c DATA entries, indexed by their @c label column. */
+    private long[] values = new long[16];
+    private int valueCount = 0;
+
+    /** Code of the intrinsic being encoded, recorded with the words it emits. */
+    private int current = RAW;
+
+    InstructionList() {
+    }
+
+    //! @brief Get number of entries, including removed ones.
+    public int size() {
+        return size;
+    }
+
+    public int code(int i) {
+        return code[i];
+    }
+
+    public int word(int i) {
+        return word[i];
+    }
+
+    //! @brief Get the label referred to (or bound by a @c LABEL entry), 0 for none.
+    public int label(int i) {
+        return code[i] >= RAW || code[i] == LABEL ? label[i] : 0;
+    }
+
+    //! @brief Get the fixup kind of a label reference, or the size of a @c DATA entry.
+    public int kind(int i) {
+        return kind[i];
+    }
+
+    //! @brief Get the 64 bit operand of a @c CALL, @c LITERAL or @c DATA entry.
+    public long value(int i) {
+        return values[label[i]];
+    }
+
+    //! @brief Return if entry @a i is an instruction word (possibly referring to a label).
+    public boolean isInstruction(int i) {
+        return code[i] >= RAW;
+    }
+
+    public void setWord(int i, int w) {
+        word[i] = w;
+    }
+
+    /** Replaces entry @a i by instruction @a w of code @a c referring to @a labelId (0 for none). */
+    public void set(int i, int c, int w, int labelId, int fixupKind) {
+        code[i] = c;
+        word[i] = w;
+        label[i] = labelId;
+        kind[i] = (byte) (labelId != 0 ? fixupKind : NO_FIXUP);
+    }
+
+    /** Marks entry @a i removed; indices stay valid until {@link #compact()}. */
+    public void remove(int i) {
+        code[i] = REMOVED;
+        label[i] = 0;
+        kind[i] = NO_FIXUP;
+    }
+
+    /** Inserts instruction @a w of code @a c before entry @a i. */
+    public void insert(int i, int c, int w, int labelId, int fixupKind) {
+        if (i < 0 || i > size) {
+            throw new IndexOutOfBoundsException("index " + i + ", size " + size);
+        }
+        ensureCapacity();
+        System.arraycopy(code, i, code, i + 1, size - i);
+        System.arraycopy(word, i, word, i + 1, size - i);
+        System.arraycopy(label, i, label, i + 1, size - i);
+        System.arraycopy(kind, i, kind, i + 1, size - i);
+        size++;
+        set(i, c, w, labelId, fixupKind);
+    }
+
+    /** Drops removed entries. */
+    public void compact() {
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            if (code[i] != REMOVED) {
+                code[n] = code[i];
+                word[n] = word[i];
+                label[n] = label[i];
+                kind[n] = kind[i];
+                n++;
+            }
+        }
+        size = n;
+    }
+
+    /** Returns the index of the @c LABEL entry binding @a id, or -1. */
+    public int indexOfLabel(int id) {
+        for (int i = 0; i < size; i++) {
+            if (code[i] == LABEL && label[i] == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    void setCurrent(int c) {
+        current = c;
+    }
+
+    void addInstruction(int w, int labelId, int fixupKind) {
+        add(current, w, labelId, labelId != 0 ? fixupKind : NO_FIXUP);
+    }
+
+    void addLabel(int id) {
+        add(LABEL, 0, id, NO_FIXUP);
+    }
+
+    void addValue(int c, int w, int k, long value) {
+        if (valueCount == values.length) {
+            values = Arrays.copyOf(values, valueCount * 2);
+        }
+        values[valueCount] = value;
+        add(c, w, valueCount++, k);
+    }
+
+    private void add(int c, int w, int l, int k) {
+        ensureCapacity();
+        code[size] = c;
+        word[size] = w;
+        label[size] = l;
+        kind[size] = (byte) k;
+        size++;
+    }
+
+    private void ensureCapacity() {
+        if (size == code.length) {
+            int n = size * 2;
+            code = Arrays.copyOf(code, n);
+            word = Arrays.copyOf(word, n);
+            label = Arrays.copyOf(label, n);
+            kind = Arrays.copyOf(kind, n);
+        }
+    }
+}
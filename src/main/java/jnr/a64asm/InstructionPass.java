@@ -18,18 +18,11 @@
 
 package jnr.a64asm;
 
-final class LinkData {
-    final int offset;
-    //! @brief Inlined displacement.
-    long displacement;
-
-    //! @brief RelocId if link must be absolute when relocated.
-    int relocId;
-
-    public LinkData(int offset, long displacement, int relocId) {
-        this.offset = offset;
-        this.displacement = displacement;
-        this.relocId = relocId;
-    }
-
+/**
+ * A transformation of recorded instructions, run by
+ * {@link Assembler_A64#finalizeCode()} before they are encoded.
+ */
+public interface InstructionPass {
+    /** Rewrites @a ir in place. */
+    void run(InstructionList ir);
 }
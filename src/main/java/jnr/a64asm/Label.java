@@ -18,9 +18,6 @@
 
 package jnr.a64asm;
 
-import java.util.LinkedList;
-import java.util.List;
-
 import static jnr.a64asm.LABEL_STATE.*;
 
 public final class Label extends Operand {
@@ -32,8 +29,6 @@ public final class Label extends Operand {
     /** Position (always positive, information depends to @c state). */
     int position;
 
-    final List<LinkData> links = new LinkedList<LinkData>();
-
     public Label() {
         this(0);
     }
@@ -67,8 +62,14 @@ public final class Label extends Operand {
         return position;
     }
 
-    final void link(LinkData link) {
-        links.add(link);
-        state = LABEL_STATE_LINKED;
+    final void link() {
+        if (state == LABEL_STATE_UNUSED) {
+            state = LABEL_STATE_LINKED;
+        }
+    }
+
+    final void bind(int position) {
+        this.position = position;
+        state = LABEL_STATE_BOUND;
     }
 }
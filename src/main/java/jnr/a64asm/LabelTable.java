@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2018 Ossdev07
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.a64asm;
+
+import java.util.Arrays;
+
+/**
+ * Label positions and label fixups of one assembler.
+ *
+ * Labels are int ids indexing @c positions (id 0 is reserved for "unknown").
+ * Fixups are kept as parallel arrays, so linking a label does not allocate,
+ * and all of them are resolved in a single pass by {@link #resolve}.
+ */
+final class LabelTable {
+    //! @brief Fixup of the imm26 field of b/bl.
+    static final int FIXUP_IMM26 = 0;
+    //! @brief Fixup of the imm19 field of b.cond, cbz/cbnz and ldr (literal).
+    static final int FIXUP_IMM19 = 1;
+    //! @brief Fixup of the imm14 field of tbz/tbnz.
+    static final int FIXUP_IMM14 = 2;
+    //! @brief Fixup of the immhi:immlo byte offset of adr.
+    static final int FIXUP_ADR = 3;
+
+    /** Bound position of each label, -1 while unbound. */
+    private int[] positions = new int[16];
+    private int labelCount = 1;
+
+    private int[] fixupOffset = new int[16];
+    private int[] fixupKind = new int[16];
+    private int[] fixupLabel = new int[16];
+    private int fixupCount = 0;
+
+    int newLabel() {
+        if (labelCount == positions.length) {
+            positions = Arrays.copyOf(positions, positions.length * 2);
+        }
+        positions[labelCount] = -1;
+        return labelCount++;
+    }
+
+    /** Checks that @a id was created by {@link #newLabel}. */
+    void check(int id) {
+        if (id <= 0 || id >= labelCount) {
+            throw new IllegalArgumentException("label " + id + " was not created by this assembler");
+        }
+    }
+
+    int position(int id) {
+        return positions[id];
+    }
+
+    void bind(int id, int position) {
+        positions[id] = position;
+    }
+
+    /** Marks every label unbound again. */
+    void unbindAll() {
+        Arrays.fill(positions, 1, labelCount, -1);
+    }
+
+    /** Records that the field @a kind of the word at @a offset refers to label @a id. */
+    void addFixup(int offset, int kind, int id) {
+        if (fixupCount == fixupOffset.length) {
+            int n = fixupCount * 2;
+            fixupOffset = Arrays.copyOf(fixupOffset, n);
+            fixupKind = Arrays.copyOf(fixupKind, n);
+            fixupLabel = Arrays.copyOf(fixupLabel, n);
+        }
+        fixupOffset[fixupCount] = offset;
+        fixupKind[fixupCount] = kind;
+        fixupLabel[fixupCount] = id;
+        fixupCount++;
+    }
+
+    /**
+     * Rewrites every conditional branch (b.cond, cbz/cbnz, tbz/tbnz) whose
+     * label is out of reach of its short form into an inverted branch over an
+     * unconditional {@code b}. Each {@code b} is inserted with a skipped nop
+     * after it, so the code after them moves by a multiple of 8 bytes and
+     * literal pools keep their alignment; labels and fixups are shifted
+     * accordingly.
+     *
+     * @return the insertion points in pre-insertion offsets, or @c null if no
+     * branch had to be relaxed. Call again until it returns @c null, as moved
+     * code may push other branches out of range.
+     */
+    int[] relax(CodeBuffer buffer) {
+        int[] points = null;
+        int[] words = null;
+        int[] relaxed = null;
+        int count = 0;
+
+        for (int i = 0; i < fixupCount; i++) {
+            int kind = fixupKind[i];
+            int position = positions[fixupLabel[i]];
+            int offset = fixupOffset[i];
+            if (kind == FIXUP_IMM26 || kind == FIXUP_ADR || position < 0
+                    || Encoding.fitsFixup(kind, position - offset)) {
+                continue;
+            }
+            int word = buffer.getDWordAt(offset);
+            if (!Encoding.isCondBranch(word)) {
+                continue;   // ldr (literal) has no long form, resolve() reports it
+            }
+            int inverted = Encoding.invertCondBranch(word);
+            if (inverted == 0) {
+                // b.al/b.nv: simply branch unconditionally.
+                buffer.setDWordAt(offset, Encoding.B);
+                fixupKind[i] = FIXUP_IMM26;
+                continue;
+            }
+            if (points == null) {
+                points = new int[2 * fixupCount];
+                words = new int[2 * fixupCount];
+                relaxed = new int[fixupCount];
+            }
+            // Skip over the b and nop that follow.
+            buffer.setDWordAt(offset, Encoding.fixup(inverted, kind, 12));
+            relaxed[count >> 1] = i;
+            points[count] = offset + 4;
+            words[count++] = Encoding.B;
+            points[count] = offset + 4;
+            words[count++] = Encoding.NOP;
+        }
+        if (count == 0) {
+            return null;
+        }
+
+        buffer.insertWords(points, words, count);
+        for (int i = 1; i < labelCount; i++) {
+            if (positions[i] >= 0) {
+                positions[i] += shift(points, count, positions[i], true);
+            }
+        }
+        for (int i = 0; i < fixupCount; i++) {
+            fixupOffset[i] += shift(points, count, fixupOffset[i], true);
+        }
+        for (int k = 0; k < count; k += 2) {
+            // The fixup now belongs to the inserted b.
+            int i = relaxed[k >> 1];
+            fixupOffset[i] = points[k] + shift(points, count, points[k], false);
+            fixupKind[i] = FIXUP_IMM26;
+        }
+        return Arrays.copyOf(points, count);
+    }
+
+    /**
+     * Returns how far code at @a offset moves when words are inserted at
+     * @a points; @a inclusive selects whether an insertion at @a offset itself
+     * moves it.
+     */
+    static int shift(int[] points, int count, int offset, boolean inclusive) {
+        int n = 0;
+        while (n < count && (points[n] < offset || (inclusive && points[n] == offset))) {
+            n++;
+        }
+        return n << 2;
+    }
+
+    /**
+     * Patches every fixup in @a buffer with the displacement to its label.
+     * Fixups are kept, so resolving again after more code was emitted is safe.
+     */
+    void resolve(CodeBuffer buffer) {
+        for (int i = 0; i < fixupCount; i++) {
+            int offset = fixupOffset[i];
+            int position = positions[fixupLabel[i]];
+            if (position < 0) {
+                throw new IllegalStateException("label " + fixupLabel[i] + " is used but never bound");
+            }
+            buffer.setDWordAt(offset, Encoding.fixup(buffer.getDWordAt(offset), fixupKind[i], position - offset));
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2018 Ossdev07
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.a64asm;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Pool of 32 and 64 bit constants loaded with ldr (literal).
+ *
+ * Each constant gets an internal label in the assembler's {@link LabelTable};
+ * the loads are label fixups, so their imm19 fields are patched when the code
+ * is finalized. A constant is emitted once per pool, and loads reuse an entry
+ * of an earlier pool while it is still within reach.
+ */
+final class LiteralPool {
+    /** Room left for code emitted between two deadline checks and for relaxation. */
+    private static final int MARGIN = 4096;
+
+    private long[] values = new long[8];
+    private int[] sizes = new int[8];
+    private int[] labels = new int[8];
+    private int count = 0;
+    private int pendingBytes = 0;
+    private int firstUse = -1;
+
+    /** Pending entries by value, one map per entry size. */
+    private final Map<Long, Integer> pending32 = new HashMap<Long, Integer>();
+    private final Map<Long, Integer> pending64 = new HashMap<Long, Integer>();
+    /** Labels of the entries already emitted, by value. */
+    private final Map<Long, Integer> emitted32 = new HashMap<Long, Integer>();
+    private final Map<Long, Integer> emitted64 = new HashMap<Long, Integer>();
+
+    boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * Returns the offset past which the pool must be emitted so that its first
+     * user still reaches it, {@code Integer.MAX_VALUE} while empty.
+     */
+    int deadline() {
+        return count == 0 ? Integer.MAX_VALUE : firstUse + (1 << 20) - pendingBytes - MARGIN;
+    }
+
+    /**
+     * Returns the label id of the pool entry of @a size bytes holding @a value,
+     * for a load at @a offset.
+     */
+    int entry(LabelTable table, long value, int size, int offset) {
+        Integer done = (size == 8 ? emitted64 : emitted32).get(value);
+        if (done != null && Encoding.fitsFixup(LabelTable.FIXUP_IMM19, table.position(done) - offset)) {
+            return done;
+        }
+
+        Map<Long, Integer> pendingMap = size == 8 ? pending64 : pending32;
+        Integer label = pendingMap.get(value);
+        if (label != null) {
+            return label;
+        }
+
+        if (count == values.length) {
+            values = Arrays.copyOf(values, count * 2);
+            sizes = Arrays.copyOf(sizes, count * 2);
+            labels = Arrays.copyOf(labels, count * 2);
+        }
+        int id = table.newLabel();
+        values[count] = value;
+        sizes[count] = size;
+        labels[count] = id;
+        count++;
+        pendingBytes += size;
+        if (firstUse < 0) {
+            firstUse = offset;
+        }
+        pendingMap.put(value, id);
+        return id;
+    }
+
+    /**
+     * Emits all pending entries at the current offset of @a buffer, 64 bit
+     * entries first and 8 byte aligned, and binds their labels.
+     */
+    void emit(CodeBuffer buffer, LabelTable table) {
+        int align = pending64.isEmpty() ? 4 : 8;
+        while ((buffer.offset() & (align - 1)) != 0) {
+            buffer.emitByte((byte) 0);
+        }
+        for (int size = 8; size >= 4; size -= 4) {
+            Map<Long, Integer> emitted = size == 8 ? emitted64 : emitted32;
+            for (int i = 0; i < count; i++) {
+                if (sizes[i] != size) {
+                    continue;
+                }
+                table.bind(labels[i], buffer.offset());
+                emitted.put(values[i], labels[i]);
+                if (size == 8) {
+                    buffer.emitQWord(values[i]);
+                } else {
+                    buffer.emitDWord((int) values[i]);
+                }
+            }
+        }
+        count = 0;
+        pendingBytes = 0;
+        firstUse = -1;
+        pending32.clear();
+        pending64.clear();
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2018 Ossdev07
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.a64asm;
+
+import static jnr.a64asm.INST_CODE.*;
+import static jnr.a64asm.REG.*;
+
+/**
+ * Pass fusing single W/X register loads and stores into ldp/stp (or ldnp/stnp).
+ *
+ * Two accesses pair when they are of the same kind and size, use the same
+ * base and touch adjacent slots, e.g. the spills of a prologue or the word
+ * copies of a struct. They need not be next to each other, but only other
+ * accesses off the same base may come between, and none of those may write
+ * the base, conflict with the moved access's register or touch its slot. The
+ * later access is moved up to the earlier one.
+ */
+public final class LoadStorePairing implements InstructionPass {
+    //! @brief Accesses looked ahead for a partner.
+    private static final int WINDOW = 8;
+
+    private final boolean nonTemporal;
+    private int fused = 0;
+
+    public LoadStorePairing() {
+        this(false);
+    }
+
+    /**
+     * Creates a pass emitting ldnp/stnp when @a nonTemporal is @c true, for
+     * streaming copies whose data is not read again soon.
+     */
+    public LoadStorePairing(boolean nonTemporal) {
+        this.nonTemporal = nonTemporal;
+    }
+
+    //! @brief Get number of pairs formed so far.
+    public int fused() {
+        return fused;
+    }
+
+    @Override
+    public void run(InstructionList ir) {
+        for (int i = 0; i < ir.size(); i++) {
+            if (!isAccess(ir, i)) {
+                continue;
+            }
+            int a = ir.word(i);
+            if (isLoad(a) && rt(a) == rn(a)) {
+                continue;
+            }
+            int steps = 0;
+            for (int j = PeepholeOptimizer.nextInstruction(ir, i); j >= 0 && steps++ < WINDOW;
+                    j = PeepholeOptimizer.nextInstruction(ir, j)) {
+                int b = ir.word(j);
+                if (!isAccess(ir, j) || rn(b) != rn(a)) {
+                    break;
+                }
+                if (pairable(a, b) && independent(ir, i, j)) {
+                    fuse(ir, i, j);
+                    break;
+                }
+                if (isLoad(b) && rt(b) == rn(a)) {
+                    break;
+                }
+            }
+        }
+        ir.compact();
+    }
+
+    private static boolean pairable(int a, int b) {
+        if (isLoad(a) != isLoad(b) || size(a) != size(b) || Math.abs(offset(a) - offset(b)) != 1 << size(a)) {
+            return false;
+        }
+        // ldp into the same register twice is unpredictable.
+        if (isLoad(a) && rt(a) == rt(b)) {
+            return false;
+        }
+        int lo = offset(a) < offset(b) ? a : b;
+        return Encoding.isPairOffset(reg(lo, rt(lo)), offset(lo));
+    }
+
+    /** Returns @c true if access @a j can move up to access @a i past the accesses in between. */
+    private static boolean independent(InstructionList ir, int i, int j) {
+        int b = ir.word(j);
+        for (int k = PeepholeOptimizer.next(ir, i); k < j; k = PeepholeOptimizer.next(ir, k)) {
+            int c = ir.word(k);
+            boolean overlap = offset(c) < offset(b) + (1 << size(b)) && offset(b) < offset(c) + (1 << size(c));
+            if (isLoad(b)) {
+                // b's register is written early: c must not read or write it,
+                // use it as its base, nor store to the slot b reads.
+                if (rt(c) == rt(b) || rn(c) == rt(b) || (!isLoad(c) && overlap)) {
+                    return false;
+                }
+            } else {
+                // b's store happens early: c must not change the stored
+                // register, nor read or write the slot b stores to.
+                if (overlap || (isLoad(c) && rt(c) == rt(b))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void fuse(InstructionList ir, int i, int j) {
+        int a = ir.word(i);
+        int b = ir.word(j);
+        int lo = offset(a) < offset(b) ? a : b;
+        int hi = lo == a ? b : a;
+        boolean load = isLoad(a);
+        INST_CODE code = nonTemporal
+                ? (load ? INST_LDNP_LDSTNAPAIR_OFFS : INST_STNP_LDSTNAPAIR_OFFS)
+                : (load ? INST_LDP_LDSTPAIR_OFF_LDST_POS : INST_STP_LDSTPAIR_OFF);
+        int mode = nonTemporal ? Encoding.PAIR_NO_ALLOCATE : Encoding.PAIR_OFFSET;
+        ir.set(i, code.ordinal(), Encoding.ldstPair(mode, load, reg(lo, rt(lo)), reg(hi, rt(hi)), REG_GPR | rn(lo), offset(lo)),
+                0, InstructionList.NO_FIXUP);
+        ir.remove(j);
+        fused++;
+    }
+
+    /** Returns @c true if entry @a i is ldr/str/ldur/stur of a W or X register. */
+    private static boolean isAccess(InstructionList ir, int i) {
+        if (!ir.isInstruction(i)) {
+            return false;
+        }
+        int w = ir.word(i);
+        return ((w & 0xbf000000) == 0xb9000000 || (w & 0xbf200c00) == 0xb8000000) && (w >>> 22 & 0b11) <= Encoding.OPC_LOAD;
+    }
+
+    private static boolean isLoad(int w) {
+        return (w >>> 22 & 0b11) == Encoding.OPC_LOAD;
+    }
+
+    private static int size(int w) {
+        return w >>> 30;
+    }
+
+    /** Byte offset of a scaled (ldr/str) or unscaled (ldur/stur) access. */
+    private static int offset(int w) {
+        if ((w & 0x01000000) != 0) {
+            return (w >>> 10 & 0xfff) << size(w);
+        }
+        return w << 11 >> 23;
+    }
+
+    private static int rt(int w) {
+        return w & 0x1f;
+    }
+
+    private static int rn(int w) {
+        return w >>> 5 & 0x1f;
+    }
+
+    private static int reg(int w, int r) {
+        return (size(w) == Encoding.SIZE_X ? REG_GPR : REG_GPT) | r;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2018 Ossdev07
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.a64asm;
+
+/**
+ * Bitmask immediates of the logical (immediate) instructions.
+ *
+ * A bitmask immediate is an element of 2, 4, 8, 16, 32 or 64 bits holding a
+ * rotated run of ones, replicated across the register. It is encoded in the
+ * 13 bit N:immr:imms field. All 5334 legal 64 bit patterns are enumerated
+ * once into an open addressing hash table, so encoding is a single probe
+ * sequence.
+ */
+final class LogicalImmediate {
+    private LogicalImmediate() {}
+
+    private static final int TABLE_BITS = 14;
+    private static final int TABLE_MASK = (1 << TABLE_BITS) - 1;
+
+    /** Patterns (0 marks a free slot, 0 is never encodable). */
+    private static final long[] patterns = new long[1 << TABLE_BITS];
+    /** N:immr:imms of the pattern in the same slot. */
+    private static final short[] encodings = new short[1 << TABLE_BITS];
+
+    static {
+        for (int n = 0; n < 2; n++) {
+            for (int imms = 0; imms < 64; imms++) {
+                // The element size is given by the highest clear bit of N:NOT(imms).
+                int len = 31 - Integer.numberOfLeadingZeros(n << 6 | (~imms & 0x3f));
+                if (len < 1) {
+                    continue;
+                }
+                int size = 1 << len;
+                int ones = (imms & (size - 1)) + 1;
+                if (ones == size) {
+                    continue;
+                }
+                long mask = size == 64 ? -1L : (1L << size) - 1;
+                long run = ones == 64 ? -1L : (1L << ones) - 1;
+                for (int immr = 0; immr < size; immr++) {
+                    long elem = immr == 0 ? run : ((run >>> immr) | (run << (size - immr))) & mask;
+                    long value = 0;
+                    for (int i = 0; i < 64; i += size) {
+                        value |= elem << i;
+                    }
+                    insert(value, n << 12 | immr << 6 | imms);
+                }
+            }
+        }
+    }
+
+    private static int slot(long value) {
+        return (int) ((value * 0x9e3779b97f4a7c15L) >>> (64 - TABLE_BITS));
+    }
+
+    private static void insert(long value, int encoding) {
+        int i = slot(value);
+        while (patterns[i] != 0) {
+            i = (i + 1) & TABLE_MASK;
+        }
+        patterns[i] = value;
+        encodings[i] = (short) encoding;
+    }
+
+    /**
+     * Returns the N:immr:imms encoding of @a value for a 64 bit (@a is64) or
+     * 32 bit operation, or -1 if @a value is not a bitmask immediate.
+     */
+    static int encode(long value, boolean is64) {
+        if (!is64) {
+            value = (value & 0xffffffffL) | (value << 32);
+        }
+        if (value == 0) {
+            return -1;
+        }
+        for (int i = slot(value); patterns[i] != 0; i = (i + 1) & TABLE_MASK) {
+            if (patterns[i] == value) {
+                return encodings[i];
+            }
+        }
+        return -1;
+    }
+
+    static boolean isEncodable(long value, boolean is64) {
+        return encode(value, is64) >= 0;
+    }
+}
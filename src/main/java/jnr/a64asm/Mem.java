@@ -28,6 +28,7 @@ public class Mem extends Operand {
     //! @brief Index register shift (0 to 3 included).
     private final int shift;
 
+    //! @brief Index register extend, @c null for a 64 bit index shifted by @c shift.
     private final Ext extend;
 
     private final Label label;
@@ -52,7 +53,12 @@ public class Mem extends Operand {
     }
 
     Mem(Register base, Register index, int shift, long displacement, int size) {
-        this(base.index(), index.index(), shift, null, 0, displacement, size, null);
+        this(base.index(), index.index(), shift, null, 0, displacement, size,
+                (index.code & REGTYPE_MASK) == REG_GPT ? Ext.uxtw(shift) : null);
+    }
+
+    Mem(Register base, Register index, Ext extend, int size) {
+        this(base.index(), index.index(), (int) extend.value(), null, 0, 0, size, extend);
     }
 
     Mem(Label label, Register index, int shift, long disp, int ptrSize) {
@@ -115,6 +121,11 @@ public class Mem extends Operand {
         return shift;
     }
 
+    //! @brief Return the index register extend (uxtw/sxtw/sxtx), or @c null for lsl.
+    public final Ext extend() {
+        return extend;
+    }
+
     public final long target() {
         return target;
     }
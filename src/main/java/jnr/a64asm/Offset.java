@@ -39,4 +39,20 @@ public final class Offset extends Operand {
         return basereg;
     }
 
+    /** Shared instances per 64 bit base register, for offsets -512 to 4095. */
+    private static final OperandCache<Offset> cache = new OperandCache<Offset>(32, -512, 4095) {
+        @Override
+        Offset create(int row, long offset) {
+            return new Offset(Register.gpb(row), Immediate.imm(offset));
+        }
+    };
+
+    /** Returns a shared offset addressing of @a base by @a offset bytes. */
+    public static final Offset of(Register base, long offset) {
+        if (base.type() != REG_GPR) {
+            return new Offset(base, Immediate.imm(offset));
+        }
+        return cache.get(base.index(), offset);
+    }
+
 }
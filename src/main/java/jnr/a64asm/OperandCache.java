@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2018 Ossdev07
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.a64asm;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Shared operand instances for the values @c low to @c high in each of a
+ * number of rows (one per base register, say), created on first use.
+ */
+abstract class OperandCache<T extends Operand> {
+    //! @brief Most values a row holds; a wider range is cut at its top.
+    static final int MAX_VALUES = 1 << 16;
+
+    final long low;
+    final long high;
+    private final AtomicReferenceArray<AtomicReferenceArray<T>> rows;
+
+    /** A range with @a high below @a low caches nothing. */
+    OperandCache(int rows, long low, long high) {
+        this.low = low;
+        this.high = Math.min(high, low + MAX_VALUES - 1);
+        this.rows = new AtomicReferenceArray<AtomicReferenceArray<T>>(rows);
+    }
+
+    /** Creates the operand for @a value in @a row. */
+    abstract T create(int row, long value);
+
+    /** Returns the shared operand for @a value in @a row, or a new one outside the range. */
+    final T get(int row, long value) {
+        if (value < low || value > high) {
+            return create(row, value);
+        }
+        AtomicReferenceArray<T> r = rows.get(row);
+        if (r == null) {
+            rows.compareAndSet(row, null, new AtomicReferenceArray<T>((int) (high - low + 1)));
+            r = rows.get(row);
+        }
+        int idx = (int) (value - low);
+        T t = r.get(idx);
+        if (t == null) {
+            r.compareAndSet(idx, null, create(row, value));
+            t = r.get(idx);
+        }
+        return t;
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright (C) 2018 Ossdev07
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.a64asm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static jnr.a64asm.REG.*;
+
+/**
+ * Parallel move resolver: a set of register moves, loads, stores and memory
+ * copies that all read their sources before any of them writes, emitted as
+ * the fewest sequential instructions.
+ *
+ * Stores and copies go first, while every register still holds its original
+ * value; stores and copies to adjacent slots off the same base are combined
+ * into stp (copies read with ldp where the sources are adjacent too, and
+ * only paired when neither source needs an address computed in x16).
+ * Register moves then run in dependency order, each one only once nothing
+ * left reads its destination, and a cycle such as {@code x0 <- x1, x1 <- x0}
+ * is broken by saving one register in x16. Loads come last in that order,
+ * adjacent ones off the same base as ldp.
+ *
+ * x16 and x17 are scratch registers here and may not take part in the moves.
+ * Memory written by stores and copies must not overlap memory that is read.
+ * Loads of 3, 5, 6 or 7 bytes read exactly those bytes, see {@link #loadBytes}.
+ */
+public final class ParallelMoves {
+    private static final int MOVE = 0, LOAD = 1, STORE = 2, COPY = 3;
+
+    private static final class Op {
+        final int kind;
+        //! @brief Destination register (@c MOVE, @c LOAD) or base (@c STORE, @c COPY).
+        final int dst;
+        //! @brief Source register (@c MOVE, @c STORE) or base (@c LOAD, @c COPY); rewritten when saved to x16.
+        int src;
+        final long dstOffset;
+        final long srcOffset;
+        //! @brief Access size in bytes.
+        final int bytes;
+
+        Op(int kind, int dst, long dstOffset, int src, long srcOffset, int bytes) {
+            this.kind = kind;
+            this.dst = dst;
+            this.dstOffset = dstOffset;
+            this.src = src;
+            this.srcOffset = srcOffset;
+            this.bytes = bytes;
+        }
+    }
+
+    private final List<Op> ops = new ArrayList<Op>();
+
+    //! @brief Get @c true if no move is pending.
+    public boolean isEmpty() {
+        return ops.isEmpty();
+    }
+
+    /** Adds {@code mov dst, src}; the width of @a dst selects a 32 or 64 bit move. */
+    public void move(int dst, int src) {
+        check(dst, false);
+        check(src, false);
+        if (Encoding.r(dst) != Encoding.r(src)) {
+            ops.add(new Op(MOVE, dst, 0, src, 0, Encoding.is64(dst) ? 8 : 4));
+        }
+    }
+
+    /** Adds {@code ldr dst, [base, #offset]}; the width of @a dst selects the size. */
+    public void load(int dst, int base, long offset) {
+        load(dst, base, offset, Encoding.is64(dst) ? 8 : 4);
+    }
+
+    /** Adds a zero extending load of @a bytes (1 to 8) into @a dst. */
+    public void load(int dst, int base, long offset, int bytes) {
+        check(dst, false);
+        check(base, true);
+        if (bytes < 1 || bytes > 8) {
+            throw new IllegalArgumentException("invalid load size: " + bytes);
+        }
+        ops.add(new Op(LOAD, (bytes > 4 ? REG_GPR : REG_GPT) | Encoding.r(dst), 0, base, offset, bytes));
+    }
+
+    /** Adds {@code str src, [base, #offset]}; the width of @a src selects the size. */
+    public void store(int base, long offset, int src) {
+        check(base, true);
+        check(src, false);
+        ops.add(new Op(STORE, base, offset, src, 0, Encoding.is64(src) ? 8 : 4));
+    }
+
+    /** Adds a copy of the 8 bytes at @a srcBase + @a srcOffset to @a dstBase + @a dstOffset. */
+    public void copy(int dstBase, long dstOffset, int srcBase, long srcOffset) {
+        check(dstBase, true);
+        check(srcBase, true);
+        ops.add(new Op(COPY, dstBase, dstOffset, srcBase, srcOffset, 8));
+    }
+
+    private static void check(int reg, boolean base) {
+        int r = Encoding.r(reg);
+        if (r == 16 || r == 17 || (r == 31 && !base)) {
+            throw new IllegalArgumentException("register not allowed in parallel moves: " + r);
+        }
+    }
+
+    /**
+     * Emits the pending moves into @a a and clears them.
+     *
+     * @throws IllegalArgumentException if a register is written twice.
+     */
+    public void emit(Assembler_A64 a) {
+        int written = 0;
+        List<Op> memory = new ArrayList<Op>();
+        List<Op> pending = new ArrayList<Op>();
+        for (Op op : ops) {
+            if (op.kind == STORE || op.kind == COPY) {
+                memory.add(op);
+            } else {
+                int bit = 1 << Encoding.r(op.dst);
+                if ((written & bit) != 0) {
+                    throw new IllegalArgumentException("register written twice: " + Encoding.r(op.dst));
+                }
+                written |= bit;
+                pending.add(op);
+            }
+        }
+        ops.clear();
+        emitMemory(a, memory);
+        emitRegisters(a, pending);
+    }
+
+    private static void emitMemory(Assembler_A64 a, List<Op> memory) {
+        Collections.sort(memory, new Comparator<Op>() {
+            @Override
+            public int compare(Op x, Op y) {
+                if (x.kind != y.kind) {
+                    return x.kind - y.kind;
+                }
+                if (x.dst != y.dst) {
+                    return x.dst - y.dst;
+                }
+                return x.dstOffset < y.dstOffset ? -1 : x.dstOffset > y.dstOffset ? 1 : 0;
+            }
+        });
+        for (int i = 0; i < memory.size(); i++) {
+            Op x = memory.get(i);
+            Op y = i + 1 < memory.size() ? memory.get(i + 1) : null;
+            // A copied pair holds x16 and x17 at once, so neither of its
+            // loads may need a scratch register for the address.
+            boolean pair = y != null && y.kind == x.kind && y.dst == x.dst && y.bytes == x.bytes
+                    && y.dstOffset == x.dstOffset + x.bytes && Encoding.isPairOffset(width(x), x.dstOffset)
+                    && (x.kind == STORE || isDirect(x.srcOffset) && isDirect(y.srcOffset));
+            if (x.kind == STORE) {
+                if (pair) {
+                    a.stpImm(x.src, y.src, x.dst, x.dstOffset);
+                    i++;
+                } else {
+                    a.strImm(x.src, x.dst, x.dstOffset);
+                }
+            } else if (pair) {
+                if (y.src == x.src && y.srcOffset == x.srcOffset + 8 && Encoding.isPairOffset(REG_X16, x.srcOffset)) {
+                    a.ldpImm(REG_X16, REG_X17, x.src, x.srcOffset);
+                } else {
+                    a.ldrImm(REG_X16, x.src, x.srcOffset);
+                    a.ldrImm(REG_X17, y.src, y.srcOffset);
+                }
+                a.stpImm(REG_X16, REG_X17, x.dst, x.dstOffset);
+                i++;
+            } else {
+                a.ldrImm(REG_X16, x.src, x.srcOffset);
+                a.strImm(REG_X16, x.dst, x.dstOffset);
+            }
+        }
+    }
+
+    private static void emitRegisters(Assembler_A64 a, List<Op> pending) {
+        while (!pending.isEmpty()) {
+            boolean progress = false;
+            for (int i = 0; i < pending.size(); i++) {
+                Op op = pending.get(i);
+                if (op.kind == MOVE && ready(pending, op, null)) {
+                    a.movReg(op.dst, width(op) | Encoding.r(op.src));
+                    pending.remove(i);
+                    i = -1;
+                    progress = true;
+                }
+            }
+            if (progress) {
+                continue;
+            }
+
+            // Only loads are ready, if anything: an ldp if there is one,
+            // otherwise a single load, then moves again.
+            Op single = null;
+            for (Op op : pending) {
+                if (op.kind != LOAD) {
+                    continue;
+                }
+                Op partner = partner(pending, op);
+                if (partner != null && ready(pending, op, partner) && ready(pending, partner, op)) {
+                    a.ldpImm(op.dst, partner.dst, op.src, op.srcOffset);
+                    pending.remove(partner);
+                    pending.remove(op);
+                    progress = true;
+                    break;
+                }
+                if (single == null && ready(pending, op, null)) {
+                    single = op;
+                }
+            }
+            if (!progress && single != null) {
+                load(a, single);
+                pending.remove(single);
+                progress = true;
+            }
+            if (progress) {
+                continue;
+            }
+
+            // Everything left waits on something else: a cycle. Free one
+            // destination by saving it in x16 and reading that instead.
+            int saved = Encoding.r(pending.get(0).dst);
+            a.movReg(REG_X16, REG_GPR | saved);
+            for (Op op : pending) {
+                if (Encoding.r(op.src) == saved) {
+                    op.src = (op.src & REGTYPE_MASK) | 16;
+                }
+            }
+        }
+    }
+
+    /** Returns @c true if no pending operation other than @a op and @a except reads the destination of @a op. */
+    private static boolean ready(List<Op> pending, Op op, Op except) {
+        int r = Encoding.r(op.dst);
+        for (Op other : pending) {
+            if (other != op && other != except && Encoding.r(other.src) == r) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns a load that forms an ldp with @a op (at the next slot off the same base), or @c null. */
+    private static Op partner(List<Op> pending, Op op) {
+        if (op.bytes != 4 && op.bytes != 8 || !Encoding.isPairOffset(op.dst, op.srcOffset)) {
+            return null;
+        }
+        for (Op other : pending) {
+            if (other.kind == LOAD && other.src == op.src && other.bytes == op.bytes
+                    && other.srcOffset == op.srcOffset + op.bytes && Encoding.r(other.dst) != Encoding.r(op.dst)) {
+                return other;
+            }
+        }
+        return null;
+    }
+
+    private static void load(Assembler_A64 a, Op op) {
+        // x17 is only used by stores and copies, which are done by now.
+        loadBytes(a, op.dst, op.src, op.srcOffset, op.bytes, REG_X17);
+    }
+
+    /**
+     * Emits a zero extending load of exactly @a bytes (1 to 8) at @a base +
+     * @a offset into @a dst. A 3, 5, 6 or 7 byte value is read as two
+     * overlapping halves, the upper one into @a temp first (so @a dst may be
+     * @a base), and combined with orr; nothing past the value is read.
+     */
+    static void loadBytes(Assembler_A64 a, int dst, int base, long offset, int bytes, int temp) {
+        int w = REG_GPT | Encoding.r(dst);
+        switch (bytes) {
+            case 1: a.ldrbImm(w, base, offset); return;
+            case 2: a.ldrhImm(w, base, offset); return;
+            case 4: a.ldrImm(w, base, offset); return;
+            case 8: a.ldrImm(REG_GPR | Encoding.r(dst), base, offset); return;
+            default: break;
+        }
+        int half = bytes == 3 ? 2 : 4;
+        int t = REG_GPT | Encoding.r(temp);
+        if (half == 2) {
+            a.ldrhImm(t, base, offset + bytes - half);
+            a.ldrhImm(w, base, offset);
+        } else {
+            a.ldrImm(t, base, offset + bytes - half);
+            a.ldrImm(w, base, offset);
+        }
+        int x = REG_GPR | Encoding.r(dst);
+        a._emitInt32(Encoding.logShift(Encoding.ORR_SHIFT, x, x, REG_GPR | Encoding.r(temp), 0, 8 * (bytes - half)));
+    }
+
+    /** Returns @c true if an 8 byte access at @a offset is encoded in one instruction. */
+    private static boolean isDirect(long offset) {
+        return Encoding.isLdstPos(Encoding.SIZE_X, offset) || Encoding.isImm9(offset);
+    }
+
+    /** Returns the register type (W or X) of the access or move @a op. */
+    private static int width(Op op) {
+        return op.bytes == 8 ? REG_GPR : REG_GPT;
+    }
+}
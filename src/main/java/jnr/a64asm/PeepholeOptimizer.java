@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2018 Ossdev07
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.a64asm;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static jnr.a64asm.INST_CODE.*;
+import static jnr.a64asm.REG.*;
+
+/**
+ * Peephole pass over recorded instructions: applies each rule at every
+ * instruction until none matches any more, counting the hits per rule.
+ *
+ * Rules only look at adjacent instructions; a label in between (another entry
+ * point) stops a match. Install it with {@link Assembler_A64#addPass}.
+ */
+public final class PeepholeOptimizer implements InstructionPass {
+    //! @brief Instructions looked at by {@link #flagsDeadAfter} before giving up.
+    private static final int FLAG_SCAN_LIMIT = 64;
+
+    private final PeepholeRule[] rules;
+    private final int[] hits;
+
+    /** Creates an optimizer with the standard A64 rules, see {@link #standardRules()}. */
+    public PeepholeOptimizer() {
+        this(standardRules());
+    }
+
+    public PeepholeOptimizer(PeepholeRule... rules) {
+        this.rules = rules.clone();
+        this.hits = new int[rules.length];
+    }
+
+    /**
+     * Returns the standard rules: drop {@code mov xN, xN} and
+     * {@code add/sub xN, xN, #0}, forward a store to an immediately following
+     * reload of the same slot, turn {@code cmp xN, #0; b.eq/b.ne} into
+     * {@code cbz/cbnz} when the flags are dead, and merge two loads of
+     * adjacent slots into an {@code ldp}.
+     */
+    public static PeepholeRule[] standardRules() {
+        return new PeepholeRule[] {
+            new MovSelf(), new AddZero(), new StoreReload(), new CmpZeroBranch(), new LoadPair()
+        };
+    }
+
+    /**
+     * Returns an optimizer cleaning up control flow: {@code cmp xN, #0} and
+     * {@code tst xN, #(1 << k)} followed by b.eq/b.ne become cbz/cbnz and
+     * tbz/tbnz, branches to branches are threaded, branches to the next
+     * instruction dropped and unreachable code after b, br and ret removed.
+     */
+    public static PeepholeOptimizer controlFlowCleanup() {
+        return new PeepholeOptimizer(ControlFlowRules.rules());
+    }
+
+    @Override
+    public void run(InstructionList ir) {
+        boolean changed;
+        do {
+            changed = false;
+            for (int i = 0; i < ir.size(); i++) {
+                for (int r = 0; r < rules.length && ir.isInstruction(i); r++) {
+                    if (rules[r].apply(ir, i)) {
+                        hits[r]++;
+                        changed = true;
+                    }
+                }
+            }
+            ir.compact();
+        } while (changed);
+    }
+
+    /** Returns the number of rewrites done by each rule, by rule name. */
+    public Map<String, Integer> hitCounts() {
+        Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
+        for (int r = 0; r < rules.length; r++) {
+            counts.put(rules[r].name(), hits[r]);
+        }
+        return counts;
+    }
+
+    /** Returns the index of the entry after @a i, skipping removed ones, or -1. */
+    static int next(InstructionList ir, int i) {
+        for (int j = i + 1; j < ir.size(); j++) {
+            if (ir.code(j) != InstructionList.REMOVED) {
+                return j;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the instruction after @a i, or -1 if there is none or a label comes first. */
+    static int nextInstruction(InstructionList ir, int i) {
+        int j = next(ir, i);
+        return j >= 0 && ir.isInstruction(j) ? j : -1;
+    }
+
+    /**
+     * Returns @c true if the NZCV flags are dead after entry @a i: on every
+     * path from there they are set (or clobbered by a call, or the function
+     * returns) before being read. When @a i is a branch its target is one of
+     * those paths. Paths through br, data or past {@link #FLAG_SCAN_LIMIT}
+     * instructions count as reading them.
+     */
+    public static boolean flagsDeadAfter(InstructionList ir, int i) {
+        int[] budget = { FLAG_SCAN_LIMIT };
+        if (ir.isInstruction(i)) {
+            int w = ir.word(i);
+            if ((w & 0xfc000000) == Encoding.B) {
+                return flagsDeadAt(ir, ir.label(i), budget);
+            }
+            if (Encoding.isCondBranch(w) && !flagsDeadAt(ir, ir.label(i), budget)) {
+                return false;
+            }
+        }
+        return flagsDead(ir, i + 1, budget);
+    }
+
+    private static boolean flagsDead(InstructionList ir, int i, int[] budget) {
+        for (; i < ir.size(); i++) {
+            int code = ir.code(i);
+            if (code == InstructionList.LABEL || code == InstructionList.REMOVED || code == InstructionList.LITERAL) {
+                continue;
+            }
+            if (--budget[0] < 0) {
+                return false;
+            }
+            if (code == InstructionList.CALL) {
+                return true;    // NZCV is not preserved across calls
+            }
+            if (code < InstructionList.RAW) {
+                return false;
+            }
+            int w = ir.word(i);
+            if (Encoding.readsFlags(w)) {
+                return false;
+            }
+            if (Encoding.setsFlags(w)) {
+                return true;
+            }
+            if ((w & 0xfc000000) == Encoding.B) {
+                return flagsDeadAt(ir, ir.label(i), budget);
+            }
+            if ((w & 0xfc000000) == Encoding.BL || (w & 0xfffffc1f) == Encoding.BLR || (w & 0xfffffc1f) == Encoding.RET) {
+                return true;
+            }
+            if ((w & 0xfffffc1f) == Encoding.BR) {
+                return false;
+            }
+            if (Encoding.isCondBranch(w) && !flagsDeadAt(ir, ir.label(i), budget)) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private static boolean flagsDeadAt(InstructionList ir, int label, int[] budget) {
+        int target = label != 0 ? ir.indexOfLabel(label) : -1;
+        return target >= 0 && flagsDead(ir, target + 1, budget);
+    }
+
+    /** Returns @c true if @a w is ldr/str (unsigned offset) of a W or X register, with @a opc. */
+    private static boolean isLdstWord(int w, int opc) {
+        return (w & 0xbf000000) == 0xb9000000 && (w >>> 22 & 0b11) == opc;
+    }
+
+    private static int rt(int w) {
+        return w & 0x1f;
+    }
+
+    private static int rn(int w) {
+        return w >>> 5 & 0x1f;
+    }
+
+    /** Returns the register code of the W or X register @a r for a size 2 or 3 access word @a w. */
+    private static int ldstReg(int w, int r) {
+        return (w >>> 30 == Encoding.SIZE_X ? REG_GPR : REG_GPT) | r;
+    }
+
+    /** {@code mov xN, xN} (orr xN, xzr, xN). The W form clears the upper half, so it stays. */
+    static final class MovSelf implements PeepholeRule {
+        @Override
+        public String name() {
+            return "mov-self";
+        }
+
+        @Override
+        public boolean apply(InstructionList ir, int i) {
+            int w = ir.word(i);
+            if ((w & 0xffe0ffe0) == 0xaa0003e0 && (w >>> 16 & 0x1f) == rt(w)) {
+                ir.remove(i);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /** {@code add/sub xN, xN, #0}, including {@code mov sp, sp}; adds/subs set flags and stay. */
+    static final class AddZero implements PeepholeRule {
+        @Override
+        public String name() {
+            return "add-zero";
+        }
+
+        @Override
+        public boolean apply(InstructionList ir, int i) {
+            int w = ir.word(i);
+            if ((w & 0xbfbffc00) == 0x91000000 && rn(w) == rt(w)) {
+                ir.remove(i);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /** {@code str xA, [xB, #n]; ldr xC, [xB, #n]} becomes {@code str; mov xC, xA} (nothing if C is A). */
+    static final class StoreReload implements PeepholeRule {
+        @Override
+        public String name() {
+            return "store-reload";
+        }
+
+        @Override
+        public boolean apply(InstructionList ir, int i) {
+            int st = ir.word(i);
+            int j = nextInstruction(ir, i);
+            if (j < 0 || !isLdstWord(st, Encoding.OPC_STORE)) {
+                return false;
+            }
+            int ld = ir.word(j);
+            // Same size, base and offset: only the opc field differs.
+            if (!isLdstWord(ld, Encoding.OPC_LOAD) || (ld & ~0xc0001f) != (st & ~0xc0001f) || rt(ld) == 31) {
+                return false;
+            }
+            if (rt(ld) == rt(st)) {
+                ir.remove(j);
+            } else {
+                int mov = Encoding.logShift(Encoding.ORR_SHIFT, ldstReg(ld, rt(ld)), ldstReg(ld, 31), ldstReg(ld, rt(st)), 0, 0);
+                ir.set(j, INST_ORR_LOG_SHIFT.ordinal(), mov, 0, InstructionList.NO_FIXUP);
+            }
+            return true;
+        }
+    }
+
+    /** {@code cmp xN, #0; b.eq/b.ne label} becomes {@code cbz/cbnz xN, label} if the flags are dead after it. */
+    static final class CmpZeroBranch implements PeepholeRule {
+        @Override
+        public String name() {
+            return "cmp-zero-branch";
+        }
+
+        @Override
+        public boolean apply(InstructionList ir, int i) {
+            int cmp = ir.word(i);
+            int j = nextInstruction(ir, i);
+            if (j < 0 || (cmp & 0x7ffffc1f) != 0x7100001f || rn(cmp) == 31) {
+                return false;
+            }
+            int b = ir.word(j);
+            if ((b & 0xff00001e) != Encoding.B_COND || ir.label(j) == 0 || !flagsDeadAfter(ir, j)) {
+                return false;
+            }
+            boolean eq = (b & 0xf) == 0;
+            int rt = (cmp < 0 ? REG_GPR : REG_GPT) | rn(cmp);
+            ir.set(i, (eq ? INST_CBZ_COMPBRANCH : INST_CBNZ_COMPBRANCH).ordinal(),
+                    Encoding.compBranch(eq ? Encoding.CBZ : Encoding.CBNZ, rt, 0), ir.label(j), ir.kind(j));
+            ir.remove(j);
+            return true;
+        }
+    }
+
+    /** {@code ldr xA, [xB, #n]; ldr xC, [xB, #n+8]} (either order) becomes {@code ldp xA, xC, [xB, #n]}. */
+    static final class LoadPair implements PeepholeRule {
+        @Override
+        public String name() {
+            return "load-pair";
+        }
+
+        @Override
+        public boolean apply(InstructionList ir, int i) {
+            int first = ir.word(i);
+            int j = nextInstruction(ir, i);
+            if (j < 0 || !isLdstWord(first, Encoding.OPC_LOAD)) {
+                return false;
+            }
+            int second = ir.word(j);
+            if (!isLdstWord(second, Encoding.OPC_LOAD) || (second >>> 30) != (first >>> 30) || rn(second) != rn(first)
+                    || rt(first) == rn(first) || rt(first) == rt(second)) {
+                return false;
+            }
+            int delta = (second >>> 10 & 0xfff) - (first >>> 10 & 0xfff);
+            if (delta != 1 && delta != -1) {
+                return false;
+            }
+            int lo = delta == 1 ? first : second;
+            int hi = delta == 1 ? second : first;
+            long offset = (long) (lo >>> 10 & 0xfff) << (lo >>> 30);
+            int rt = ldstReg(lo, rt(lo));
+            if (!Encoding.isPairOffset(rt, offset)) {
+                return false;
+            }
+            ir.set(i, INST_LDP_LDSTPAIR_OFF_LDST_POS.ordinal(),
+                    Encoding.ldstPair(Encoding.PAIR_OFFSET, true, rt, ldstReg(hi, rt(hi)), REG_GPR | rn(lo), offset), 0,
+                    InstructionList.NO_FIXUP);
+            ir.remove(j);
+            return true;
+        }
+    }
+}
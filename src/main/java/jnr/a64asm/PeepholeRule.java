@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2018 Ossdev07
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.a64asm;
+
+/**
+ * A local rewrite applied by {@link PeepholeOptimizer} at each recorded
+ * instruction.
+ */
+public interface PeepholeRule {
+    //! @brief Name the hit count of this rule is reported under.
+    String name();
+
+    /**
+     * Rewrites the instructions starting at entry @a i of @a ir if they match,
+     * removing entries with {@link InstructionList#remove}.
+     *
+     * @return @c true if the rule matched.
+     */
+    boolean apply(InstructionList ir, int i);
+}
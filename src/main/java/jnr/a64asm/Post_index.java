@@ -17,7 +17,7 @@
  */
 
 package jnr.a64asm;
-//import static jnr.a64asm.REG.*;
+import static jnr.a64asm.REG.*;
 
 public final class Post_index extends Operand {
     private final Immediate postIndex;
@@ -37,4 +37,20 @@ public final class Post_index extends Operand {
         return basereg;
     }
 
+    /** Shared instances per 64 bit base register, for offsets -512 to 511. */
+    private static final OperandCache<Post_index> cache = new OperandCache<Post_index>(32, -512, 511) {
+        @Override
+        Post_index create(int row, long postIndex) {
+            return new Post_index(Register.gpb(row), Immediate.imm(postIndex));
+        }
+    };
+
+    /** Returns a shared post-indexed addressing of @a base by @a postIndex bytes. */
+    public static final Post_index of(Register base, long postIndex) {
+        if (base.type() != REG_GPR) {
+            return new Post_index(base, Immediate.imm(postIndex));
+        }
+        return cache.get(base.index(), postIndex);
+    }
+
 }
@@ -18,6 +18,8 @@
 
 package jnr.a64asm;
 
+import static jnr.a64asm.REG.*;
+
 public final class Pre_index extends Operand {
     private final Immediate preIndex;
     private final Register basereg;
@@ -36,4 +38,20 @@ public final class Pre_index extends Operand {
         return basereg;
     }
 
+    /** Shared instances per 64 bit base register, for offsets -512 to 511. */
+    private static final OperandCache<Pre_index> cache = new OperandCache<Pre_index>(32, -512, 511) {
+        @Override
+        Pre_index create(int row, long preIndex) {
+            return new Pre_index(Register.gpb(row), Immediate.imm(preIndex));
+        }
+    };
+
+    /** Returns a shared pre-indexed addressing of @a base by @a preIndex bytes. */
+    public static final Pre_index of(Register base, long preIndex) {
+        if (base.type() != REG_GPR) {
+            return new Pre_index(base, Immediate.imm(preIndex));
+        }
+        return cache.get(base.index(), preIndex);
+    }
+
 }
@@ -21,9 +21,9 @@ package jnr.a64asm;
 public class REG {
     private REG() {}
     //! @brief Mask for register type.
-    public static final int REGTYPE_MASK = 0xF0,
+    public static final int REGTYPE_MASK = 0xE0,
     //! @brief Mask for register code (index).
-    REGCODE_MASK = 0x0F,
+    REGCODE_MASK = 0x1F,
     //! @brief 64 bit general purpose register type.
     REG_GPR = 0x00,
     //! @brief 32 bit general purpose register type.
@@ -93,5 +93,6 @@ public class REG {
     REG_W28 = REG_GPT + 28,
     REG_W29 = REG_GPT + 29, //frame pointer
     REG_W30 = REG_GPT + 30,  // link register
+    REG_W31 = REG_GPT + 31,
     NO_REG = 0xFF;
 }
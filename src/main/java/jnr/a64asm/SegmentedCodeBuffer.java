@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2018 Ossdev07
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.a64asm;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Code buffer made of fixed-size segments.
+ *
+ * Growing appends a new segment, so code that has already been emitted is
+ * never copied. Random access and {@link #copyTo} work across segment
+ * boundaries.
+ */
+final class SegmentedCodeBuffer extends CodeBuffer {
+    private final int segmentShift;
+    private final int segmentMask;
+    private final CodeStorage storage;
+    private ByteBuffer[] segments;
+    private int segmentCount;
+    /** Segment currently being emitted into, and its index. */
+    private ByteBuffer current;
+    private int currentIndex;
+
+    /**
+     * @param segmentSize size of one segment in bytes, a power of two of at least 16.
+     * @param capacity number of bytes to preallocate segments for.
+     * @param storage where the segments are allocated.
+     */
+    SegmentedCodeBuffer(int segmentSize, int capacity, CodeStorage storage) {
+        if (segmentSize < 16 || Integer.bitCount(segmentSize) != 1) {
+            throw new IllegalArgumentException("segment size must be a power of two of at least 16: " + segmentSize);
+        }
+        this.segmentShift = Integer.numberOfTrailingZeros(segmentSize);
+        this.segmentMask = segmentSize - 1;
+        this.storage = storage;
+        this.segments = new ByteBuffer[Math.max(1, (capacity + segmentMask) >>> segmentShift)];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = newSegment();
+        }
+        this.segmentCount = segments.length;
+        this.current = segments[0];
+    }
+
+    private ByteBuffer newSegment() {
+        return storage.allocate(segmentMask + 1);
+    }
+
+    /** Moves emission to the next segment, appending one if needed. */
+    private void nextSegment() {
+        int next = currentIndex + 1;
+        if (next == segmentCount) {
+            if (segmentCount == segments.length) {
+                ByteBuffer[] grown = new ByteBuffer[segments.length * 2];
+                System.arraycopy(segments, 0, grown, 0, segmentCount);
+                segments = grown;
+            }
+            segments[segmentCount++] = newSegment();
+        }
+        current = segments[next];
+        currentIndex = next;
+    }
+
+    @Override
+    void copyTo(ByteBuffer dst) {
+        for (int i = 0; i <= currentIndex; i++) {
+            ByteBuffer dup = segments[i].duplicate();
+            dup.flip();
+            dst.put(dup);
+        }
+    }
+
+    @Override
+    ByteBuffer view() {
+        if (currentIndex != 0) {
+            throw new IllegalStateException("code spans " + (currentIndex + 1) + " segments");
+        }
+        ByteBuffer dup = current.duplicate();
+        dup.flip();
+        return dup.slice().order(current.order());
+    }
+
+    @Override
+    public int offset() {
+        return (currentIndex << segmentShift) + current.position();
+    }
+
+    @Override
+    public int capacity() {
+        return segmentCount << segmentShift;
+    }
+
+    @Override
+    public void emitByte(byte x) {
+        if (!current.hasRemaining()) {
+            nextSegment();
+        }
+        current.put(x);
+    }
+
+    @Override
+    public void emitWord(short x) {
+        if (current.remaining() >= 2) {
+            current.putShort(x);
+        } else {
+            emitBytes(x, 2);
+        }
+    }
+
+    @Override
+    public void emitDWord(int x) {
+        if (current.remaining() >= 4) {
+            current.putInt(x);
+        } else {
+            emitBytes(x, 4);
+        }
+    }
+
+    @Override
+    public void emitQWord(long x) {
+        if (current.remaining() >= 8) {
+            current.putLong(x);
+        } else {
+            emitBytes(x, 8);
+        }
+    }
+
+    /** Emits the low @a size bytes of @a x, little-endian, across a segment boundary. */
+    private void emitBytes(long x, int size) {
+        for (int i = 0; i < size; i++) {
+            emitByte((byte) (x >>> (i * 8)));
+        }
+    }
+
+    @Override
+    public void emitData(ByteBuffer data, int len) {
+        ByteBuffer dup = data.duplicate();
+        if (dup.remaining() > len) {
+            dup.limit(dup.position() + len);
+        }
+        while (dup.hasRemaining()) {
+            if (!current.hasRemaining()) {
+                nextSegment();
+            }
+            int n = Math.min(dup.remaining(), current.remaining());
+            ByteBuffer chunk = dup.duplicate();
+            chunk.limit(chunk.position() + n);
+            current.put(chunk);
+            dup.position(dup.position() + n);
+        }
+    }
+
+    private long getBytesAt(int pos, int size) {
+        long x = 0;
+        for (int i = 0; i < size; i++) {
+            x |= (getByteAt(pos + i) & 0xffL) << (i * 8);
+        }
+        return x;
+    }
+
+    private void setBytesAt(int pos, long x, int size) {
+        for (int i = 0; i < size; i++) {
+            setByteAt(pos + i, (byte) (x >>> (i * 8)));
+        }
+    }
+
+    @Override
+    public byte getByteAt(int pos) {
+        return segments[pos >>> segmentShift].get(pos & segmentMask);
+    }
+
+    @Override
+    public short getWordAt(int pos) {
+        int off = pos & segmentMask;
+        return off + 2 <= segmentMask + 1 ? segments[pos >>> segmentShift].getShort(off) : (short) getBytesAt(pos, 2);
+    }
+
+    @Override
+    public int getDWordAt(int pos) {
+        int off = pos & segmentMask;
+        return off + 4 <= segmentMask + 1 ? segments[pos >>> segmentShift].getInt(off) : (int) getBytesAt(pos, 4);
+    }
+
+    @Override
+    public long getQWordAt(int pos) {
+        int off = pos & segmentMask;
+        return off + 8 <= segmentMask + 1 ? segments[pos >>> segmentShift].getLong(off) : getBytesAt(pos, 8);
+    }
+
+    @Override
+    public void setByteAt(int pos, byte x) {
+        segments[pos >>> segmentShift].put(pos & segmentMask, x);
+    }
+
+    @Override
+    public void setWordAt(int pos, short x) {
+        int off = pos & segmentMask;
+        if (off + 2 <= segmentMask + 1) {
+            segments[pos >>> segmentShift].putShort(off, x);
+        } else {
+            setBytesAt(pos, x, 2);
+        }
+    }
+
+    @Override
+    public void setDWordAt(int pos, int x) {
+        int off = pos & segmentMask;
+        if (off + 4 <= segmentMask + 1) {
+            segments[pos >>> segmentShift].putInt(off, x);
+        } else {
+            setBytesAt(pos, x, 4);
+        }
+    }
+
+    @Override
+    public void setQWordAt(int pos, long x) {
+        int off = pos & segmentMask;
+        if (off + 8 <= segmentMask + 1) {
+            segments[pos >>> segmentShift].putLong(off, x);
+        } else {
+            setBytesAt(pos, x, 8);
+        }
+    }
+}
@@ -35,6 +35,9 @@ public abstract class SerializerIntrinsics_a64 extends SerializerCore {
     public final void   add(Register Xd, Register Xn, Immediate val, Shift sft){
         emitA64(INST_ADD_ADDSUB_IMM, Xd, Xn, val, sft);
     }
+    public final void   add(Register Xd, Register Xn, Immediate val){
+        emitA64(INST_ADD_ADDSUB_IMM, Xd, Xn, val);
+    }
     public final void   add(Register Xd, Register Xn, Register Xm, Shift sft){
         emitA64(INST_ADD_ADDSUB_SHIFT, Xd, Xn, Xm, sft);
     }
@@ -47,6 +50,9 @@ public abstract class SerializerIntrinsics_a64 extends SerializerCore {
     public final void   adds(Register Xd, Register Xn, Immediate val, Shift sft){
         emitA64(INST_ADDS_ADDSUB_IMM, Xd, Xn, val, sft);
     }
+    public final void   adds(Register Xd, Register Xn, Immediate val){
+        emitA64(INST_ADDS_ADDSUB_IMM, Xd, Xn, val);
+    }
     public final void   adds(Register Xd, Register Xn, Register Xm, Shift sft){
         emitA64(INST_ADDS_ADDSUB_SHIFT, Xd, Xn, Xm, sft);
     }
@@ -80,15 +86,27 @@ public abstract class SerializerIntrinsics_a64 extends SerializerCore {
     public final void   b(Immediate Xd){
         emitA64(INST_B_BRANCH_IMM, Xd);
     }
+    public final void   b(Label label){
+        emitA64(INST_B_BRANCH_IMM, label);
+    }
     public final void   bcc(Immediate Xd){
         emitA64(INST_BCC_CONDBRANCH, Xd);
     }
+    public final void   bcc(Label label){
+        emitA64(INST_BCC_CONDBRANCH, label);
+    }
     public final void   bcs(Immediate Xd){
         emitA64(INST_BCS_CONDBRANCH, Xd);
     }
+    public final void   bcs(Label label){
+        emitA64(INST_BCS_CONDBRANCH, label);
+    }
     public final void   beq(Immediate imm19){
         emitA64(INST_BEQ_CONDBRANCH, imm19);
     }
+    public final void   beq(Label label){
+        emitA64(INST_BEQ_CONDBRANCH, label);
+    }
     public final void   bfi(Register Xd, Register Xn, Immediate val, Immediate width){
         emitA64(INST_BFI_BITFIELD, Xd, Xn, val, width);
     }
@@ -101,15 +119,27 @@ public abstract class SerializerIntrinsics_a64 extends SerializerCore {
     public final void   bge(Immediate label){
         emitA64(INST_BGE_CONDBRANCH, label);
     }
+    public final void   bge(Label label){
+        emitA64(INST_BGE_CONDBRANCH, label);
+    }
     public final void   bgt(Immediate label){
         emitA64(INST_BGT_CONDBRANCH, label);
     }
+    public final void   bgt(Label label){
+        emitA64(INST_BGT_CONDBRANCH, label);
+    }
     public final void   bhi(Immediate label){
         emitA64(INST_BHI_CONDBRANCH , label);
     }
+    public final void   bhi(Label label){
+        emitA64(INST_BHI_CONDBRANCH, label);
+    }
     public final void   bhs(Immediate label){
         emitA64(INST_BHS_CONDBRANCH, label);
     }
+    public final void   bhs(Label label){
+        emitA64(INST_BHS_CONDBRANCH, label);
+    }
     public final void   bic(Register Xd, Register Xn, Register Xm, Shift sft){
         emitA64(INST_BIC_LOG_SHIFT, Xd, Xn, Xm, sft);
     }
@@ -119,30 +149,54 @@ public abstract class SerializerIntrinsics_a64 extends SerializerCore {
     public final void   bl(Immediate label){
         emitA64(INST_BL_BRANCH_IMM, label);
     }
+    public final void   bl(Label label){
+        emitA64(INST_BL_BRANCH_IMM, label);
+    }
     public final void   ble(Immediate label){
         emitA64(INST_BLE_CONDBRANCH, label);
     }
+    public final void   ble(Label label){
+        emitA64(INST_BLE_CONDBRANCH, label);
+    }
     public final void   blo(Immediate label){
         emitA64(INST_BLO_CONDBRANCH, label);
     }
+    public final void   blo(Label label){
+        emitA64(INST_BLO_CONDBRANCH, label);
+    }
     public final void   blr(Register Xn){
         emitA64(INST_BLR_BRANCH_REG, Xn);
     }
     public final void   bls(Immediate label){
         emitA64(INST_BLS_CONDBRANCH, label);
     }
+    public final void   bls(Label label){
+        emitA64(INST_BLS_CONDBRANCH, label);
+    }
     public final void   blt(Immediate label){
         emitA64(INST_BLT_CONDBRANCH, label);
     }
+    public final void   blt(Label label){
+        emitA64(INST_BLT_CONDBRANCH, label);
+    }
     public final void   bmi(Immediate label){
         emitA64(INST_BMI_CONDBRANCH, label);
     }
+    public final void   bmi(Label label){
+        emitA64(INST_BMI_CONDBRANCH, label);
+    }
     public final void   bne(Immediate label){
         emitA64(INST_BNE_CONDBRANCH, label);
     }
+    public final void   bne(Label label){
+        emitA64(INST_BNE_CONDBRANCH, label);
+    }
     public final void   bpl(Immediate label){
         emitA64(INST_BPL_CONDBRANCH, label);
     }
+    public final void   bpl(Label label){
+        emitA64(INST_BPL_CONDBRANCH, label);
+    }
     public final void   br(Register Xn){
         emitA64(INST_BR_BRANCH_REG, Xn);
     }
@@ -152,9 +206,15 @@ public abstract class SerializerIntrinsics_a64 extends SerializerCore {
     public final void   bvc(Immediate label){
         emitA64(INST_BVC_CONDBRANCH, label);
     }
+    public final void   bvc(Label label){
+        emitA64(INST_BVC_CONDBRANCH, label);
+    }
     public final void   bvs(Immediate label){
         emitA64(INST_BVS_CONDBRANCH, label);
     }
+    public final void   bvs(Label label){
+        emitA64(INST_BVS_CONDBRANCH, label);
+    }
     public final void   cbnz(Register Xn, Label label){
         emitA64(INST_CBNZ_COMPBRANCH, Xn, label);
     }
@@ -194,6 +254,9 @@ public abstract class SerializerIntrinsics_a64 extends SerializerCore {
     public final void   cmn(Register Xd, Immediate val, Shift sft){
         emitA64(INST_CMN_ADDSUB_IMM, Xd, val, sft);
     }
+    public final void   cmn(Register Xd, Immediate val){
+        emitA64(INST_CMN_ADDSUB_IMM, Xd, val);
+    }
     public final void   cmn(Register Xd, Register Xn, Shift sft){
         emitA64(INST_CMN_ADDSUB_SHIFT, Xd, Xn, sft);
     }
@@ -203,6 +266,9 @@ public abstract class SerializerIntrinsics_a64 extends SerializerCore {
     public final void   cmp(Register Xd, Immediate val, Shift sft){
         emitA64(INST_CMP_ADDSUB_IMM, Xd, val, sft);
     }
+    public final void   cmp(Register Xd, Immediate val){
+        emitA64(INST_CMP_ADDSUB_IMM, Xd, val);
+    }
     public final void   cmp(Register Xd, Register Xn, Shift sft){
         emitA64(INST_CMP_ADDSUB_SHIFT, Xd, Xn, sft);
     }
@@ -333,7 +399,10 @@ public abstract class SerializerIntrinsics_a64 extends SerializerCore {
         emitA64(INST_LDR_REG, Xd, location);
     }
     public final void   ldr(Register Xd, Immediate label){
-        emitA64(INST_LDR_LOADLIT, label);
+        emitA64(INST_LDR_LOADLIT, Xd, label);
+    }
+    public final void   ldr(Register Xd, Label label){
+        emitA64(INST_LDR_LOADLIT, Xd, label);
     }
     public final void   ldrb(Register Xd, Mem location, Immediate val){
         emitA64(INST_LDRB_IMM_POST, Xd, location, val);
@@ -396,7 +465,7 @@ public abstract class SerializerIntrinsics_a64 extends SerializerCore {
         emitA64(INST_LDRSW_REG, Xd, location);
     }
     public final void   ldrsw(Register Xd, Label label){
-        emitA64(INST_LDRSW_LOADLIT, label);
+        emitA64(INST_LDRSW_LOADLIT, Xd, label);
     }
     public final void   ldtr(Register Xd, Mem location){
         emitA64(INST_LDTR_LDST_UNPRIV, Xd, location);
@@ -656,6 +725,9 @@ public abstract class SerializerIntrinsics_a64 extends SerializerCore {
     public final void   str(Register Xd, Offset offset){
         emitA64(INST_STR_LDST_POS, Xd, offset);
     }
+    public final void   str(Register Xd, Mem location){
+        emitA64(INST_STR_LDST_REGOFF, Xd, location);
+    }
     public final void   str(Register Xt, Register Xn, Register Xm, Ext ext){
         emitA64(INST_STR_LDST_REGOFF, Xt, Xn, Xm, ext);
     }
@@ -668,6 +740,9 @@ public abstract class SerializerIntrinsics_a64 extends SerializerCore {
     public final void   strb(Register Xd, Offset offset){
         emitA64(INST_STRB_LDST_OFFSET, Xd, offset);
     }
+    public final void   strb(Register Xd, Mem location){
+        emitA64(INST_STRB_LDST_REGOFF, Xd, location);
+    }
     public final void   strb(Register Wt, Register Xn, Register Rm, Ext ext){
         emitA64(INST_STRB_LDST_REGOFF, Wt, Xn, Rm, ext);
     }
@@ -680,6 +755,9 @@ public abstract class SerializerIntrinsics_a64 extends SerializerCore {
     public final void   strh(Register Xd, Offset offset){
         emitA64(INST_STRH_LDST_IMM_OFF, Xd, offset);
     }
+    public final void   strh(Register Xd, Mem location){
+        emitA64(INST_STRH_LDST_REGOFF, Xd, location);
+    }
     public final void   strh(Register Xd, Register Xn, Register Xm, Ext ext){
         emitA64(INST_STRH_LDST_REGOFF, Xd, Xn, Xm, ext);
     }
@@ -719,6 +797,9 @@ public abstract class SerializerIntrinsics_a64 extends SerializerCore {
     public final void   sub(Register Xd, Register Xn, Immediate val, Shift sft){
         emitA64(INST_SUB_ADDSUB_IMM, Xd, Xn, val, sft);
     }
+    public final void   sub(Register Xd, Register Xn, Immediate val){
+        emitA64(INST_SUB_ADDSUB_IMM, Xd, Xn, val);
+    }
     public final void   sub(Register Xd, Register Xn, Register Xm, Shift sft){
         emitA64(INST_SUB_ADDSUB_SHIFT, Xd, Xn, Xm, sft);
     }
@@ -728,6 +809,9 @@ public abstract class SerializerIntrinsics_a64 extends SerializerCore {
     public final void   subs(Register Xd, Register Xn, Immediate val, Shift sft){
         emitA64(INST_SUBS_ADDSUB_IMM, Xd, Xn, val, sft);
     }
+    public final void   subs(Register Xd, Register Xn, Immediate val){
+        emitA64(INST_SUBS_ADDSUB_IMM, Xd, Xn, val);
+    }
     public final void   subs(Register Xd, Register Xn, Register Xm, Shift sft){
         emitA64(INST_SUBS_ADDSUB_SHIFT, Xd, Xn, Xm, sft);
     }
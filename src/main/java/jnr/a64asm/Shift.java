@@ -36,4 +36,39 @@ public final class Shift extends Operand {
         return type;
     }
 
+    private static final Shift[] cache = new Shift[4 * 64];
+
+    static {
+        for (int type = 0; type < 4; type++) {
+            for (int value = 0; value < 64; value++) {
+                cache[type * 64 + value] = new Shift(type, value);
+            }
+        }
+    }
+
+    /** Returns the shared shift of @a type (see {@link SHIFT_ENUM}) by @a value bits. */
+    public static final Shift of(int type, int value) {
+        if (type >= 0 && type < 4 && value >= 0 && value < 64) {
+            return cache[type * 64 + value];
+        }
+        return new Shift(type, value);
+    }
+
+    public static final Shift lsl(int value) {
+        return of(SHIFT_ENUM.LSL, value);
+    }
+
+    public static final Shift lsr(int value) {
+        return of(SHIFT_ENUM.LSR, value);
+    }
+
+    public static final Shift asr(int value) {
+        return of(SHIFT_ENUM.ASR, value);
+    }
+
+    /** Rotate right; valid for the logical (shifted register) instructions only. */
+    public static final Shift ror(int value) {
+        return of(SHIFT_ENUM.RESERVED, value);
+    }
+
 }
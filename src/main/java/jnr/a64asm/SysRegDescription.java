@@ -18,16 +18,14 @@
 
 package jnr.a64asm;
 
-import java.util.EnumMap;
-import java.util.Map;
 import static jnr.a64asm.SYSREG_CODE.*;
 
 public final class SysRegDescription {
     final SYSREG_CODE code;
     final int reg_code;
 
-    private static final Map<SYSREG_CODE, SysRegDescription> sysRegtable
-            = new EnumMap<SYSREG_CODE, SysRegDescription>(SYSREG_CODE.class);
+    /** Descriptions indexed by {@code SYSREG_CODE.ordinal()}. */
+    private static final SysRegDescription[] sysRegtable = new SysRegDescription[SYSREG_CODE.values().length];
 
     SysRegDescription(SYSREG_CODE code, int op0, int op1, int crn, int crm, int op2) {
         this.code = code;
@@ -37,19 +35,19 @@ public final class SysRegDescription {
 
     private static final SysRegDescription MAKE_SYSREGCODE(SYSREG_CODE code, int op0, int op1, int crn, int crm, int op2) {
         SysRegDescription id = new SysRegDescription(code, op0, op1, crn, crm, op2);
-        sysRegtable.put(code, id);
+        sysRegtable[code.ordinal()] = id;
         return id;
     }
 
     /* for 3.9.3 Instructions for Accessing Special Purpose Registers */
     private static final SysRegDescription MAKE_SYSREGCODE(SYSREG_CODE code, int op1, int crm, int op2) {
         SysRegDescription id = new SysRegDescription(code,3,(op1),4,(crm),(op2));
-        sysRegtable.put(code, id);
+        sysRegtable[code.ordinal()] = id;
         return id;
     }
 
     public static final SysRegDescription find(SYSREG_CODE code) {
-        SysRegDescription id = sysRegtable.get(code);
+        SysRegDescription id = sysRegtable[code.ordinal()];
         if (id == null) {
             throw new IllegalArgumentException("no description for " + code);
         }
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2018 Ossdev07
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.a64asm;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Code buffer backed by an {@code int[]} of little-endian instruction words.
+ *
+ * Aligned 32-bit words are stored and patched with a plain array access.
+ * Byte-level emission is still supported for data; it fills partial words.
+ */
+final class WordCodeBuffer extends CodeBuffer {
+    private final GrowthPolicy growth;
+    private int[] words;
+    /** Number of bytes emitted. */
+    private int size;
+
+    WordCodeBuffer(int capacity, GrowthPolicy growth) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("negative capacity " + capacity);
+        }
+        this.growth = growth;
+        this.words = new int[(capacity + 3) >>> 2];
+    }
+
+    /** Makes sure at least @a n more bytes can be emitted without growing. */
+    private void ensureSpace(int n) {
+        if (((long) words.length << 2) - size < n) {
+            int newSize = growth.newCapacity(words.length << 2, size + n);
+            int[] newWords = new int[(newSize + 3) >>> 2];
+            System.arraycopy(words, 0, newWords, 0, (size + 3) >>> 2);
+            words = newWords;
+        }
+    }
+
+    @Override
+    void copyTo(ByteBuffer dst) {
+        ByteBuffer le = dst.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int full = size >>> 2;
+        le.asIntBuffer().put(words, 0, full);
+        le.position(le.position() + (full << 2));
+        for (int pos = full << 2; pos < size; pos++) {
+            le.put(getByteAt(pos));
+        }
+        dst.position(le.position());
+    }
+
+    /** Word storage has no byte view of its memory, so this returns a copy. */
+    @Override
+    ByteBuffer view() {
+        ByteBuffer buf = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        copyTo(buf);
+        buf.flip();
+        return buf;
+    }
+
+    @Override
+    public int offset() {
+        return size;
+    }
+
+    @Override
+    public int capacity() {
+        return words.length << 2;
+    }
+
+    @Override
+    public void emitWord32(int x) {
+        if ((size & 3) != 0) {
+            emitDWord(x);
+            return;
+        }
+        int index = size >>> 2;
+        if (index == words.length) {
+            ensureSpace(4);
+        }
+        words[index] = x;
+        size += 4;
+    }
+
+    @Override
+    public void emitWords(int[] src, int off, int len) {
+        if ((size & 3) != 0) {
+            super.emitWords(src, off, len);
+            return;
+        }
+        ensureSpace(len << 2);
+        System.arraycopy(src, off, words, size >>> 2, len);
+        size += len << 2;
+    }
+
+    @Override
+    public int getWord32(int index) {
+        return words[index];
+    }
+
+    @Override
+    public void setWord32(int index, int x) {
+        words[index] = x;
+    }
+
+    @Override
+    public void emitByte(byte x) {
+        ensureSpace(1);
+        setByteAt(size++, x);
+    }
+
+    @Override
+    public void emitWord(short x) {
+        ensureSpace(2);
+        size += 2;
+        setWordAt(size - 2, x);
+    }
+
+    @Override
+    public void emitDWord(int x) {
+        ensureSpace(4);
+        size += 4;
+        setDWordAt(size - 4, x);
+    }
+
+    @Override
+    public void emitQWord(long x) {
+        ensureSpace(8);
+        size += 8;
+        setQWordAt(size - 8, x);
+    }
+
+    @Override
+    public void emitData(ByteBuffer data, int len) {
+        ByteBuffer dup = data.duplicate();
+        if (dup.remaining() > len) {
+            dup.limit(dup.position() + len);
+        }
+        ensureSpace(dup.remaining());
+        while (dup.hasRemaining()) {
+            setByteAt(size++, dup.get());
+        }
+    }
+
+    @Override
+    public byte getByteAt(int pos) {
+        return (byte) (words[pos >>> 2] >>> ((pos & 3) << 3));
+    }
+
+    @Override
+    public short getWordAt(int pos) {
+        return (short) (getByteAt(pos) & 0xff | getByteAt(pos + 1) << 8);
+    }
+
+    @Override
+    public int getDWordAt(int pos) {
+        if ((pos & 3) == 0) {
+            return words[pos >>> 2];
+        }
+        return getWordAt(pos) & 0xffff | getWordAt(pos + 2) << 16;
+    }
+
+    @Override
+    public long getQWordAt(int pos) {
+        return getDWordAt(pos) & 0xffffffffL | (long) getDWordAt(pos + 4) << 32;
+    }
+
+    @Override
+    public void setByteAt(int pos, byte x) {
+        int shift = (pos & 3) << 3;
+        int index = pos >>> 2;
+        words[index] = words[index] & ~(0xff << shift) | (x & 0xff) << shift;
+    }
+
+    @Override
+    public void setWordAt(int pos, short x) {
+        setByteAt(pos, (byte) x);
+        setByteAt(pos + 1, (byte) (x >> 8));
+    }
+
+    @Override
+    public void setDWordAt(int pos, int x) {
+        if ((pos & 3) == 0) {
+            words[pos >>> 2] = x;
+        } else {
+            setWordAt(pos, (short) x);
+            setWordAt(pos + 2, (short) (x >>> 16));
+        }
+    }
+
+    @Override
+    public void setQWordAt(int pos, long x) {
+        setDWordAt(pos, (int) x);
+        setDWordAt(pos + 4, (int) (x >>> 32));
+    }
+}
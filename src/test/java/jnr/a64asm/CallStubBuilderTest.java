@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2018 Ossdev07
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.a64asm;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import jnr.a64asm.CallStubBuilder.Type;
+
+import static jnr.a64asm.CallStubBuilder.Type.*;
+import static jnr.a64asm.Words.words;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class CallStubBuilderTest {
+    // Unresolved calls to the target, see Assembler_A64.relocCode.
+    private static final int B = 0x14000000, BL = 0x94000000;
+
+    private CallStubBuilder builder;
+
+    @Before
+    public void setUp() {
+        builder = new CallStubBuilder();
+    }
+
+    private int[] stub(Type result, Type... params) {
+        Assembler_A64 a = new Assembler_A64(CPU_A64.A64);
+        builder.emit(a, 0x10000, result, params);
+        return words(a);
+    }
+
+    private static Type[] longs(int n) {
+        Type[] t = new Type[n];
+        Arrays.fill(t, SINT64);
+        return t;
+    }
+
+    @Test
+    public void registerArgumentsTailCall() {
+        assertArrayEquals(new int[] {
+            0xaa0203e0,     // mov x0, x2
+            0xaa0303e1,     // mov x1, x3
+            B,              // d0 and s1 are in place already
+        }, stub(SINT64, SINT32, POINTER, DOUBLE, FLOAT));
+        assertArrayEquals(new int[] { B }, stub(SINT32));
+    }
+
+    @Test
+    public void narrowResultsAreExtended() {
+        assertArrayEquals(new int[] {
+            0xa9bf7bfd,     // stp x29, x30, [sp, #-16]!
+            0xaa0203e0,     // mov x0, x2
+            BL,
+            0x13001c00,     // sxtb w0, w0
+            0xa8c17bfd,     // ldp x29, x30, [sp], #16
+            0xd65f03c0,     // ret
+        }, stub(SINT8, SINT32));
+        assertArrayEquals(new int[] {
+            0xa9bf7bfd,     // stp x29, x30, [sp, #-16]!
+            BL,
+            0x53003c00,     // uxth w0, w0
+            0xa8c17bfd,     // ldp x29, x30, [sp], #16
+            0xd65f03c0,     // ret
+        }, stub(UINT16));
+        assertArrayEquals(new int[] {
+            0xa9bf7bfd,     // stp x29, x30, [sp, #-16]!
+            BL,
+            0x2a0003e0,     // mov w0, w0
+            0xa8c17bfd,     // ldp x29, x30, [sp], #16
+            0xd65f03c0,     // ret
+        }, stub(UINT32));
+    }
+
+    @Test
+    public void smallStructAndHfaArgumentsAreLoaded() {
+        assertArrayEquals(new int[] {
+            0x2d400460,     // ldp s0, s1, [x3]
+            0xbd400862,     // ldr s2, [x3, #8]
+            0xf9400040,     // ldr x0, [x2]
+            0xb9400841,     // ldr w1, [x2, #8]
+            B,
+        }, stub(VOID, Type.struct(12, 4), Type.hfa(FLOAT, 3)));
+    }
+
+    @Test
+    public void structResultIsStoredThroughPassedAddress() {
+        assertArrayEquals(new int[] {
+            0xa9be7bfd,     // stp x29, x30, [sp, #-32]!
+            0xf9000be2,     // str x2, [sp, #16]
+            0xaa0303e0,     // mov x0, x3
+            BL,
+            0xf9400bf0,     // ldr x16, [sp, #16]
+            0xf9000200,     // str x0, [x16]
+            0xb9000a01,     // str w1, [x16, #8]
+            0xa8c27bfd,     // ldp x29, x30, [sp], #32
+            0xd65f03c0,     // ret
+        }, stub(Type.struct(12, 4), SINT64));
+        assertArrayEquals(new int[] {
+            0xa9be7bfd,     // stp x29, x30, [sp, #-32]!
+            0xf9000be2,     // str x2, [sp, #16]
+            BL,
+            0xf9400bf0,     // ldr x16, [sp, #16]
+            0x6d000600,     // stp d0, d1, [x16]
+            0xa8c27bfd,     // ldp x29, x30, [sp], #32
+            0xd65f03c0,     // ret
+        }, stub(Type.hfa(DOUBLE, 2)));
+    }
+
+    @Test
+    public void largeStructIsPassedByReferenceToACopy() {
+        assertArrayEquals(new int[] {
+            0xa9bd7bfd,     // stp x29, x30, [sp, #-48]!
+            0xb9401050,     // ldr w16, [x2, #16]
+            0xb90023f0,     // str w16, [sp, #32]
+            0x39405050,     // ldrb w16, [x2, #20]
+            0x390093f0,     // strb w16, [sp, #36]
+            0xa9404450,     // ldp x16, x17, [x2]
+            0xa90147f0,     // stp x16, x17, [sp, #16]
+            0x910043e0,     // add x0, sp, #16
+            BL,
+            0xa8c37bfd,     // ldp x29, x30, [sp], #48
+            0xd65f03c0,     // ret
+        }, stub(VOID, Type.struct(21, 4)));
+    }
+
+    @Test
+    public void largeStructFromJavaStackIsCopiedThroughX9() {
+        Type[] params = Arrays.copyOf(longs(6), 7);
+        params[6] = Type.struct(20, 4);
+        assertArrayEquals(new int[] {
+            0xa9bd7bfd,     // stp x29, x30, [sp, #-48]!
+            0xf9401be9,     // ldr x9, [sp, #48]
+            0xf9400130,     // ldr x16, [x9]
+            0xf9000bf0,     // str x16, [sp, #16]
+            0xf9400530,     // ldr x16, [x9, #8]
+            0xf9000ff0,     // str x16, [sp, #24]
+            0xb9401130,     // ldr w16, [x9, #16]
+            0xb90023f0,     // str w16, [sp, #32]
+            0xaa0203e0,     // mov x0, x2
+            0xaa0303e1,     // mov x1, x3
+            0xaa0403e2,     // mov x2, x4
+            0xaa0503e3,     // mov x3, x5
+            0xaa0603e4,     // mov x4, x6
+            0xaa0703e5,     // mov x5, x7
+            0x910043e6,     // add x6, sp, #16
+            BL,
+            0xa8c37bfd,     // ldp x29, x30, [sp], #48
+            0xd65f03c0,     // ret
+        }, stub(VOID, params));
+    }
+
+    @Test
+    public void stackArgumentsOnBothSides() {
+        // Java passes the last four longs on the stack, C the last two.
+        assertArrayEquals(new int[] {
+            0xd10083ff,     // sub sp, sp, #32
+            0xa9017bfd,     // stp x29, x30, [sp, #16]
+            0xa94347f0,     // ldp x16, x17, [sp, #48]
+            0xa90047f0,     // stp x16, x17, [sp]
+            0xaa0203e0,     // mov x0, x2
+            0xaa0303e1,     // mov x1, x3
+            0xaa0403e2,     // mov x2, x4
+            0xaa0503e3,     // mov x3, x5
+            0xaa0603e4,     // mov x4, x6
+            0xaa0703e5,     // mov x5, x7
+            0xa9421fe6,     // ldp x6, x7, [sp, #32]
+            BL,
+            0xa9417bfd,     // ldp x29, x30, [sp, #16]
+            0x910083ff,     // add sp, sp, #32
+            0xd65f03c0,     // ret
+        }, stub(VOID, longs(10)));
+        assertArrayEquals(new int[] {
+            0xd10083ff,     // sub sp, sp, #32
+            0xa9017bfd,     // stp x29, x30, [sp, #16]
+            0xf94013f0,     // ldr x16, [sp, #32]
+            0xf90003f0,     // str x16, [sp]
+            BL,
+            0xa9417bfd,     // ldp x29, x30, [sp, #16]
+            0x910083ff,     // add sp, sp, #32
+            0xd65f03c0,     // ret
+        }, stub(VOID, DOUBLE, DOUBLE, DOUBLE, DOUBLE, DOUBLE, DOUBLE, DOUBLE, DOUBLE, DOUBLE));
+    }
+
+    @Test
+    public void farOutgoingArgumentsPushFramePointerFirst() {
+        // 64 C stack arguments take 512 bytes, beyond the reach of stp.
+        int[] w = stub(VOID, longs(72));
+        assertArrayEquals(new int[] {
+            0xa9bf7bfd,     // stp x29, x30, [sp, #-16]!
+            0xd10803ff,     // sub sp, sp, #512
+        }, Arrays.copyOfRange(w, 0, 2));
+        assertArrayEquals(new int[] {
+            BL,
+            0x910803ff,     // add sp, sp, #512
+            0xa8c17bfd,     // ldp x29, x30, [sp], #16
+            0xd65f03c0,     // ret
+        }, Arrays.copyOfRange(w, w.length - 4, w.length));
+    }
+
+    @Test
+    public void stubsAreCachedPerSignature() {
+        int[] first = stub(SINT64, SINT32, SINT32);
+        assertArrayEquals(first, stub(SINT64, SINT32, SINT32));
+        stub(SINT64, SINT64, SINT32);
+        assertEquals(2, builder.cachedSignatures());
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2018 Ossdev07
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.a64asm;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static jnr.a64asm.Words.words;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class Compiler_A64Test {
+    private Assembler_A64 a;
+    private Compiler_A64 c;
+
+    @Before
+    public void setUp() {
+        a = new Assembler_A64(CPU_A64.A64);
+        c = new Compiler_A64(a);
+    }
+
+    /** Records @a n 64 bit virtual registers holding 0 to n - 1, all live until used. */
+    private int[] constants(int n) {
+        int[] v = new int[n];
+        for (int i = 0; i < n; i++) {
+            v[i] = c.newGp(true);
+            c.loadConstant(v[i], i);
+        }
+        return v;
+    }
+
+    /** Returns the number of words in @a w matching @a pattern in the bits of @a mask. */
+    private static int count(int[] w, int mask, int pattern) {
+        int n = 0;
+        for (int word : w) {
+            if ((word & mask) == pattern) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    @Test
+    public void argumentAndResultHintsRemoveMoves() {
+        int x = c.arg(0), y = c.arg(1);
+        int sum = c.newGp(true);
+        c.addReg(sum, x, y);
+        c.ret(sum);
+        c.serialize();
+        assertArrayEquals(new int[] {
+            0x8b010000,     // add x0, x0, x1
+            0xd65f03c0,     // ret
+        }, words(a));
+        assertEquals(0, c.frameSize());
+    }
+
+    @Test
+    public void valueLiveAcrossCallIsCalleeSaved() {
+        int x = c.arg(0);
+        c.call(0x1000, 0);
+        c.ret(x);
+        c.serialize();
+        assertArrayEquals(new int[] {
+            0xa9bf7bf3,     // stp x19, x30, [sp, #-16]!
+            0xaa0003f3,     // mov x19, x0
+            0x94000000,     // bl 0x1000, resolved by relocCode
+            0xaa1303e0,     // mov x0, x19
+            0xa8c17bf3,     // ldp x19, x30, [sp], #16
+            0xd65f03c0,     // ret
+        }, words(a));
+        assertArrayEquals(new int[] { 19, 30 }, c.savedRegisters());
+        assertEquals(16, c.frameSize());
+        assertEquals(REG.REG_X19, c.physical(x));
+    }
+
+    @Test
+    public void consecutiveSpillStoresPairIntoStp() {
+        int[] v = constants(30);
+        int sum = c.newGp(true);
+        c.loadConstant(sum, 0);
+        for (int i = v.length - 1; i >= 0; i--) {
+            c.addReg(sum, sum, v[i]);
+        }
+        c.ret(sum);
+        c.serialize();
+        assertEquals(5, c.spilled());
+        assertEquals(128, c.frameSize());
+        // After the five stp saving x19-x28, the first five constants go to the frame.
+        assertArrayEquals(new int[] {
+            0xd2800010,     // mov x16, #0
+            0xb24003f1,     // mov x17, #1
+            0xa90547f0,     // stp x16, x17, [sp, #80]
+            0xb27f03f0,     // mov x16, #2
+            0xb24007f1,     // mov x17, #3
+            0xa90647f0,     // stp x16, x17, [sp, #96]
+            0xb27e03f0,     // mov x16, #4
+            0xf9003bf0,     // str x16, [sp, #112]
+        }, Arrays.copyOfRange(words(a), 5, 13));
+    }
+
+    @Test
+    public void adjacentSpilledOperandsReloadWithLdp() {
+        int[] v = constants(30);
+        int sum = c.newGp(true);
+        c.loadConstant(sum, 0);
+        for (int i = v.length - 1; i >= 2; i--) {
+            c.addReg(sum, sum, v[i]);
+        }
+        int pair = c.newGp(true);
+        c.addReg(pair, v[0], v[1]);
+        c.addReg(sum, sum, pair);
+        c.ret(sum);
+        c.serialize();
+        int[] w = words(a);
+        assertArrayEquals(new int[] {
+            0xa94543f1,     // ldp x17, x16, [sp, #80]
+            0x8b100229,     // add x9, x17, x16
+        }, Arrays.copyOfRange(w, w.length - 10, w.length - 8));
+    }
+
+    @Test
+    public void accumulatorIsNotSpilled() {
+        int base = c.arg(0);
+        int[] v = new int[32];
+        for (int i = 0; i < v.length; i++) {
+            v[i] = c.newGp(true);
+            c.ldrImm(v[i], base, 8 * i);
+        }
+        int acc = c.newGp(true);
+        c.loadConstant(acc, 0);
+        for (int i = 0; i < v.length; i++) {
+            c.addReg(acc, acc, v[i]);
+        }
+        c.ret(acc);
+        c.serialize();
+        int[] w = words(a);
+        // Each spilled value is stored and reloaded exactly once.
+        assertEquals(7, c.spilled());
+        assertEquals(c.spilled(), count(w, 0xffc003e0, 0xf90003e0));     // str xN, [sp, #imm]
+        assertEquals(c.spilled(), count(w, 0xffc003e0, 0xf94003e0));     // ldr xN, [sp, #imm]
+        assertEquals(REG.REG_X0, c.physical(acc));
+    }
+
+    @Test
+    public void largeFrameIsAllocatedWithSub() {
+        int[] v = constants(90);
+        int sum = c.newGp(true);
+        c.loadConstant(sum, 0);
+        for (int i = v.length - 1; i >= 0; i--) {
+            c.addReg(sum, sum, v[i]);
+        }
+        c.ret(sum);
+        c.serialize();
+        assertEquals(608, c.frameSize());
+        int[] w = words(a);
+        assertArrayEquals(new int[] {
+            0xd10983ff,     // sub sp, sp, #608
+            0xa90053f3,     // stp x19, x20, [sp]
+            0xa9015bf5,     // stp x21, x22, [sp, #16]
+            0xa90263f7,     // stp x23, x24, [sp, #32]
+            0xa9036bf9,     // stp x25, x26, [sp, #48]
+            0xa90473fb,     // stp x27, x28, [sp, #64]
+        }, Arrays.copyOfRange(w, 0, 6));
+        assertArrayEquals(new int[] {
+            0xa94053f3,     // ldp x19, x20, [sp]
+            0xa9415bf5,     // ldp x21, x22, [sp, #16]
+            0xa94263f7,     // ldp x23, x24, [sp, #32]
+            0xa9436bf9,     // ldp x25, x26, [sp, #48]
+            0xa94473fb,     // ldp x27, x28, [sp, #64]
+            0x910983ff,     // add sp, sp, #608
+            0xd65f03c0,     // ret
+        }, Arrays.copyOfRange(w, w.length - 7, w.length));
+    }
+}
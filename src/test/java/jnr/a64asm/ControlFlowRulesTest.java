@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2018 Ossdev07
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.a64asm;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static jnr.a64asm.Asm.*;
+import static jnr.a64asm.REG.*;
+import static jnr.a64asm.Words.words;
+import static org.junit.Assert.assertArrayEquals;
+
+public class ControlFlowRulesTest {
+    private Assembler_A64 a;
+
+    @Before
+    public void setUp() {
+        a = new Assembler_A64(CPU_A64.A64);
+        a.beginRecording();
+        a.addPass(PeepholeOptimizer.controlFlowCleanup());
+    }
+
+    @Test
+    public void testSingleBitBecomesTbnz() {
+        Label done = a.newLabel();
+        a.tstImm(REG_X0, 8);
+        a.bne(done);
+        a.movReg(REG_X1, REG_X2);
+        a.bind(done);
+        a.retReg(REG_X30);
+        assertArrayEquals(new int[] {
+            0x37180040,     // tbnz x0, #3, done
+            0xaa0203e1,     // mov x1, x2
+            0xd65f03c0,     // done: ret
+        }, words(a));
+    }
+
+    @Test
+    public void testOfSeveralBitsIsKept() {
+        Label done = a.newLabel();
+        a.tstImm(REG_X0, 3);
+        a.bne(done);
+        a.movReg(REG_X1, REG_X2);
+        a.bind(done);
+        a.retReg(REG_X30);
+        assertArrayEquals(new int[] {
+            0xf240041f,     // tst x0, #3
+            0x54000041,     // b.ne done
+            0xaa0203e1,     // mov x1, x2
+            0xd65f03c0,     // done: ret
+        }, words(a));
+    }
+
+    @Test
+    public void branchToBranchIsThreaded() {
+        Label back = a.newLabel(), hop = a.newLabel();
+        a.cbz(x0, hop);
+        a.movReg(REG_X1, REG_X2);
+        a.bind(back);
+        a.retReg(REG_X30);
+        a.bind(hop);
+        a.b(back);
+        assertArrayEquals(new int[] {
+            0xb4000040,     // cbz x0, back
+            0xaa0203e1,     // mov x1, x2
+            0xd65f03c0,     // back: ret
+            0x17ffffff,     // hop: b back
+        }, words(a));
+    }
+
+    @Test
+    public void loopOfBranchesIsNotThreaded() {
+        Label first = a.newLabel(), middle = a.newLabel(), second = a.newLabel();
+        a.cbz(x0, first);
+        a.cbnz(x1, middle);
+        a.retReg(REG_X30);
+        a.bind(first);
+        a.b(second);
+        a.bind(middle);
+        a.retReg(REG_X30);
+        a.bind(second);
+        a.b(first);
+        assertArrayEquals(new int[] {
+            0xb4000060,     // cbz x0, first
+            0xb5000061,     // cbnz x1, middle
+            0xd65f03c0,     // ret
+            0x14000002,     // first: b second
+            0xd65f03c0,     // middle: ret
+            0x17fffffe,     // second: b first
+        }, words(a));
+    }
+
+    @Test
+    public void branchToNextIsRemoved() {
+        Label next = a.newLabel();
+        a.cbz(x0, next);
+        a.b(next);
+        a.bind(next);
+        a.retReg(REG_X30);
+        assertArrayEquals(new int[] {
+            0xd65f03c0,     // ret
+        }, words(a));
+    }
+
+    @Test
+    public void codeAfterReturnIsRemovedUpToLabel() {
+        Label done = a.newLabel();
+        a.cbz(x2, done);
+        a.retReg(REG_X30);
+        a.movReg(REG_X0, REG_X1);
+        a.bind(done);
+        a.retReg(REG_X30);
+        assertArrayEquals(new int[] {
+            0xb4000042,     // cbz x2, done
+            0xd65f03c0,     // ret
+            0xd65f03c0,     // done: ret
+        }, words(a));
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2018 Ossdev07
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.a64asm;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static jnr.a64asm.Asm.*;
+import static jnr.a64asm.REG.*;
+import static jnr.a64asm.Words.words;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class IfConversionTest {
+    private Assembler_A64 a;
+    private IfConversion pass;
+
+    @Before
+    public void setUp() {
+        a = new Assembler_A64(CPU_A64.A64);
+        a.beginRecording();
+        pass = new IfConversion();
+        a.addPass(pass);
+    }
+
+    @Test
+    public void diamondBecomesCset() {
+        Label other = a.newLabel(), join = a.newLabel();
+        a.cmpReg(REG_X0, REG_X1);
+        a.beq(other);
+        a.movzImm(REG_W0, 0, 0);
+        a.b(join);
+        a.bind(other);
+        a.movzImm(REG_W0, 1, 0);
+        a.bind(join);
+        a.retReg(REG_X30);
+        assertArrayEquals(new int[] {
+            0xeb01001f,     // cmp x0, x1
+            0x1a9f17e0,     // cset w0, eq (csinc w0, wzr, wzr, ne)
+            0xd65f03c0,     // ret
+        }, words(a));
+        assertEquals(1, pass.converted());
+    }
+
+    @Test
+    public void triangleBecomesCsel() {
+        Label skip = a.newLabel();
+        a.cmpReg(REG_X2, REG_X3);
+        a.ble(skip);
+        a.movReg(REG_X2, REG_X3);
+        a.bind(skip);
+        a.retReg(REG_X30);
+        assertArrayEquals(new int[] {
+            0xeb03005f,     // cmp x2, x3
+            0x9a83d042,     // csel x2, x2, x3, le
+            0xd65f03c0,     // ret
+        }, words(a));
+        assertEquals(1, pass.converted());
+    }
+
+    @Test
+    public void triangleWithWArmIsKept() {
+        // Skipping mov w0, w1 leaves the upper half of x0 alone; csel w0 would clear it.
+        Label skip = a.newLabel();
+        a.cmpReg(REG_X0, REG_X1);
+        a.beq(skip);
+        a.movReg(REG_W0, REG_W1);
+        a.bind(skip);
+        a.retReg(REG_X30);
+        assertArrayEquals(new int[] {
+            0xeb01001f,     // cmp x0, x1
+            0x54000040,     // b.eq skip
+            0x2a0103e0,     // mov w0, w1
+            0xd65f03c0,     // skip: ret
+        }, words(a));
+        assertEquals(0, pass.converted());
+    }
+
+    @Test
+    public void labelWithOtherReferencesIsKept() {
+        Label skip = a.newLabel();
+        a.cbz(x4, skip);
+        a.cmpReg(REG_X2, REG_X3);
+        a.ble(skip);
+        a.movReg(REG_X2, REG_X3);
+        a.bind(skip);
+        a.retReg(REG_X30);
+        assertArrayEquals(new int[] {
+            0xb4000084,     // cbz x4, skip
+            0xeb03005f,     // cmp x2, x3
+            0x5400004d,     // b.le skip
+            0xaa0303e2,     // mov x2, x3
+            0xd65f03c0,     // skip: ret
+        }, words(a));
+        assertEquals(0, pass.converted());
+    }
+
+    @Test
+    public void diamondWithoutPlainArmIsKept() {
+        Label other = a.newLabel(), join = a.newLabel();
+        a.cmpReg(REG_X4, REG_X5);
+        a.bmi(other);
+        a.subReg(REG_X4, REG_X31, REG_X4);
+        a.b(join);
+        a.bind(other);
+        a.addImm(REG_X4, REG_X4, 1, 0);
+        a.bind(join);
+        a.retReg(REG_X30);
+        assertArrayEquals(new int[] {
+            0xeb05009f,     // cmp x4, x5
+            0x54000064,     // b.mi other
+            0xcb0403e4,     // neg x4, x4
+            0x14000002,     // b join
+            0x91000484,     // other: add x4, x4, #1
+            0xd65f03c0,     // join: ret
+        }, words(a));
+        assertEquals(0, pass.converted());
+    }
+}
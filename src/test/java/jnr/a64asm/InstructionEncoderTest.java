@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2018 Ossdev07
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.a64asm;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the per-group encoders against the words of the single switch they
+ * replaced.
+ *
+ * encodings.txt lists, for every instruction code and every operand tuple of
+ * {@link #operands} the original switch accepted, the words it emitted, and
+ * for every code it rejected throughout, the exception it threw. A {@code #}
+ * comment above an entry records an encoding a later change corrected on
+ * purpose, and the entry holds the words emitted since.
+ */
+public class InstructionEncoderTest {
+    //! @brief Number of operand tuples tried for each instruction code.
+    static final int TUPLES = 45;
+
+    private static final Register x1 = Register.gpb(1), x2 = Register.gpb(2), x3 = Register.gpb(3), x4 = Register.gpb(4);
+    private static final Register w1 = Register.gpw(1), w2 = Register.gpw(2), w3 = Register.gpw(3), w4 = Register.gpw(4);
+
+    /** Returns operand tuple @a t, covering the operand shapes of every instruction group. */
+    static Operand[] operands(int t) {
+        switch (t) {
+            case 0: return new Operand[0];
+            case 1: return new Operand[] { x1 };
+            case 2: return new Operand[] { imm(0x40) };
+            case 3: return new Operand[] { x1, x2 };
+            case 4: return new Operand[] { w1, w2 };
+            case 5: return new Operand[] { x1, imm(0x1234) };
+            case 6: return new Operand[] { w1, imm(0x1234) };
+            case 7: return new Operand[] { x1, imm(0x1234), new Shift(0, 16) };
+            case 8: return new Operand[] { x1, x2, x3 };
+            case 9: return new Operand[] { w1, w2, w3 };
+            case 10: return new Operand[] { x1, x2, x3, x4 };
+            case 11: return new Operand[] { w1, w2, w3, w4 };
+            case 12: return new Operand[] { x1, x2, imm(5) };
+            case 13: return new Operand[] { w1, w2, imm(5) };
+            case 14: return new Operand[] { x1, x2, imm(0xff) };
+            case 15: return new Operand[] { x1, x2, imm(3), imm(7) };
+            case 16: return new Operand[] { w1, w2, imm(3), imm(7) };
+            case 17: return new Operand[] { x1, x2, x3, new Shift(0, 3) };
+            case 18: return new Operand[] { w1, w2, w3, new Shift(1, 2) };
+            case 19: return new Operand[] { x1, x2, x3, new Shift(2, 5) };
+            case 20: return new Operand[] { x1, x2, x3, new Ext(2, 2) };
+            case 21: return new Operand[] { w1, w2, w3, new Ext(0, 1) };
+            case 22: return new Operand[] { x1, x2, imm(16), new Shift(0, 12) };
+            case 23: return new Operand[] { x1, new Offset(x2, imm(16)) };
+            case 24: return new Operand[] { w1, new Offset(x2, imm(8)) };
+            case 25: return new Operand[] { x1, new Pre_index(x2, imm(-16)) };
+            case 26: return new Operand[] { x1, new Post_index(x2, imm(16)) };
+            case 27: return new Operand[] { x1, x2, new Offset(x3, imm(16)) };
+            case 28: return new Operand[] { x1, x2, new Pre_index(x3, imm(-16)) };
+            case 29: return new Operand[] { x1, x2, new Post_index(x3, imm(16)) };
+            case 30: return new Operand[] { w1, w2, new Offset(x3, imm(8)) };
+            case 31: return new Operand[] { x1, x2, imm(-8) };
+            case 32: return new Operand[] { x1, x2, x3, new Ext(3, 3) };
+            case 33: return new Operand[] { x1, imm(5), imm(3), new Conditions(1) };
+            case 34: return new Operand[] { x1, x2, imm(3), new Conditions(10) };
+            case 35: return new Operand[] { x1, x2, x3, new Conditions(11) };
+            case 36: return new Operand[] { x1, x2, new Conditions(0) };
+            case 37: return new Operand[] { x1, new Conditions(8) };
+            case 38: return new Operand[] { x1, x2, x3, imm(7) };
+            case 39: return new Operand[] { x1, imm(3), imm(0x40) };
+            case 40: return new Operand[] { SysRegister.sysReg(SYSREG_CODE.values()[0]), x1 };
+            case 41: return new Operand[] { x1, SysRegister.sysReg(SYSREG_CODE.values()[0]) };
+            case 42: return new Operand[] { imm(3) };
+            case 43: return new Operand[] { w1, x2, x3, x4 };
+            case 44: return new Operand[] { w1, x2, x3 };
+            default: throw new IllegalArgumentException("no operand tuple " + t);
+        }
+    }
+
+    private static Immediate imm(long value) {
+        return Immediate.imm(value);
+    }
+
+    /**
+     * Emits instruction @a code with operand tuple @a t into a new assembler
+     * and returns its words, relocated to 0x10000, as hexadecimal separated
+     * by spaces.
+     */
+    static String encode(INST_CODE code, int t) {
+        Operand[] o = new Operand[5];
+        Operand[] given = operands(t);
+        for (int i = 0; i < o.length; i++) {
+            o[i] = i < given.length ? given[i] : SerializerCore._none;
+        }
+        Assembler_A64 a = new Assembler_A64(CPU_A64.A64);
+        a._emita64(code, o[0], o[1], o[2], o[3], o[4]);
+        ByteBuffer b = ByteBuffer.allocate(a.codeSize()).order(ByteOrder.LITTLE_ENDIAN);
+        a.relocCode(b, 0x10000);
+        b.flip();
+        StringBuilder sb = new StringBuilder();
+        while (b.remaining() >= 4) {
+            sb.append(sb.length() > 0 ? " " : "").append(String.format("%08x", b.getInt()));
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void encodersMatchTheOriginalSwitch() throws IOException {
+        InputStream in = getClass().getResourceAsStream("encodings.txt");
+        assertNotNull("encodings.txt not on the class path", in);
+        BufferedReader r = new BufferedReader(new InputStreamReader(in, "US-ASCII"));
+        List<String> mismatches = new ArrayList<String>();
+        Set<INST_CODE> covered = EnumSet.noneOf(INST_CODE.class);
+        int checked = 0;
+        try {
+            for (String line; (line = r.readLine()) != null; ) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] f = line.split(" ", 3);
+                INST_CODE code = INST_CODE.valueOf(f[0]);
+                String got;
+                try {
+                    got = encode(code, Integer.parseInt(f[1]));
+                } catch (RuntimeException e) {
+                    got = e.getClass().getName();
+                }
+                if (!got.equals(f[2])) {
+                    mismatches.add(f[0] + " " + f[1] + ": expected " + f[2] + ", got " + got);
+                }
+                covered.add(code);
+                checked++;
+            }
+        } finally {
+            r.close();
+        }
+        assertTrue(mismatches.size() + " of " + checked + " encodings differ: " + mismatches, mismatches.isEmpty());
+        for (INST_CODE code : INST_CODE.values()) {
+            if (InstructionDescription.get(code).group != null) {
+                assertTrue("no encoding of " + code, covered.contains(code));
+            }
+        }
+        assertEquals(TUPLES, tupleCount());
+    }
+
+    private static int tupleCount() {
+        int t = 0;
+        try {
+            for (;; t++) {
+                operands(t);
+            }
+        } catch (IllegalArgumentException e) {
+            return t;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2018 Ossdev07
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.a64asm;
+
+import org.junit.Test;
+
+import static jnr.a64asm.REG.*;
+import static jnr.a64asm.Words.words;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class LoadStorePairingTest {
+    private Assembler_A64 a;
+    private LoadStorePairing pass;
+
+    private void record(boolean nonTemporal) {
+        a = new Assembler_A64(CPU_A64.A64);
+        a.beginRecording();
+        pass = new LoadStorePairing(nonTemporal);
+        a.addPass(pass);
+    }
+
+    @Test
+    public void adjacentStoresBecomeStp() {
+        record(false);
+        a.strImm(REG_X19, REG_X31, 16);
+        a.strImm(REG_X20, REG_X31, 24);
+        assertArrayEquals(new int[] {
+            0xa90153f3,     // stp x19, x20, [sp, #16]
+        }, words(a));
+        assertEquals(1, pass.fused());
+    }
+
+    @Test
+    public void laterLoadMovesUpPastIndependentAccess() {
+        record(false);
+        a.ldrImm(REG_W0, REG_X1, 0);
+        a.ldrImm(REG_W2, REG_X1, 8);
+        a.ldrImm(REG_W3, REG_X1, 4);
+        assertArrayEquals(new int[] {
+            0x29400c20,     // ldp w0, w3, [x1]
+            0xb9400822,     // ldr w2, [x1, #8]
+        }, words(a));
+    }
+
+    @Test
+    public void nonTemporalPairIsLdnp() {
+        record(true);
+        a.ldrImm(REG_X0, REG_X2, 0);
+        a.ldrImm(REG_X1, REG_X2, 8);
+        assertArrayEquals(new int[] {
+            0xa8400440,     // ldnp x0, x1, [x2]
+        }, words(a));
+    }
+
+    @Test
+    public void storeDoesNotMovePastLoadOfItsSlot() {
+        record(false);
+        a.strImm(REG_X0, REG_X1, 0);
+        a.ldrImm(REG_X3, REG_X1, 8);
+        a.strImm(REG_X2, REG_X1, 8);
+        assertArrayEquals(new int[] {
+            0xf9000020,     // str x0, [x1]
+            0xf9400423,     // ldr x3, [x1, #8]
+            0xf9000422,     // str x2, [x1, #8]
+        }, words(a));
+        assertEquals(0, pass.fused());
+    }
+
+    @Test
+    public void loadDoesNotMovePastBaseOverwrite() {
+        record(false);
+        a.ldrImm(REG_X3, REG_X1, 0);
+        a.ldrImm(REG_X1, REG_X1, 16);
+        a.ldrImm(REG_X4, REG_X1, 8);
+        assertArrayEquals(new int[] {
+            0xf9400023,     // ldr x3, [x1]
+            0xf9400821,     // ldr x1, [x1, #16]
+            0xf9400424,     // ldr x4, [x1, #8]
+        }, words(a));
+    }
+
+    @Test
+    public void loadIntoBaseDoesNotMovePastItsUses() {
+        record(false);
+        a.ldrImm(REG_X1, REG_X0, 0);
+        a.ldrImm(REG_X2, REG_X0, 16);
+        a.ldrImm(REG_X0, REG_X0, 8);
+        assertArrayEquals(new int[] {
+            0xf9400001,     // ldr x1, [x0]
+            0xa9408800,     // ldp x0, x2, [x0, #8]
+        }, words(a));
+    }
+
+    @Test
+    public void loadsIntoSameRegisterStay() {
+        record(false);
+        a.ldrImm(REG_X0, REG_X1, 0);
+        a.ldrImm(REG_X0, REG_X1, 8);
+        assertArrayEquals(new int[] {
+            0xf9400020,     // ldr x0, [x1]
+            0xf9400420,     // ldr x0, [x1, #8]
+        }, words(a));
+    }
+
+    @Test
+    public void labelInBetweenStopsPairing() {
+        record(false);
+        a.strImm(REG_X19, REG_X31, 16);
+        a.bind(a.newLabel());
+        a.strImm(REG_X20, REG_X31, 24);
+        assertArrayEquals(new int[] {
+            0xf9000bf3,     // str x19, [sp, #16]
+            0xf9000ff4,     // str x20, [sp, #24]
+        }, words(a));
+    }
+}
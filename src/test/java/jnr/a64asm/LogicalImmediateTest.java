@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2018 Ossdev07
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.a64asm;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LogicalImmediateTest {
+    /**
+     * Decodes N:immr:imms as DecodeBitMasks in the ARM ARM does, bit by bit,
+     * for a 64 or 32 bit (@a is64) operation; returns 0 for a reserved encoding.
+     */
+    private static long decode(int encoding, boolean is64) {
+        int n = encoding >>> 12 & 1;
+        int immr = encoding >>> 6 & 0x3f;
+        int imms = encoding & 0x3f;
+        int len = -1;
+        for (int b = 6; b >= 0; b--) {
+            if (((n << 6 | (~imms & 0x3f)) >>> b & 1) != 0) {
+                len = b;
+                break;
+            }
+        }
+        if (len < 1 || (!is64 && n != 0)) {
+            return 0;
+        }
+        int levels = (1 << len) - 1;
+        if ((imms & levels) == levels) {
+            return 0;
+        }
+        int esize = 1 << len;
+        int s = imms & levels;
+        int r = immr & levels;
+        long value = 0;
+        for (int i = 0; i < (is64 ? 64 : 32); i++) {
+            // Bit i of the element rotated right by r is bit (i + r) mod esize of a run of s + 1 ones.
+            if ((i % esize + r) % esize <= s) {
+                value |= 1L << i;
+            }
+        }
+        return value;
+    }
+
+    @Test
+    public void encodesEvery64BitPattern() {
+        Set<Long> values = new HashSet<Long>();
+        for (int encoding = 0; encoding < 1 << 13; encoding++) {
+            long value = decode(encoding, true);
+            if (value == 0) {
+                continue;
+            }
+            values.add(value);
+            int e = LogicalImmediate.encode(value, true);
+            assertTrue("no encoding for " + Long.toHexString(value), e >= 0);
+            assertEquals(value, decode(e, true));
+        }
+        assertEquals(5334, values.size());
+
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            long value = random.nextLong() >>> random.nextInt(64);
+            assertEquals(values.contains(value), LogicalImmediate.isEncodable(value, true));
+        }
+        assertEquals(-1, LogicalImmediate.encode(0, true));
+        assertEquals(-1, LogicalImmediate.encode(-1L, true));
+    }
+
+    @Test
+    public void encodesEvery32BitPattern() {
+        Set<Long> values = new HashSet<Long>();
+        for (int encoding = 0; encoding < 1 << 12; encoding++) {
+            long value = decode(encoding, false);
+            if (value == 0) {
+                continue;
+            }
+            values.add(value);
+            int e = LogicalImmediate.encode(value, false);
+            assertTrue("no encoding for " + Long.toHexString(value), e >= 0);
+            assertEquals(0, e >>> 12);
+            assertEquals(value, decode(e, false));
+        }
+        assertEquals(1302, values.size());
+
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            long value = (random.nextInt() & 0xffffffffL) >>> random.nextInt(32);
+            assertEquals(values.contains(value), LogicalImmediate.isEncodable(value, false));
+        }
+        assertEquals(-1, LogicalImmediate.encode(0xffffffffL, false));
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2018 Ossdev07
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.a64asm;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class OperandCacheTest {
+    private static OperandCache<Immediate> immediates(long low, long high) {
+        return new OperandCache<Immediate>(2, low, high) {
+            @Override
+            Immediate create(int row, long value) {
+                return new Immediate(value, row == 1);
+            }
+        };
+    }
+
+    @Test
+    public void valuesInRangeAreSharedPerRow() {
+        OperandCache<Immediate> c = immediates(-4, 4);
+        assertSame(c.get(0, -4), c.get(0, -4));
+        assertSame(c.get(1, 4), c.get(1, 4));
+        assertNotSame(c.get(0, 3), c.get(1, 3));
+        assertFalse(c.get(0, 3).isUnsigned());
+        assertNotSame(c.get(0, 5), c.get(0, 5));
+        assertEquals(-5, c.get(0, -5).value());
+    }
+
+    @Test
+    public void wideRangesAreCutAndEmptyRangesCacheNothing() {
+        OperandCache<Immediate> wide = immediates(Integer.MIN_VALUE, Integer.MAX_VALUE);
+        assertEquals(Integer.MIN_VALUE + OperandCache.MAX_VALUES - 1, wide.high);
+        assertSame(wide.get(0, Integer.MIN_VALUE), wide.get(0, Integer.MIN_VALUE));
+        assertNotSame(wide.get(0, 0), wide.get(0, 0));
+
+        OperandCache<Immediate> empty = immediates(10, -10);
+        assertNotSame(empty.get(0, 0), empty.get(0, 0));
+        assertEquals(10, empty.get(0, 10).value());
+    }
+
+    @Test
+    public void addressingOperandsAreSharedForX64Bases() {
+        Register x3 = Register.gpb(3);
+        assertSame(Offset.of(x3, 4095), Offset.of(x3, 4095));
+        assertSame(x3, Offset.of(x3, 8).getRegister());
+        assertNotSame(Offset.of(x3, 4096), Offset.of(x3, 4096));
+        assertSame(Pre_index.of(x3, -512), Pre_index.of(x3, -512));
+        assertSame(Post_index.of(x3, 511), Post_index.of(x3, 511));
+        assertNotSame(Offset.of(Register.gpw(3), 8), Offset.of(Register.gpw(3), 8));
+        assertSame(Immediate.imm(7), Immediate.imm(7));
+        assertNotSame(Immediate.imm(7), Immediate.uimm(7));
+    }
+}
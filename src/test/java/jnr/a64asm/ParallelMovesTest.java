@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2018 Ossdev07
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.a64asm;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static jnr.a64asm.REG.*;
+import static jnr.a64asm.Words.words;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ParallelMovesTest {
+    private Assembler_A64 a;
+    private ParallelMoves moves;
+
+    @Before
+    public void setUp() {
+        a = new Assembler_A64(CPU_A64.A64);
+        moves = new ParallelMoves();
+    }
+
+    @Test
+    public void swapGoesThroughX16() {
+        moves.move(REG_X0, REG_X1);
+        moves.move(REG_X1, REG_X0);
+        moves.emit(a);
+        assertArrayEquals(new int[] {
+            0xaa0003f0,     // mov x16, x0
+            0xaa0103e0,     // mov x0, x1
+            0xaa1003e1,     // mov x1, x16
+        }, words(a));
+        assertTrue(moves.isEmpty());
+    }
+
+    @Test
+    public void threeCycleSavesOneRegister() {
+        moves.move(REG_X0, REG_X1);
+        moves.move(REG_X1, REG_X2);
+        moves.move(REG_X2, REG_X0);
+        moves.emit(a);
+        assertArrayEquals(new int[] {
+            0xaa0003f0,     // mov x16, x0
+            0xaa0103e0,     // mov x0, x1
+            0xaa0203e1,     // mov x1, x2
+            0xaa1003e2,     // mov x2, x16
+        }, words(a));
+    }
+
+    @Test
+    public void fanOutFromCycleRunsBeforeTheCycle() {
+        moves.move(REG_X0, REG_X1);
+        moves.move(REG_X1, REG_X0);
+        moves.move(REG_X2, REG_X0);
+        moves.emit(a);
+        assertArrayEquals(new int[] {
+            0xaa0003e2,     // mov x2, x0
+            0xaa0003f0,     // mov x16, x0
+            0xaa0103e0,     // mov x0, x1
+            0xaa1003e1,     // mov x1, x16
+        }, words(a));
+    }
+
+    @Test
+    public void adjacentAccessesArePaired() {
+        moves.load(REG_X3, REG_X5, 8);
+        moves.load(REG_X2, REG_X5, 0);
+        moves.store(REG_X31, 16, REG_X0);
+        moves.store(REG_X31, 24, REG_X1);
+        moves.copy(REG_X31, 0, REG_X4, 0);
+        moves.copy(REG_X31, 8, REG_X4, 8);
+        moves.emit(a);
+        assertArrayEquals(new int[] {
+            0xa90107e0,     // stp x0, x1, [sp, #16]
+            0xa9404490,     // ldp x16, x17, [x4]
+            0xa90047f0,     // stp x16, x17, [sp]
+            0xa9400ca2,     // ldp x2, x3, [x5]
+        }, words(a));
+    }
+
+    @Test
+    public void loadReadsItsBaseBeforeMovesOverwriteIt() {
+        moves.load(REG_X0, REG_X1, 0);
+        moves.move(REG_X1, REG_X2);
+        moves.emit(a);
+        assertArrayEquals(new int[] {
+            0xf9400020,     // ldr x0, [x1]
+            0xaa0203e1,     // mov x1, x2
+        }, words(a));
+    }
+
+    @Test
+    public void farCopiesAreNotPaired() {
+        // Pairing would compute the second source address in x16, over the first word.
+        moves.copy(REG_X31, 0, REG_X31, 40000);
+        moves.copy(REG_X31, 8, REG_X31, 40016);
+        moves.emit(a);
+        assertArrayEquals(new int[] {
+            0x914027f0,     // add x16, sp, #0x9000
+            0xf9462210,     // ldr x16, [x16, #3136]
+            0xf90003f0,     // str x16, [sp]
+            0x914027f0,     // add x16, sp, #0x9000
+            0xf9462a10,     // ldr x16, [x16, #3152]
+            0xf90007f0,     // str x16, [sp, #8]
+        }, words(a));
+    }
+
+    @Test
+    public void oddSizedLoadsReadExactlyTheirBytes() {
+        ParallelMoves.loadBytes(a, REG_X0, REG_X1, 0, 3, REG_X17);
+        ParallelMoves.loadBytes(a, REG_X0, REG_X1, 0, 5, REG_X17);
+        ParallelMoves.loadBytes(a, REG_X0, REG_X1, 0, 6, REG_X17);
+        ParallelMoves.loadBytes(a, REG_X0, REG_X1, 0, 7, REG_X17);
+        assertArrayEquals(new int[] {
+            0x78401031,     // ldurh w17, [x1, #1]
+            0x79400020,     // ldrh w0, [x1]
+            0xaa112000,     // orr x0, x0, x17, lsl #8
+            0xb8401031,     // ldur w17, [x1, #1]
+            0xb9400020,     // ldr w0, [x1]
+            0xaa112000,     // orr x0, x0, x17, lsl #8
+            0xb8402031,     // ldur w17, [x1, #2]
+            0xb9400020,     // ldr w0, [x1]
+            0xaa114000,     // orr x0, x0, x17, lsl #16
+            0xb8403031,     // ldur w17, [x1, #3]
+            0xb9400020,     // ldr w0, [x1]
+            0xaa116000,     // orr x0, x0, x17, lsl #24
+        }, words(a));
+    }
+
+    @Test
+    public void baseMayBeTheDestinationOfAnOddSizedLoad() {
+        ParallelMoves.loadBytes(a, REG_X1, REG_X1, 8, 6, REG_X17);
+        assertArrayEquals(new int[] {
+            0xb840a031,     // ldur w17, [x1, #10]
+            0xb9400821,     // ldr w1, [x1, #8]
+            0xaa114021,     // orr x1, x1, x17, lsl #16
+        }, words(a));
+    }
+}
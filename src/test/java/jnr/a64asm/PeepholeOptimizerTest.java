@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2018 Ossdev07
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.a64asm;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static jnr.a64asm.REG.*;
+import static jnr.a64asm.Words.words;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class PeepholeOptimizerTest {
+    private Assembler_A64 a;
+    private PeepholeOptimizer optimizer;
+
+    @Before
+    public void setUp() {
+        a = new Assembler_A64(CPU_A64.A64);
+        a.beginRecording();
+        optimizer = new PeepholeOptimizer();
+        a.addPass(optimizer);
+    }
+
+    @Test
+    public void movSelfIsRemovedInXFormOnly() {
+        a.movReg(REG_X3, REG_X3);
+        a.movReg(REG_W3, REG_W3);
+        a.retReg(REG_X30);
+        assertArrayEquals(new int[] {
+            0x2a0303e3,     // mov w3, w3 (clears the upper half)
+            0xd65f03c0,     // ret
+        }, words(a));
+        assertEquals(Integer.valueOf(1), optimizer.hitCounts().get("mov-self"));
+    }
+
+    @Test
+    public void addZeroIsRemovedUnlessItSetsFlags() {
+        a.addImm(REG_X4, REG_X4, 0, 0);
+        a.addsImm(REG_X4, REG_X4, 0, 0);
+        a.addImm(REG_X5, REG_X4, 0, 0);
+        a.retReg(REG_X30);
+        assertArrayEquals(new int[] {
+            0xb1000084,     // adds x4, x4, #0
+            0x91000085,     // mov x5, x4
+            0xd65f03c0,     // ret
+        }, words(a));
+    }
+
+    @Test
+    public void storeReloadBecomesMove() {
+        a.strImm(REG_X0, REG_X31, 16);
+        a.ldrImm(REG_X2, REG_X31, 16);
+        a.strImm(REG_X1, REG_X31, 24);
+        a.ldrImm(REG_X1, REG_X31, 24);
+        a.retReg(REG_X30);
+        assertArrayEquals(new int[] {
+            0xf9000be0,     // str x0, [sp, #16]
+            0xaa0003e2,     // mov x2, x0
+            0xf9000fe1,     // str x1, [sp, #24]
+            0xd65f03c0,     // ret
+        }, words(a));
+    }
+
+    @Test
+    public void storeReloadStopsAtLabel() {
+        Label entry = a.newLabel();
+        a.strImm(REG_X0, REG_X31, 16);
+        a.bind(entry);
+        a.ldrImm(REG_X2, REG_X31, 16);
+        a.retReg(REG_X30);
+        assertArrayEquals(new int[] {
+            0xf9000be0,     // str x0, [sp, #16]
+            0xf9400be2,     // entry: ldr x2, [sp, #16]
+            0xd65f03c0,     // ret
+        }, words(a));
+    }
+
+    @Test
+    public void cmpZeroBranchBecomesCbz() {
+        Label done = a.newLabel();
+        a.cmpImm(REG_X5, 0);
+        a.beq(done);
+        a.movReg(REG_X0, REG_X1);
+        a.bind(done);
+        a.retReg(REG_X30);
+        assertArrayEquals(new int[] {
+            0xb4000045,     // cbz x5, done
+            0xaa0103e0,     // mov x0, x1
+            0xd65f03c0,     // done: ret
+        }, words(a));
+    }
+
+    @Test
+    public void cmpZeroBranchKeepsLiveFlags() {
+        Label done = a.newLabel();
+        a.cmpImm(REG_X5, 0);
+        a.beq(done);
+        a.blt(done);
+        a.movReg(REG_X0, REG_X1);
+        a.bind(done);
+        a.retReg(REG_X30);
+        assertArrayEquals(new int[] {
+            0xf10000bf,     // cmp x5, #0
+            0x54000060,     // b.eq done
+            0x5400004b,     // b.lt done
+            0xaa0103e0,     // mov x0, x1
+            0xd65f03c0,     // done: ret
+        }, words(a));
+    }
+
+    @Test
+    public void adjacentLoadsBecomeLdp() {
+        a.ldrImm(REG_X0, REG_X2, 8);
+        a.ldrImm(REG_X1, REG_X2, 0);
+        a.retReg(REG_X30);
+        assertArrayEquals(new int[] {
+            0xa9400041,     // ldp x1, x0, [x2]
+            0xd65f03c0,     // ret
+        }, words(a));
+    }
+
+    @Test
+    public void loadPairKeepsOverwrittenBase() {
+        a.ldrImm(REG_X2, REG_X2, 0);
+        a.ldrImm(REG_X3, REG_X2, 8);
+        a.retReg(REG_X30);
+        assertArrayEquals(new int[] {
+            0xf9400042,     // ldr x2, [x2]
+            0xf9400443,     // ldr x3, [x2, #8]
+            0xd65f03c0,     // ret
+        }, words(a));
+    }
+}
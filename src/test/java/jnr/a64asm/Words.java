@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2018 Ossdev07
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.a64asm;
+
+/** Code access shared by the assembler tests. */
+final class Words {
+    private Words() {}
+
+    /** Finalizes the code of @a a, running its passes, and returns its words. */
+    static int[] words(Assembler_A64 a) {
+        a.codeSize();
+        int[] w = new int[a.wordCount()];
+        for (int i = 0; i < w.length; i++) {
+            w[i] = a.getWord32(i);
+        }
+        return w;
+    }
+}